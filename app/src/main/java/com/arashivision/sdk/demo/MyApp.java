@@ -3,6 +3,7 @@ package com.arashivision.sdk.demo;
 import android.app.Application;
 
 import com.arashivision.sdk.demo.activity.StitchActivity;
+import com.arashivision.sdk.demo.download.LocalMediaStore;
 import com.arashivision.sdk.demo.util.AssetsUtil;
 import com.arashivision.sdkcamera.InstaCameraSDK;
 import com.arashivision.sdkmedia.InstaMediaSDK;
@@ -20,6 +21,8 @@ public class MyApp extends Application {
         // Init SDK
         InstaCameraSDK.init(this);
         InstaMediaSDK.init(this);
+        // Load the index of the downloaded camera files in background
+        LocalMediaStore.init();
 
         // Copy sample pictures from assets to local
         copyHdrSourceFromAssets();
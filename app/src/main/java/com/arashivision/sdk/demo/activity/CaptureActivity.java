@@ -13,21 +13,30 @@ import android.widget.Toast;
 
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.arashivision.insta360.basecamera.camera.CameraType;
-import com.arashivision.insta360.basemedia.util.FileUtils;
 import com.arashivision.sdk.demo.R;
-import com.arashivision.sdk.demo.util.StorageUtils;
+import com.arashivision.sdk.demo.download.AdaptiveConcurrencyController;
+import com.arashivision.sdk.demo.download.ChunkedDownloader;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
+import com.arashivision.sdk.demo.download.LocalMediaStore;
+import com.arashivision.sdk.demo.download.RangeCacheProxy;
+import com.arashivision.sdk.demo.osc.OscManager;
+import com.arashivision.sdk.demo.osc.OscRequestHandle;
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.delegate.OkHttpOscRequestDelegate;
 import com.arashivision.sdk.demo.util.TimeFormat;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 import com.arashivision.sdkcamera.camera.callback.ICameraOperateCallback;
 import com.arashivision.sdkcamera.camera.callback.ICaptureStatusListener;
-import com.lzy.okgo.OkGo;
-import com.lzy.okgo.callback.FileCallback;
-import com.lzy.okgo.model.Response;
+import com.arashivision.sdkmedia.work.WorkWrapper;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public class CaptureActivity extends BaseObserveCameraActivity implements ICaptureStatusListener {
@@ -43,6 +52,10 @@ public class CaptureActivity extends BaseObserveCameraActivity implements ICaptu
 
     private TextView mTvCaptureFilePath;
 
+    // Removed when the downloads are finished or the page is destroyed
+    private AdaptiveConcurrencyController.OnChangedListener mTransferListener;
+    private OscRequestHandle mFileSizesHandle;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -55,6 +68,10 @@ public class CaptureActivity extends BaseObserveCameraActivity implements ICaptu
             return;
         }
 
+        // 下载前通过OSC获取相机文件大小
+        // The camera file sizes are got by OSC before downloading
+        OscManager.getInstance().setOscRequestDelegate(new OkHttpOscRequestDelegate());
+
         SwitchSensorCallback switchSensorCallback = new SwitchSensorCallback(this);
         findViewById(R.id.layout_switch_sensor).setVisibility((isOneX2() || isOneX3()) ? View.VISIBLE : View.GONE);
         findViewById(R.id.btn_switch_dual_sensor).setOnClickListener(v -> {
@@ -282,55 +299,121 @@ public class CaptureActivity extends BaseObserveCameraActivity implements ICaptu
             return;
         }
 
-        String rootPath = StorageUtils.getInternalRootPath();
-        rootPath = rootPath != null ? rootPath : "";
-        String localFolder = FileUtils.createDirectoryIfNeeded(rootPath) + "/SDK_DEMO_CAPTURE";
-        String[] fileNames = new String[urls.length];
+        // 通过本地媒体库查找已下载的文件，同一文件不会重复下载
+        // Resolve the local copies through the media store, a file is never downloaded twice
+        LocalMediaStore store = LocalMediaStore.getInstance();
+        String key = LocalMediaStore.getKey(LocalMediaStore.getCameraSerial(), new WorkWrapper(urls));
         String[] localPaths = new String[urls.length];
-        boolean needDownload = false;
+        List<Integer> downloadIndexes = new ArrayList<>();
         for (int i = 0; i < localPaths.length; i++) {
-            fileNames[i] = urls[i].substring(urls[i].lastIndexOf("/") + 1);
-            localPaths[i] = localFolder + "/" + fileNames[i];
-            if (!new File(localPaths[i]).exists()) {
-                needDownload = true;
+            LocalMediaStore.Entry entry = store.get(key, urls[i]);
+            if (entry != null) {
+                localPaths[i] = entry.path;
+            } else {
+                localPaths[i] = store.getLocalFile(key, urls[i]).getPath();
+                downloadIndexes.add(i);
             }
         }
 
-        if (!needDownload) {
+        if (downloadIndexes.isEmpty()) {
             PlayAndExportActivity.launchActivity(CaptureActivity.this, localPaths);
             return;
         }
 
+        // 先从相机文件列表获取文件大小，用于校验下载的文件
+        // Get the file sizes from the camera file list first, to verify the downloaded files
+        mFileSizesHandle = OscManager.getInstance().getFileSizes(urls, new IOscCallback() {
+            @Override
+            public void onSuccessful(Object object) {
+                downloadFilesAndPlay(urls, key, localPaths, downloadIndexes, (long[]) object);
+            }
+
+            @Override
+            public void onError(String message) {
+                long[] sizes = new long[urls.length];
+                Arrays.fill(sizes, -1);
+                downloadFilesAndPlay(urls, key, localPaths, downloadIndexes, sizes);
+            }
+        });
+    }
+
+    /**
+     * @param sizes Sizes from the camera, -1 if unknown
+     */
+    private void downloadFilesAndPlay(String[] urls, String key, String[] localPaths, List<Integer> downloadIndexes, long[] sizes) {
+        LocalMediaStore store = LocalMediaStore.getInstance();
+        // 未下载的文件通过本地代理边下边播，播放器立即打开，其余部分在后台预取
+        // The files not downloaded yet are played through the local proxy while they are cached,
+        // the player opens at once and the rest is prefetched in the background
+        String[] playUrls = localPaths.clone();
+        try {
+            for (int i : downloadIndexes) {
+                String url = urls[i];
+                playUrls[i] = RangeCacheProxy.getInstance().open(url, new File(localPaths[i]), sizes[i], new ChunkedDownloader.Callback() {
+
+                    @Override
+                    public void onSuccessful(@NonNull ChunkedDownloader.Result result) {
+                        store.put(key, url, result.file, result.checksum);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        // 播放器会提示错误，已缓存的部分下次继续
+                        // The player shows the error, the cached blocks are resumed next time
+                    }
+                });
+            }
+            PlayAndExportActivity.launchActivity(CaptureActivity.this, playUrls);
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "RangeCacheProxy failed to open, " + e.getMessage());
+            // 本地代理无法启动时，下载完成后再播放
+            // Play after the download if the local proxy could not start
+            RangeCacheProxy.getInstance().close(playUrls);
+        }
+
         MaterialDialog dialog = new MaterialDialog.Builder(this)
                 .title(R.string.osc_dialog_title_downloading)
-                .content(getString(R.string.osc_dialog_msg_downloading, urls.length, 0, 0))
+                .content(getString(R.string.osc_dialog_msg_downloading, downloadIndexes.size(), 0, 0))
                 .cancelable(false)
                 .canceledOnTouchOutside(false)
                 .show();
 
         AtomicInteger successfulCount = new AtomicInteger(0);
         AtomicInteger errorCount = new AtomicInteger(0);
-        for (int i = 0; i < localPaths.length; i++) {
+        // 显示自适应下载的实时吞吐、往返时延、并发数与分块大小
+        // Show the live goodput, round trip, connections and chunk size of the adaptive downloads
+        AdaptiveConcurrencyController controller = ChunkedDownloader.getInstance().getConcurrencyController();
+        AdaptiveConcurrencyController.OnChangedListener transferListener = snapshot -> dialog.setContent(
+                getString(R.string.osc_dialog_msg_downloading, downloadIndexes.size(), successfulCount.intValue(), errorCount.intValue())
+                        + "\n" + snapshot);
+        removeTransferListener();
+        mTransferListener = transferListener;
+        controller.addOnChangedListener(transferListener);
+        for (int i : downloadIndexes) {
             String url = urls[i];
-            OkGo.<File>get(url)
-                    .execute(new FileCallback(localFolder, fileNames[i]) {
+            // 大文件按HTTP Range分块并行下载，用户等待播放，优先下载
+            // Large files are downloaded in parallel HTTP Range chunks, the user is waiting to play them, so they go first
+            DownloadScheduler.getInstance()
+                    .enqueue(url, new File(localPaths[i]), DownloadScheduler.Priority.PLAY, sizes[i], null, new ChunkedDownloader.Callback() {
 
                         @Override
-                        public void onError(Response<File> response) {
-                            super.onError(response);
-                            errorCount.incrementAndGet();
+                        public void onSuccessful(@NonNull ChunkedDownloader.Result result) {
+                            store.put(key, url, result.file, result.checksum);
+                            successfulCount.incrementAndGet();
                             checkDownloadCount();
                         }
 
                         @Override
-                        public void onSuccess(Response<File> response) {
-                            successfulCount.incrementAndGet();
+                        public void onError(String message) {
+                            errorCount.incrementAndGet();
                             checkDownloadCount();
                         }
 
                         private void checkDownloadCount() {
-                            dialog.setContent(getString(R.string.osc_dialog_msg_downloading, urls.length, successfulCount.intValue(), errorCount.intValue()));
-                            if (successfulCount.intValue() + errorCount.intValue() >= urls.length) {
+                            dialog.setContent(getString(R.string.osc_dialog_msg_downloading, downloadIndexes.size(), successfulCount.intValue(), errorCount.intValue()));
+                            if (successfulCount.intValue() + errorCount.intValue() >= downloadIndexes.size()) {
+                                removeTransferListener();
                                 PlayAndExportActivity.launchActivity(CaptureActivity.this, localPaths);
                                 dialog.dismiss();
                             }
@@ -339,6 +422,25 @@ public class CaptureActivity extends BaseObserveCameraActivity implements ICaptu
         }
     }
 
+    private void removeTransferListener() {
+        if (mTransferListener != null) {
+            ChunkedDownloader.getInstance().getConcurrencyController().removeOnChangedListener(mTransferListener);
+            mTransferListener = null;
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // 页面销毁后不再显示下载状态，也不再开始新的下载，已开始的下载在队列中继续
+        // No more download status and no new downloads after the page is destroyed,
+        // the downloads already started go on in the queue
+        removeTransferListener();
+        if (mFileSizesHandle != null) {
+            mFileSizesHandle.cancel();
+        }
+        super.onDestroy();
+    }
+
     private static class SwitchSensorCallback implements ICameraOperateCallback {
 
         private final Context context;
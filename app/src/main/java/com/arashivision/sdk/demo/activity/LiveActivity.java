@@ -16,6 +16,7 @@ import android.widget.ToggleButton;
 
 import com.arashivision.insta360.basecamera.camera.CameraType;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
 import com.arashivision.sdk.demo.util.NetworkManager;
 import com.arashivision.sdk.demo.util.PreviewParamsUtil;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
@@ -226,6 +227,7 @@ public class LiveActivity extends BaseObserveCameraActivity implements IPreviewS
             InstaCameraManager.getInstance().closePreviewStream();
             InstaCameraManager.getInstance().setPreviewStatusChangedListener(null);
             mCapturePlayerView.destroy();
+            DownloadScheduler.getInstance().resume(this);
             NetworkManager.getInstance().clearBindProcess();
             mBtnBindNetwork.setChecked(false);
         }
@@ -250,6 +252,7 @@ public class LiveActivity extends BaseObserveCameraActivity implements IPreviewS
         mCapturePlayerView.prepare(createParams());
         mCapturePlayerView.play();
         mCapturePlayerView.setKeepScreenOn(true);
+        DownloadScheduler.getInstance().pause(this);
     }
 
     private CaptureParamsBuilder createParams() {
@@ -266,6 +269,7 @@ public class LiveActivity extends BaseObserveCameraActivity implements IPreviewS
         mBtnLive.setEnabled(false);
         mCapturePlayerView.destroy();
         mCapturePlayerView.setKeepScreenOn(false);
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
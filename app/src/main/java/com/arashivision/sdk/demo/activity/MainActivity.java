@@ -15,6 +15,8 @@ import androidx.core.content.ContextCompat;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.arashivision.onecamera.camerarequest.WifiInfo;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.osc.OscManager;
+import com.arashivision.sdk.demo.osc.delegate.CameraHttpClient;
 import com.arashivision.sdk.demo.util.CameraBindNetworkManager;
 import com.arashivision.sdk.demo.util.NetworkManager;
 import com.arashivision.sdkcamera.api.bean.SecretInfo;
@@ -206,8 +208,15 @@ public class MainActivity extends BaseObserveCameraActivity {
         findViewById(R.id.btn_wifi_info).setEnabled(enabled);
         findViewById(R.id.btn_camera_activate).setEnabled(enabled);
         if (enabled) {
+            // 提前建立OSC请求的连接
+            // Open the connection for OSC requests in advance
+            CameraHttpClient.getInstance().prewarm();
+            // 相机重新连接后，不再快速失败OSC请求
+            // The camera is connected again, stop failing the OSC requests fast
+            OscManager.getInstance().getCircuitBreaker().reset();
             Toast.makeText(this, R.string.main_toast_camera_connected, Toast.LENGTH_SHORT).show();
         } else {
+            CameraHttpClient.getInstance().evictConnections();
             CameraBindNetworkManager.getInstance().unbindNetwork();
             NetworkManager.getInstance().clearBindProcess();
             Toast.makeText(this, R.string.main_toast_camera_disconnected, Toast.LENGTH_SHORT).show();
@@ -1,5 +1,6 @@
 package com.arashivision.sdk.demo.activity;
 
+import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
@@ -12,25 +13,33 @@ import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.arashivision.insta360.basecamera.camera.CameraType;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.ChunkedDownloader;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
+import com.arashivision.sdk.demo.download.LocalMediaStore;
 import com.arashivision.sdk.demo.model.CaptureExposureData;
+import com.arashivision.sdk.demo.osc.OscCircuitBreaker;
 import com.arashivision.sdk.demo.osc.OscManager;
+import com.arashivision.sdk.demo.osc.OscRequestHandle;
+import com.arashivision.sdk.demo.osc.SeparatedFisheyeJob;
 import com.arashivision.sdk.demo.osc.callback.IOscCallback;
-import com.arashivision.sdk.demo.osc.delegate.OscRequestDelegate;
+import com.arashivision.sdk.demo.osc.delegate.OkHttpOscRequestDelegate;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 import com.arashivision.sdkmedia.stitch.StitchUtils;
 import com.arashivision.sdkmedia.work.WorkWrapper;
-import com.lzy.okgo.OkGo;
-import com.lzy.okgo.callback.FileCallback;
-import com.lzy.okgo.model.Response;
 
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public class OscActivity extends BaseObserveCameraActivity implements IOscCallback {
@@ -51,6 +60,17 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
     private StitchTask mStitchTask;
     private String mStitchOutputPath;
 
+    // Requests to cancel when the page is destroyed
+    private List<OscRequestHandle> mRequestHandles = new ArrayList<>();
+
+    private OscCircuitBreaker.OnStateChangedListener mCircuitBreakerListener = state -> {
+        if (state == OscCircuitBreaker.State.OPEN) {
+            Toast.makeText(this, R.string.osc_toast_camera_unreachable, Toast.LENGTH_SHORT).show();
+        } else if (state == OscCircuitBreaker.State.CLOSED) {
+            Toast.makeText(this, R.string.osc_toast_camera_reachable, Toast.LENGTH_SHORT).show();
+        }
+    };
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -69,9 +89,13 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                 .positiveText(android.R.string.ok)
                 .build();
 
-        // 配置网络请求代理
-        // Setting up a network request proxy
-        OscManager.getInstance().setOscRequestDelegate(new OscRequestDelegate());
+        // 配置网络请求代理，支持取消进行中的请求
+        // Setting up a network request proxy, which supports cancelling requests in flight
+        OscManager.getInstance().setOscRequestDelegate(new OkHttpOscRequestDelegate());
+
+        // 相机无响应时请求直接失败，提示用户
+        // Requests fail fast while the camera is not responding, notify the user
+        OscManager.getInstance().getCircuitBreaker().addOnStateChangedListener(mCircuitBreakerListener);
 
         // 查看相机基本信息与支持的osc命令
         // Get the basic information about the camera and functionality it supports
@@ -79,7 +103,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
             // 先检查相机是否已连接
             // First determine if the camera is connected
             if (isCameraConnected()) {
-                OscManager.getInstance().customRequest("/osc/info", null, this);
+                track(OscManager.getInstance().customRequest("/osc/info", null, this));
             } else {
                 promptToConnectCamera();
             }
@@ -89,7 +113,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
         // Get the attributes of the camera
         findViewById(R.id.btn_state).setOnClickListener(v -> {
             if (isCameraConnected()) {
-                OscManager.getInstance().customRequest("/osc/state", "", this);
+                track(OscManager.getInstance().customRequest("/osc/state", "", this));
             } else {
                 promptToConnectCamera();
             }
@@ -116,7 +140,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                         "      ]\n" +
                         "  }\n" +
                         "}}";
-                OscManager.getInstance().customRequest("/osc/commands/execute", content, this);
+                track(OscManager.getInstance().customRequest("/osc/commands/execute", content, this));
             } else {
                 promptToConnectCamera();
             }
@@ -132,7 +156,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                         "   \"shots\":3," +
                         "   \"increment\":2" +
                         "}";
-                OscManager.getInstance().takePicture(options, this);
+                track(OscManager.getInstance().takePicture(options, this));
             } else {
                 promptToConnectCamera();
             }
@@ -145,7 +169,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                 String options = "\"captureMode\":\"image\"," +
                         "\"hdr\": \"hdr\"," +
                         "\"photoStitching\": \"ondevice\"";
-                OscManager.getInstance().takePicture(options, this);
+                track(OscManager.getInstance().takePicture(options, this));
             } else {
                 promptToConnectCamera();
             }
@@ -156,7 +180,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
         findViewById(R.id.btn_start_record).setOnClickListener(v -> {
             if (isCameraConnected()) {
                 String options = "\"captureMode\":\"video\"";
-                OscManager.getInstance().startRecord(options, this);
+                track(OscManager.getInstance().startRecord(options, this));
             } else {
                 promptToConnectCamera();
             }
@@ -166,7 +190,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
         // Stop Record
         findViewById(R.id.btn_stop_record).setOnClickListener(v -> {
             if (isCameraConnected()) {
-                OscManager.getInstance().stopRecord(this);
+                track(OscManager.getInstance().stopRecord(this));
             } else {
                 promptToConnectCamera();
             }
@@ -176,7 +200,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
             findViewById(R.id.layout_separated_fisheye_stitch).setVisibility(View.VISIBLE);
             findViewById(R.id.btn_get_exposure_params).setOnClickListener(v -> {
                 if (isCameraConnected()) {
-                    OscManager.getInstance().getCaptureExposureParamsForX2(this);
+                    track(OscManager.getInstance().getCaptureExposureParamsForX2(this));
                 } else {
                     promptToConnectCamera();
                 }
@@ -187,7 +211,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                         Toast.makeText(this, R.string.osc_toast_get_exposure_params, Toast.LENGTH_SHORT).show();
                     } else {
                         mBtnCaptureFrontSensorClicked.set(true);
-                        OscManager.getInstance().takeSingleSensorPictureForX2(1, mCaptureExposureData, this);
+                        track(OscManager.getInstance().takeSingleSensorPictureForX2(1, mCaptureExposureData, this));
                     }
                 } else {
                     promptToConnectCamera();
@@ -199,7 +223,7 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                         Toast.makeText(this, R.string.osc_toast_get_exposure_params, Toast.LENGTH_SHORT).show();
                     } else {
                         mBtnCaptureRearSensorClicked.set(true);
-                        OscManager.getInstance().takeSingleSensorPictureForX2(2, mCaptureExposureData, this);
+                        track(OscManager.getInstance().takeSingleSensorPictureForX2(2, mCaptureExposureData, this));
                     }
                 } else {
                     promptToConnectCamera();
@@ -221,6 +245,18 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
                     promptToConnectCamera();
                 }
             });
+
+            // 一键完成测光、前后镜头拍照、下载与拼接，前镜头文件在后镜头拍照时下载
+            // Get exposure params, capture with both sensors, download and stitch in one job,
+            // the front file is downloaded while the rear sensor is capturing
+            findViewById(R.id.btn_separated_fisheye_job).setVisibility(View.VISIBLE);
+            findViewById(R.id.btn_separated_fisheye_job).setOnClickListener(v -> {
+                if (isCameraConnected()) {
+                    startSeparatedFisheyeJob();
+                } else {
+                    promptToConnectCamera();
+                }
+            });
         }
     }
 
@@ -311,6 +347,111 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
         mBtnCaptureRearSensorClicked.set(false);
     }
 
+    private void startSeparatedFisheyeJob() {
+        File localFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "SDK_DEMO_OSC");
+        // 前后镜头文件通过本地媒体库和下载队列下载，与其他页面共享
+        // The files of both sensors are downloaded through the media store and the download queue,
+        // shared with the other pages
+        SeparatedFisheyeJob.FileDownloader downloader = OscActivity::downloadToStore;
+        SeparatedFisheyeJob.Stitcher stitcher = (frontPath, rearPath, outputPath) ->
+                StitchUtils.stitchSeparatedFisheyeFile(new WorkWrapper(new String[]{frontPath, rearPath}), outputPath);
+
+        StringBuilder timings = new StringBuilder();
+        mDialog.setTitle(R.string.osc_dialog_title_stage_timings);
+        mDialog.setContent(R.string.osc_dialog_msg_send_request);
+        mDialog.getActionButton(DialogAction.POSITIVE).setVisibility(View.GONE);
+        mDialog.show();
+        track(new SeparatedFisheyeJob(downloader, stitcher, localFolder)
+                .setExposureData(mCaptureExposureData)
+                .start(new SeparatedFisheyeJob.Callback() {
+                    @Override
+                    public void onStageFinished(@NonNull SeparatedFisheyeJob.StageTiming timing) {
+                        timings.append(timing).append("\n");
+                        mDialog.setContent(timings.toString());
+                    }
+
+                    @Override
+                    public void onSuccessful(@NonNull SeparatedFisheyeJob.Result result) {
+                        mCaptureExposureData = result.exposureData;
+                        mFrontSensorCapturePath = result.frontPath;
+                        mRearSensorCapturePath = result.rearPath;
+                        mStitchOutputPath = result.outputPath;
+                        updateUI();
+                        mDialog.setContent(result.toString());
+                        mDialog.getActionButton(DialogAction.POSITIVE).setVisibility(View.VISIBLE);
+                        PlayAndExportActivity.launchActivity(OscActivity.this, new String[]{result.outputPath});
+                    }
+
+                    @Override
+                    public void onError(@NonNull SeparatedFisheyeJob.Stage stage, String message) {
+                        OscActivity.this.onError(stage + ": " + message);
+                    }
+                }));
+    }
+
+    // Wait for a camera file downloaded through the media store and the download queue, on a background thread
+    private static File downloadToStore(String url) throws Exception {
+        LocalMediaStore store = LocalMediaStore.getInstance();
+        String key = LocalMediaStore.getKey(LocalMediaStore.getCameraSerial(), new WorkWrapper(new String[]{url}));
+        LocalMediaStore.Entry entry = store.get(key, url);
+        if (entry != null) {
+            return new File(entry.path);
+        }
+        // Size from the camera file list to verify the download, unknown if the list failed
+        long[] size = {-1};
+        CountDownLatch listed = new CountDownLatch(1);
+        OscRequestHandle sizeHandle = OscManager.getInstance().getFileSizes(new String[]{url}, new IOscCallback() {
+            @Override
+            public void onSuccessful(Object object) {
+                size[0] = ((long[]) object)[0];
+                listed.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                listed.countDown();
+            }
+        });
+        try {
+            listed.await();
+        } catch (InterruptedException e) {
+            sizeHandle.cancel();
+            throw e;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        ChunkedDownloader.Result[] result = new ChunkedDownloader.Result[1];
+        String[] error = new String[1];
+        // The job waits for the file to stitch it, like a file waited for to play
+        DownloadScheduler.Registration registration = DownloadScheduler.getInstance()
+                .enqueue(url, store.getLocalFile(key, url), DownloadScheduler.Priority.PLAY, size[0], null, new ChunkedDownloader.Callback() {
+
+                    @Override
+                    public void onSuccessful(@NonNull ChunkedDownloader.Result downloadResult) {
+                        store.put(key, url, downloadResult.file, downloadResult.checksum);
+                        result[0] = downloadResult;
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        error[0] = message == null ? "Unknown error" : message;
+                        latch.countDown();
+                    }
+                });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // 任务被取消，只取消本页面的回调，其他页面仍在等待的下载继续
+            // The job is cancelled, only its own callback: the download goes on if another page waits for it
+            registration.cancel();
+            throw e;
+        }
+        if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+        return result[0].file;
+    }
+
     private void promptToConnectCamera() {
         Toast.makeText(this, R.string.osc_toast_connect_camera, Toast.LENGTH_SHORT).show();
     }
@@ -320,66 +461,129 @@ public class OscActivity extends BaseObserveCameraActivity implements IOscCallba
             return;
         }
 
-        String localFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) + "/SDK_DEMO_OSC";
-        String[] fileNames = new String[urls.length];
+        // 通过本地媒体库查找已下载的文件，同一文件不会重复下载
+        // Resolve the local copies through the media store, a file is never downloaded twice
+        LocalMediaStore store = LocalMediaStore.getInstance();
+        String key = LocalMediaStore.getKey(LocalMediaStore.getCameraSerial(), new WorkWrapper(urls));
         String[] localPaths = new String[urls.length];
+        List<Integer> downloadIndexes = new ArrayList<>();
         for (int i = 0; i < localPaths.length; i++) {
-            fileNames[i] = urls[i].substring(urls[i].lastIndexOf("/") + 1);
-            localPaths[i] = localFolder + "/" + fileNames[i];
+            LocalMediaStore.Entry entry = store.get(key, urls[i]);
+            if (entry != null) {
+                localPaths[i] = entry.path;
+            } else {
+                localPaths[i] = store.getLocalFile(key, urls[i]).getPath();
+                downloadIndexes.add(i);
+            }
         }
 
+        if (downloadIndexes.isEmpty()) {
+            onFilesDownloaded(localPaths);
+            return;
+        }
+
+        // 先从相机文件列表获取文件大小，用于校验下载的文件
+        // Get the file sizes from the camera file list first, to verify the downloaded files
+        track(OscManager.getInstance().getFileSizes(urls, new IOscCallback() {
+            @Override
+            public void onSuccessful(Object object) {
+                downloadFiles(urls, key, localPaths, downloadIndexes, (long[]) object);
+            }
+
+            @Override
+            public void onError(String message) {
+                long[] sizes = new long[urls.length];
+                Arrays.fill(sizes, -1);
+                downloadFiles(urls, key, localPaths, downloadIndexes, sizes);
+            }
+        }));
+    }
+
+    /**
+     * @param sizes Sizes from the camera, -1 if unknown
+     */
+    private void downloadFiles(String[] urls, String key, String[] localPaths, List<Integer> downloadIndexes, long[] sizes) {
+        LocalMediaStore store = LocalMediaStore.getInstance();
         MaterialDialog dialog = new MaterialDialog.Builder(this)
                 .title(R.string.osc_dialog_title_downloading)
-                .content(getString(R.string.osc_dialog_msg_downloading, urls.length, 0, 0))
+                .content(getString(R.string.osc_dialog_msg_downloading, downloadIndexes.size(), 0, 0))
                 .cancelable(false)
                 .canceledOnTouchOutside(false)
                 .show();
 
         AtomicInteger successfulCount = new AtomicInteger(0);
         AtomicInteger errorCount = new AtomicInteger(0);
-        for (int i = 0; i < localPaths.length; i++) {
+        for (int i : downloadIndexes) {
             String url = urls[i];
-            OkGo.<File>get(url)
-                    .execute(new FileCallback(localFolder, fileNames[i]) {
+            // 大文件按HTTP Range分块并行下载，拍摄后自动导出
+            // Large files are downloaded in parallel HTTP Range chunks, offloaded after the capture
+            DownloadScheduler.getInstance()
+                    .enqueue(url, new File(localPaths[i]), DownloadScheduler.Priority.OFFLOAD, sizes[i], null, new ChunkedDownloader.Callback() {
 
                         @Override
-                        public void onError(Response<File> response) {
-                            super.onError(response);
-                            errorCount.incrementAndGet();
+                        public void onSuccessful(@NonNull ChunkedDownloader.Result result) {
+                            store.put(key, url, result.file, result.checksum);
+                            successfulCount.incrementAndGet();
                             checkDownloadCount();
                         }
 
                         @Override
-                        public void onSuccess(Response<File> response) {
-                            successfulCount.incrementAndGet();
+                        public void onError(String message) {
+                            errorCount.incrementAndGet();
                             checkDownloadCount();
                         }
 
                         private void checkDownloadCount() {
-                            dialog.setContent(getString(R.string.osc_dialog_msg_downloading, urls.length, successfulCount.intValue(), errorCount.intValue()));
-                            if (successfulCount.intValue() + errorCount.intValue() >= urls.length) {
-                                // Demo直接将filePaths传参打开播放页
-                                // This demo directly transfers the file paths to the play page for playback
-                                if (mBtnCaptureFrontSensorClicked.get()) {
-                                    mFrontSensorCapturePath = localPaths[0];
-                                    updateUI();
-                                } else if (mBtnCaptureRearSensorClicked.get()) {
-                                    mRearSensorCapturePath = localPaths[0];
-                                    updateUI();
-                                } else {
-                                    PlayAndExportActivity.launchActivity(OscActivity.this, localPaths);
-                                }
+                            dialog.setContent(getString(R.string.osc_dialog_msg_downloading, downloadIndexes.size(), successfulCount.intValue(), errorCount.intValue()));
+                            if (successfulCount.intValue() + errorCount.intValue() >= downloadIndexes.size()) {
+                                onFilesDownloaded(localPaths);
                                 dialog.dismiss();
-                                mBtnCaptureFrontSensorClicked.set(false);
-                                mBtnCaptureRearSensorClicked.set(false);
                             }
                         }
                     });
         }
     }
 
+    private void onFilesDownloaded(String[] localPaths) {
+        // Demo直接将filePaths传参打开播放页
+        // This demo directly transfers the file paths to the play page for playback
+        if (mBtnCaptureFrontSensorClicked.get()) {
+            mFrontSensorCapturePath = localPaths[0];
+            updateUI();
+        } else if (mBtnCaptureRearSensorClicked.get()) {
+            mRearSensorCapturePath = localPaths[0];
+            updateUI();
+        } else {
+            PlayAndExportActivity.launchActivity(OscActivity.this, localPaths);
+        }
+        mBtnCaptureFrontSensorClicked.set(false);
+        mBtnCaptureRearSensorClicked.set(false);
+    }
+
+    private void track(OscRequestHandle handle) {
+        mRequestHandles.removeIf(OscRequestHandle::isDone);
+        mRequestHandles.add(handle);
+    }
+
     @Override
     protected void onDestroy() {
+        // 取消未完成的请求，页面销毁后不再回调
+        // Cancel unfinished requests, no callbacks after the page is destroyed
+        for (OscRequestHandle handle : mRequestHandles) {
+            handle.cancel();
+        }
+        mRequestHandles.clear();
+        OscManager.getInstance().getCircuitBreaker().removeOnStateChangedListener(mCircuitBreakerListener);
+        // 在后台线程保存OSC请求统计，用于分析耗时，避免写文件阻塞主线程
+        // Save the OSC request metrics in the background to analyse the latency, no file IO on the main thread
+        Context appContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            try {
+                OscManager.getInstance().getMetrics().dump(new File(appContext.getExternalFilesDir(null), "osc_metrics.txt"));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
         if (mStitchTask != null) {
             mStitchTask.cancel(true);
         }
@@ -18,6 +18,8 @@ import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.arashivision.insta360.basemedia.asset.AssetConstants;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.LocalMediaStore;
+import com.arashivision.sdk.demo.download.RangeCacheProxy;
 import com.arashivision.sdk.demo.util.TimeFormat;
 import com.arashivision.sdkmedia.export.ExportImageParamsBuilder;
 import com.arashivision.sdkmedia.export.ExportUtils;
@@ -58,6 +60,8 @@ public class PlayAndExportActivity extends BaseObserveCameraActivity implements
     private ToggleButton mBtnPureShot;
 
     private WorkWrapper mWorkWrapper;
+    // Urls of the work, local paths or RangeCacheProxy urls if it is cached while played
+    private String[] mUrls;
     private MaterialDialog mExportDialog;
     private int mCurrentExportId = -1;
 
@@ -92,6 +96,16 @@ public class PlayAndExportActivity extends BaseObserveCameraActivity implements
             return;
         }
 
+        // 相机文件已下载到本地媒体库时，播放和导出都使用本地文件
+        // Play and export the local copy if the camera files are in the media store
+        if (urls.length > 0 && urls[0].startsWith("http")) {
+            String key = LocalMediaStore.getKey(LocalMediaStore.getCameraSerial(), new WorkWrapper(urls));
+            String[] localPaths = LocalMediaStore.getInstance().resolve(key, urls);
+            if (localPaths != null) {
+                urls = localPaths;
+            }
+        }
+        mUrls = urls;
         mWorkWrapper = new WorkWrapper(urls);
         bindViews();
         if (mWorkWrapper.isVideo()) {
@@ -456,6 +470,11 @@ public class PlayAndExportActivity extends BaseObserveCameraActivity implements
         if (mVideoPlayerView != null) {
             mVideoPlayerView.destroy();
         }
+        // 通过本地代理播放的文件在后台继续缓存，完成后关闭
+        // The files played through the local proxy are still cached in the background, then closed
+        if (mUrls != null) {
+            RangeCacheProxy.getInstance().release(mUrls);
+        }
     }
 
     private static class HDRStitchTask extends AsyncTask<Void, Void, Boolean> {
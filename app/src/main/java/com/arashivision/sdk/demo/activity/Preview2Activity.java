@@ -11,6 +11,7 @@ import com.arashivision.insta360.basecamera.camera.BaseCamera;
 import com.arashivision.insta360.basemedia.asset.WindowCropInfo;
 import com.arashivision.insta360.basemedia.model.offset.OffsetData;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
 import com.arashivision.sdk.demo.util.PreviewParamsUtil;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 import com.arashivision.sdkcamera.camera.callback.IPreviewStatusListener;
@@ -78,6 +79,7 @@ public class Preview2Activity extends BaseObserveCameraActivity implements IPrev
             InstaCameraManager.getInstance().setPreviewStatusChangedListener(null);
             InstaCameraManager.getInstance().closePreviewStream();
             mCapturePlayerView.destroy();
+            DownloadScheduler.getInstance().resume(this);
         }
     }
 
@@ -108,6 +110,7 @@ public class Preview2Activity extends BaseObserveCameraActivity implements IPrev
         mCapturePlayerView.prepare(createParams());
         mCapturePlayerView.play();
         mCapturePlayerView.setKeepScreenOn(true);
+        DownloadScheduler.getInstance().pause(this);
     }
 
     private CaptureParamsBuilder createParams() {
@@ -139,6 +142,7 @@ public class Preview2Activity extends BaseObserveCameraActivity implements IPrev
             mLayoutSurfaceContainer.removeView(mSurfaceView);
             mSurfaceView = null;
         }
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
@@ -147,6 +151,7 @@ public class Preview2Activity extends BaseObserveCameraActivity implements IPrev
         mBtnPlayer.setEnabled(false);
         mBtnPlayer.setChecked(false);
         mBtnPreview.setChecked(false);
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
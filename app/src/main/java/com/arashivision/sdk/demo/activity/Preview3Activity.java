@@ -14,6 +14,7 @@ import com.arashivision.insta360.basecamera.camera.BaseCamera;
 import com.arashivision.insta360.basemedia.asset.WindowCropInfo;
 import com.arashivision.insta360.basemedia.model.offset.OffsetData;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
 import com.arashivision.sdk.demo.util.PreviewParamsUtil;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 import com.arashivision.sdkcamera.camera.callback.IPreviewStatusListener;
@@ -82,6 +83,7 @@ public class Preview3Activity extends BaseObserveCameraActivity implements IPrev
             InstaCameraManager.getInstance().setPreviewStatusChangedListener(null);
             InstaCameraManager.getInstance().closePreviewStream();
             mCapturePlayerView.destroy();
+            DownloadScheduler.getInstance().resume(this);
         }
     }
 
@@ -111,6 +113,7 @@ public class Preview3Activity extends BaseObserveCameraActivity implements IPrev
         mCapturePlayerView.prepare(createParams());
         mCapturePlayerView.play();
         mCapturePlayerView.setKeepScreenOn(true);
+        DownloadScheduler.getInstance().pause(this);
     }
 
     private CaptureParamsBuilder createParams() {
@@ -187,12 +190,14 @@ public class Preview3Activity extends BaseObserveCameraActivity implements IPrev
             mImageReaderHandler = null;
             mImageReader = null;
         }
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
     public void onError() {
         // Preview Failed
         mBtnSwitch.setChecked(false);
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
@@ -17,6 +17,7 @@ import com.arashivision.insta360.basecamera.camera.CameraType;
 import com.arashivision.insta360.basemedia.asset.WindowCropInfo;
 import com.arashivision.insta360.basemedia.model.offset.OffsetData;
 import com.arashivision.sdk.demo.R;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
 import com.arashivision.sdk.demo.util.PreviewParamsUtil;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 import com.arashivision.sdkcamera.camera.callback.IPreviewStatusListener;
@@ -190,6 +191,7 @@ public class PreviewActivity extends BaseObserveCameraActivity implements IPrevi
             InstaCameraManager.getInstance().setPreviewStatusChangedListener(null);
             InstaCameraManager.getInstance().closePreviewStream();
             mCapturePlayerView.destroy();
+            DownloadScheduler.getInstance().resume(this);
         }
     }
 
@@ -219,6 +221,7 @@ public class PreviewActivity extends BaseObserveCameraActivity implements IPrevi
         mCapturePlayerView.prepare(createParams());
         mCapturePlayerView.play();
         mCapturePlayerView.setKeepScreenOn(true);
+        DownloadScheduler.getInstance().pause(this);
     }
 
     private CaptureParamsBuilder createParams() {
@@ -247,6 +250,7 @@ public class PreviewActivity extends BaseObserveCameraActivity implements IPrevi
         // Preview Stopped
         mCapturePlayerView.destroy();
         mCapturePlayerView.setKeepScreenOn(false);
+        DownloadScheduler.getInstance().resume(this);
     }
 
     @Override
@@ -254,6 +258,7 @@ public class PreviewActivity extends BaseObserveCameraActivity implements IPrevi
         // 预览开启失败
         // Preview Failed
         mBtnSwitch.setChecked(false);
+        DownloadScheduler.getInstance().resume(this);
     }
 
 
@@ -0,0 +1,345 @@
+package com.arashivision.sdk.demo.download;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Adjust the parallel connections and the chunk size of the camera downloads on an additive-increase
+ * / multiplicative-decrease curve, separately per connection type.
+ * <p>
+ * The right number of streams differs a lot between USB, 5GHz and 2.4GHz Wi-Fi. The controller
+ * measures the aggregate goodput of all the streams over a window of 1s, and the round trip of every
+ * Range request until its response headers. After each window:
+ * <ul>
+ * <li>the round trip grew beyond twice the lowest one of the last 10s, or the goodput dropped by
+ * more than 10%: the link is saturated, both the concurrency and the chunk size are halved</li>
+ * <li>otherwise one more stream and one more MB per chunk are tried, up to the max</li>
+ * </ul>
+ * Windows with fewer streams running than allowed, such as the tail of a file, change nothing.
+ * A failed request halves them too. A decrease starts a congestion epoch: the round trip and the
+ * goodput are measured again from scratch, and the first window after it only measures, so the
+ * samples of the saturated link never halve the limit twice. The live numbers are available from
+ * getSnapshot() and OnChangedListener.
+ * <p>
+ * The concurrency is the limit of the whole link: the downloads running at the same time share it
+ * evenly, each with at least one stream.
+ */
+public class AdaptiveConcurrencyController {
+
+    public interface OnChangedListener {
+        /**
+         * Called on the main thread after each window
+         */
+        void onChanged(@NonNull Snapshot snapshot);
+    }
+
+    public static class Snapshot {
+
+        public final int connectType;
+        public final int concurrency;
+        public final long chunkSize;
+        // Streams running now
+        public final int activeStreams;
+        // Bytes per second of all the streams in the last window
+        public final long goodput;
+        // Smoothed round trip in ms, 0 if not measured
+        public final long rtt;
+        public final long minRtt;
+
+        private Snapshot(int connectType, int concurrency, long chunkSize, int activeStreams, long goodput, long rtt, long minRtt) {
+            this.connectType = connectType;
+            this.concurrency = concurrency;
+            this.chunkSize = chunkSize;
+            this.activeStreams = activeStreams;
+            this.goodput = goodput;
+            this.rtt = rtt;
+            this.minRtt = minRtt;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "connectType=" + connectType +
+                    ", concurrency=" + concurrency +
+                    ", chunkSize=" + chunkSize / 1024 + "KB" +
+                    ", activeStreams=" + activeStreams +
+                    ", goodput=" + String.format(Locale.US, "%.1fMB/s", goodput / 1024.0 / 1024.0) +
+                    ", rtt=" + rtt +
+                    ", minRtt=" + minRtt +
+                    '}';
+        }
+    }
+
+    private static final long WINDOW = 1000;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double RTT_INFLATION = 2;
+    private static final double GOODPUT_DROP = 0.9;
+    private static final long CHUNK_SIZE_STEP = 1024 * 1024;
+    // The lowest round trip expires after it, e.g. when the camera moved away from the phone
+    private static final long MIN_RTT_WINDOW = 10_000;
+
+    private final Map<Integer, LinkState> mStates = new ConcurrentHashMap<>();
+    private final List<OnChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    private Handler mHandler;
+    private volatile int mMaxConcurrency = 8;
+    private volatile long mMinChunkSize = 1024 * 1024;
+    private volatile long mMaxChunkSize = 16 * 1024 * 1024;
+
+    /**
+     * @param maxConcurrency Max parallel streams per connection type, default 8
+     */
+    public AdaptiveConcurrencyController setMaxConcurrency(int maxConcurrency) {
+        mMaxConcurrency = Math.max(1, maxConcurrency);
+        return this;
+    }
+
+    /**
+     * @param minChunkSize Default 1MB
+     * @param maxChunkSize Default 16MB
+     */
+    public AdaptiveConcurrencyController setChunkSizeRange(long minChunkSize, long maxChunkSize) {
+        mMinChunkSize = Math.max(1, minChunkSize);
+        mMaxChunkSize = Math.max(mMinChunkSize, maxChunkSize);
+        return this;
+    }
+
+    public void addOnChangedListener(@NonNull OnChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnChangedListener(@NonNull OnChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Forget what was learned, e.g. after the camera switched between 5GHz and 2.4GHz
+     */
+    public void reset() {
+        mStates.clear();
+    }
+
+    @NonNull
+    public Snapshot getSnapshot(int connectType) {
+        LinkState state = mStates.get(connectType);
+        if (state == null) {
+            return new Snapshot(connectType, 0, 0, 0, 0, 0, 0);
+        }
+        synchronized (state) {
+            return state.snapshot();
+        }
+    }
+
+    /**
+     * Start values of a connection type, used until the first window ends
+     */
+    void init(int connectType, int concurrency, long chunkSize) {
+        LinkState state = new LinkState(connectType, now());
+        state.limit = Math.min(mMaxConcurrency, Math.max(1, concurrency));
+        state.chunkSize = Math.min(mMaxChunkSize, Math.max(mMinChunkSize, chunkSize));
+        mStates.putIfAbsent(connectType, state);
+    }
+
+    int getConcurrency(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            return (int) state.limit;
+        }
+    }
+
+    /**
+     * Streams allowed to one of the downloads running on the link
+     */
+    int getConcurrencyShare(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            return Math.max(1, (int) state.limit / Math.max(1, state.activeDownloads));
+        }
+    }
+
+    long getChunkSize(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            return state.chunkSize;
+        }
+    }
+
+    void onDownloadStarted(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            state.activeDownloads++;
+        }
+    }
+
+    void onDownloadFinished(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            state.activeDownloads = Math.max(0, state.activeDownloads - 1);
+        }
+    }
+
+    void onStreamStarted(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            if (state.activeStreams++ == 0) {
+                // Idle time is not counted in the goodput
+                state.windowStart = now();
+                state.windowBytes = 0;
+            }
+        }
+    }
+
+    void onStreamFinished(int connectType) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            state.activeStreams = Math.max(0, state.activeStreams - 1);
+        }
+    }
+
+    /**
+     * @param rtt Time in ms from sending a request to its response headers
+     */
+    void onRtt(int connectType, long rtt) {
+        LinkState state = getState(connectType);
+        synchronized (state) {
+            // Smoothed like the TCP SRTT
+            state.rtt = state.rtt <= 0 ? rtt : (state.rtt * 7 + rtt) / 8;
+            // Lowest of the last MIN_RTT_WINDOW, like the BBR min_rtt filter
+            long now = now();
+            if (state.minRtt <= 0 || rtt <= state.minRtt || now - state.minRttTime >= MIN_RTT_WINDOW) {
+                state.minRtt = Math.max(1, rtt);
+                state.minRttTime = now;
+            }
+        }
+    }
+
+    void onBytes(int connectType, long count) {
+        LinkState state = getState(connectType);
+        Snapshot snapshot = null;
+        synchronized (state) {
+            state.windowBytes += count;
+            long elapsed = now() - state.windowStart;
+            if (elapsed >= WINDOW) {
+                long goodput = state.windowBytes * 1000 / elapsed;
+                boolean congested = state.minRtt > 0 && state.rtt > state.minRtt * RTT_INFLATION
+                        || state.goodput > 0 && goodput < state.goodput * GOODPUT_DROP;
+                if (state.measuring) {
+                    // First window after a decrease, only the goodput of the lower limit is measured
+                    state.measuring = false;
+                } else if (state.activeStreams < state.allowedStreams()) {
+                    // Fewer streams than allowed, e.g. the last chunks of a file, nothing to learn
+                } else if (congested) {
+                    decrease(state);
+                } else {
+                    state.limit = Math.min(mMaxConcurrency, state.limit + 1);
+                    state.chunkSize = Math.min(mMaxChunkSize, state.chunkSize + CHUNK_SIZE_STEP);
+                }
+                state.goodput = goodput;
+                state.windowStart = now();
+                state.windowBytes = 0;
+                snapshot = state.snapshot();
+            }
+        }
+        if (snapshot != null) {
+            notifyChanged(snapshot);
+        }
+    }
+
+    void onError(int connectType) {
+        LinkState state = getState(connectType);
+        Snapshot snapshot;
+        synchronized (state) {
+            if (state.measuring) {
+                // Already decreased in this epoch, e.g. all the streams failed together
+                return;
+            }
+            decrease(state);
+            state.windowStart = now();
+            state.windowBytes = 0;
+            snapshot = state.snapshot();
+        }
+        notifyChanged(snapshot);
+    }
+
+    // Start a congestion epoch, the samples taken before it are dropped
+    private void decrease(LinkState state) {
+        state.limit = Math.max(1, state.limit * DECREASE_FACTOR);
+        state.chunkSize = Math.max(mMinChunkSize, (long) (state.chunkSize * DECREASE_FACTOR));
+        state.goodput = 0;
+        state.rtt = 0;
+        state.measuring = true;
+    }
+
+    private LinkState getState(int connectType) {
+        LinkState state = mStates.get(connectType);
+        if (state == null) {
+            init(connectType, 1, mMinChunkSize);
+            state = mStates.get(connectType);
+        }
+        return state;
+    }
+
+    private void notifyChanged(Snapshot snapshot) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        getHandler().post(() -> {
+            for (OnChangedListener listener : mListeners) {
+                listener.onChanged(snapshot);
+            }
+        });
+    }
+
+    // Created on the first notification, the controller itself needs no Looper
+    private synchronized Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        return mHandler;
+    }
+
+    // Monotonic milliseconds, replaced by the unit tests
+    long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private static class LinkState {
+
+        private final int connectType;
+        // Concurrency as a double, the additive increase and the decrease stay smooth
+        private double limit;
+        private long chunkSize;
+        private int activeStreams;
+        private int activeDownloads;
+        private long windowStart;
+        private long windowBytes;
+        private long goodput;
+        private long rtt;
+        private long minRtt;
+        private long minRttTime;
+        // In the first window after a decrease
+        private boolean measuring;
+
+        private LinkState(int connectType, long windowStart) {
+            this.connectType = connectType;
+            this.windowStart = windowStart;
+        }
+
+        // Sum of the shares of the running downloads
+        private int allowedStreams() {
+            int downloads = Math.max(1, activeDownloads);
+            return Math.max(downloads, (int) limit / downloads * downloads);
+        }
+
+        private Snapshot snapshot() {
+            return new Snapshot(connectType, (int) limit, chunkSize, activeStreams, goodput, rtt, minRtt);
+        }
+    }
+}
@@ -0,0 +1,813 @@
+package com.arashivision.sdk.demo.download;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Download camera media files in HTTP Range chunks over several connections.
+ * <p>
+ * A single stream over the camera Wi-Fi is limited by the TCP window and the round trip, not by the
+ * link, so a large file is split into chunks fetched in parallel and written into the preallocated
+ * file at their offsets. The first request asks for the first chunk only: its Content-Range gives the
+ * file length, and the other chunks start as soon as it responds. If the server does not support
+ * Range (HTTP 200), the file is downloaded in one stream.
+ * <p>
+ * The number of parallel chunks is set per connection type (InstaCameraManager.CONNECT_TYPE_WIFI,
+ * CONNECT_TYPE_USB), small files are always downloaded over one connection. When adaptive (default),
+ * it is only the start value: the AdaptiveConcurrencyController raises or lowers the connections and
+ * the chunk size while the file is downloaded. A chunk that fails is retried from where it stopped.
+ * <p>
+ * The file is written as "name.part", with a DownloadJournal "name.journal" of the byte ranges
+ * synced to disk. After a disconnect or an app restart, downloading the same url to the same file
+ * requests only the missing ranges, unless the length or the ETag / Last-Modified changed on the
+ * camera. The part file is renamed to the final name only after every byte is journaled, so an
+ * existing final file is always complete.
+ * <p>
+ * Every chunk is hashed with CRC32 while it is written, the file checksum is combined from the chunks
+ * in DownloadJournal. A file whose length or checksum differs from the expected ones, e.g. the size
+ * in the camera file listing, is deleted instead of renamed.
+ */
+public class ChunkedDownloader {
+
+    public interface ProgressListener {
+        /**
+         * Called on a download thread
+         *
+         * @param total -1 if unknown
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    public interface Callback {
+        /**
+         * Called on the main thread
+         *
+         * @param total -1 if unknown
+         */
+        default void onProgress(long downloaded, long total) {
+        }
+
+        void onSuccessful(@NonNull Result result);
+
+        void onError(String message);
+    }
+
+    public static class Result {
+
+        public final File file;
+        public final long length;
+        // Bytes already downloaded before, by a resumed download
+        public final long resumedLength;
+        public final int chunkCount;
+        // Max parallel connections used
+        public final int connections;
+        public final long elapsedTime;
+        // "crc32:" and 8 hex digits
+        public final String checksum;
+
+        Result(File file, long length, long resumedLength, int chunkCount, int connections, long elapsedTime,
+                       String checksum) {
+            this.file = file;
+            this.checksum = checksum;
+            this.length = length;
+            this.resumedLength = resumedLength;
+            this.chunkCount = chunkCount;
+            this.connections = connections;
+            this.elapsedTime = elapsedTime;
+        }
+
+        /**
+         * Throughput in bytes per second, the resumed bytes are not counted
+         */
+        public long getBytesPerSecond() {
+            return elapsedTime <= 0 ? 0 : (length - resumedLength) * 1000 / elapsedTime;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "file=" + file.getName() +
+                    ", length=" + length +
+                    ", resumedLength=" + resumedLength +
+                    ", chunkCount=" + chunkCount +
+                    ", connections=" + connections +
+                    ", elapsedTime=" + elapsedTime +
+                    ", checksum=" + checksum +
+                    ", throughput=" + String.format(Locale.US, "%.1fMB/s", getBytesPerSecond() / 1024.0 / 1024.0) +
+                    '}';
+        }
+    }
+
+    static final String PART_SUFFIX = ".part";
+    static final String JOURNAL_SUFFIX = ".journal";
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_RETRIES = 2;
+    // Min interval in ms of the progress callbacks
+    static final long PROGRESS_INTERVAL = 100;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_DURATION = 5; // minutes
+
+    private static class ChunkedDownloaderHolder {
+        private static final ChunkedDownloader instance = new ChunkedDownloader();
+    }
+
+    public static ChunkedDownloader getInstance() {
+        return ChunkedDownloaderHolder.instance;
+    }
+
+    private final OkHttpClient mClient;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<Integer, Integer> mParallelChunks = new ConcurrentHashMap<>();
+    private final AdaptiveConcurrencyController mConcurrencyController = new AdaptiveConcurrencyController();
+    private volatile boolean mAdaptive = true;
+    private volatile long mChunkSize = 4 * 1024 * 1024;
+    private volatile long mMinChunkedLength = 8 * 1024 * 1024;
+
+    private ChunkedDownloader() {
+        mClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES))
+                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(15, TimeUnit.SECONDS)
+                .writeTimeout(15, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ChunkedDownloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mParallelChunks.put(InstaCameraManager.CONNECT_TYPE_WIFI, 4);
+        mParallelChunks.put(InstaCameraManager.CONNECT_TYPE_USB, 2);
+    }
+
+    /**
+     * @param connectType    InstaCameraManager.CONNECT_TYPE_WIFI or CONNECT_TYPE_USB
+     * @param parallelChunks Chunks downloaded at the same time, default 4 by Wi-Fi, 2 by USB and 1 otherwise
+     */
+    public ChunkedDownloader setParallelChunks(int connectType, int parallelChunks) {
+        mParallelChunks.put(connectType, Math.max(1, parallelChunks));
+        return this;
+    }
+
+    public int getParallelChunks(int connectType) {
+        Integer parallelChunks = mParallelChunks.get(connectType);
+        return parallelChunks == null ? 1 : parallelChunks;
+    }
+
+    /**
+     * @param adaptive Whether the connections and the chunk size follow the AdaptiveConcurrencyController,
+     *                 otherwise they are fixed. Default true
+     */
+    public ChunkedDownloader setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * The live goodput, round trip, connections and chunk size of the adaptive downloads
+     */
+    @NonNull
+    public AdaptiveConcurrencyController getConcurrencyController() {
+        return mConcurrencyController;
+    }
+
+    /**
+     * @param chunkSize Bytes of a Range request, default 4MB, the start value when adaptive
+     */
+    public ChunkedDownloader setChunkSize(long chunkSize) {
+        mChunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize);
+        return this;
+    }
+
+    /**
+     * @param minChunkedLength Files smaller than it are downloaded over one connection, default 8MB
+     */
+    public ChunkedDownloader setMinChunkedLength(long minChunkedLength) {
+        mMinChunkedLength = Math.max(0, minChunkedLength);
+        return this;
+    }
+
+    /**
+     * Download on a background thread
+     *
+     * @param file Local file, overwritten if exists
+     */
+    @NonNull
+    public DownloadHandle download(@NonNull String url, @NonNull File file, @NonNull Callback callback) {
+        DownloadHandle handle = new DownloadHandle();
+        mExecutor.execute(() -> {
+            try {
+                Result result = execute(url, file, handle, (downloaded, total) ->
+                        post(handle, () -> callback.onProgress(downloaded, total)));
+                post(handle, () -> callback.onSuccessful(result));
+            } catch (IOException e) {
+                if (!handle.isCancelled()) {
+                    e.printStackTrace();
+                    post(handle, () -> callback.onError(e.getMessage()));
+                }
+            } finally {
+                handle.markDone();
+            }
+        });
+        return handle;
+    }
+
+    @WorkerThread
+    @NonNull
+    public Result execute(@NonNull String url, @NonNull File file) throws IOException {
+        return execute(url, file, null, null);
+    }
+
+    @WorkerThread
+    @NonNull
+    public Result execute(@NonNull String url, @NonNull File file, @Nullable DownloadHandle handle,
+                          @Nullable ProgressListener listener) throws IOException {
+        return execute(url, file, handle, listener, -1, null);
+    }
+
+    /**
+     * Download on the current thread, the other chunks are downloaded on background threads.
+     * A previous download of the url to the file is resumed.
+     *
+     * @param handle           To cancel the download from another thread, null if not needed
+     * @param listener         Progress on the download threads, at most once per 100ms
+     * @param expectedLength   Size from the camera, -1 if unknown
+     * @param expectedChecksum Checksum from the camera as in Result.checksum, null if unknown
+     */
+    @WorkerThread
+    @NonNull
+    public Result execute(@NonNull String url, @NonNull File file, @Nullable DownloadHandle handle,
+                          @Nullable ProgressListener listener, long expectedLength,
+                          @Nullable String expectedChecksum) throws IOException {
+        long startTime = System.nanoTime();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        File partFile = new File(file.getPath() + PART_SUFFIX);
+        File journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+        int connectType = InstaCameraManager.getInstance().getCameraConnectedType();
+        AdaptiveConcurrencyController controller = getAdaptiveController(connectType);
+        if (controller != null) {
+            controller.onDownloadStarted(connectType);
+        }
+        Download download = new Download(url, partFile, handle != null ? handle : new DownloadHandle(), listener,
+                connectType, controller);
+        long chunkSize = download.getChunkSize();
+        long resumedLength = 0;
+        // CRC32 of a download without Range
+        long streamCrc = -1;
+        try {
+            DownloadJournal journal = partFile.exists() ? DownloadJournal.load(journalFile, url) : null;
+            if (journal != null && partFile.length() != journal.getTotal()) {
+                journal.close();
+                journal = null;
+            }
+            download.journal = journal;
+            Chunk firstChunk = null;
+            Response first = null;
+            if (journal != null) {
+                List<long[]> missing = journal.getMissingRanges();
+                if (!missing.isEmpty()) {
+                    long[] range = missing.get(0);
+                    firstChunk = new Chunk(range[0], Math.min(range[1], range[0] + chunkSize - 1));
+                    first = download.request(firstChunk.offset, firstChunk.end);
+                    boolean changed;
+                    try {
+                        changed = first.code() != 206 || !journal.matches(parseTotal(first, firstChunk.offset), getValidator(first));
+                    } catch (IOException e) {
+                        download.release(first);
+                        throw e;
+                    }
+                    if (changed) {
+                        // Changed on the camera, start over
+                        download.release(first);
+                        first = null;
+                        journal.close();
+                        journal = null;
+                        download.journal = null;
+                    }
+                }
+            }
+            if (journal == null) {
+                DownloadJournal.delete(journalFile);
+                first = download.request(0, chunkSize - 1);
+            }
+            try (DownloadSink output = new DownloadSink(partFile)) {
+                if (first != null && first.code() == 200) {
+                    // Range not supported, download in one stream, it could not be resumed
+                    download.total = first.body().contentLength();
+                    output.truncate(0);
+                    Chunk chunk = new Chunk(0, download.total - 1);
+                    download.write(output, chunk, first);
+                    if (download.total >= 0 && chunk.offset != download.total) {
+                        throw new IOException("Incomplete download " + chunk.offset + "/" + download.total);
+                    }
+                    output.checkpoint();
+                    streamCrc = chunk.crc.getValue();
+                    download.chunkCount.set(1);
+                } else {
+                    if (journal == null) {
+                        long total = parseTotal(first, 0);
+                        output.preallocate(total);
+                        journal = DownloadJournal.create(journalFile, url, total, getValidator(first));
+                        download.journal = journal;
+                        firstChunk = new Chunk(0, Math.min(total, chunkSize) - 1);
+                    }
+                    download.total = journal.getTotal();
+                    long missingLength = 0;
+                    for (long[] range : journal.getMissingRanges()) {
+                        missingLength += range[1] - range[0] + 1;
+                        // The first chunk is already requested
+                        long start = firstChunk != null && range[0] == firstChunk.offset ? firstChunk.end + 1 : range[0];
+                        if (start <= range[1]) {
+                            download.segments.add(new Chunk(start, range[1]));
+                        }
+                    }
+                    resumedLength = download.total - missingLength;
+                    download.downloaded.set(resumedLength);
+                    download.output = output;
+                    download.singleConnection = missingLength < mMinChunkedLength;
+                    if (first != null) {
+                        download.chunkCount.incrementAndGet();
+                    }
+                    try {
+                        // The other connections start while the first chunk is read
+                        download.addWorkers();
+                        if (first != null) {
+                            download.downloadChunk(firstChunk, first);
+                        }
+                        download.runChunks();
+                    } catch (IOException e) {
+                        download.fail();
+                        throw e;
+                    } finally {
+                        awaitWorkers(download);
+                    }
+                    if (!journal.isComplete() || output.length() != download.total) {
+                        throw new IOException("Incomplete download " + partFile);
+                    }
+                }
+            }
+            download.notifyProgress(true);
+            String checksum = verify(download, partFile, streamCrc, expectedLength, expectedChecksum);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+            if (!partFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + partFile);
+            }
+            if (download.journal != null) {
+                download.journal.close();
+            }
+            DownloadJournal.delete(journalFile);
+            return new Result(file, file.length(), resumedLength, download.chunkCount.get(), Math.max(1, download.maxActiveWorkers),
+                    (System.nanoTime() - startTime) / 1_000_000, checksum);
+        } catch (IOException e) {
+            if (download.journal != null) {
+                // Keep the part file and the journal to resume
+                download.journal.close();
+            } else {
+                partFile.delete();
+                DownloadJournal.delete(journalFile);
+            }
+            throw e;
+        } finally {
+            if (controller != null) {
+                controller.onDownloadFinished(connectType);
+            }
+        }
+    }
+
+    // Shared with RangeCacheProxy, so both use the same connections to the camera
+    @NonNull
+    OkHttpClient getClient() {
+        return mClient;
+    }
+
+    // Shared with RangeCacheProxy, so its streams count in the same limit. Null if not adaptive
+    @Nullable
+    AdaptiveConcurrencyController getAdaptiveController(int connectType) {
+        if (!mAdaptive) {
+            return null;
+        }
+        mConcurrencyController.init(connectType, getParallelChunks(connectType), mChunkSize);
+        return mConcurrencyController;
+    }
+
+    /**
+     * Delete the part file and the journal left by a failed or cancelled download of the file
+     */
+    public void discard(@NonNull File file) {
+        new File(file.getPath() + PART_SUFFIX).delete();
+        DownloadJournal.delete(new File(file.getPath() + JOURNAL_SUFFIX));
+    }
+
+    // The part file is discarded if it does not match, it would never be resumed to a valid file
+    private static String verify(Download download, File partFile, long streamCrc, long expectedLength,
+                                 @Nullable String expectedChecksum) throws IOException {
+        long crc = download.journal != null ? download.journal.getChecksum() : streamCrc;
+        try {
+            return verify(partFile, crc, expectedLength, expectedChecksum);
+        } catch (IOException e) {
+            if (download.journal != null) {
+                download.journal.close();
+                download.journal = null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Shared with RangeCacheProxy, so a file is verified the same way whichever cached it
+     *
+     * @param crc CRC32 of the part file, -1 if not known
+     * @return checksum as in Result.checksum
+     */
+    static String verify(File partFile, long crc, long expectedLength, @Nullable String expectedChecksum) throws IOException {
+        if (crc < 0) {
+            // Ranges journaled without a checksum, only read the file again then
+            crc = computeCrc(partFile);
+        }
+        String checksum = Crc32Combiner.format(crc);
+        if (expectedLength >= 0 && partFile.length() != expectedLength) {
+            throw new IOException("Length " + partFile.length() + " != " + expectedLength + " " + partFile.getName());
+        }
+        if (expectedChecksum != null && !expectedChecksum.equalsIgnoreCase(checksum)) {
+            throw new IOException("Checksum " + checksum + " != " + expectedChecksum + " " + partFile.getName());
+        }
+        return checksum;
+    }
+
+    static long computeCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Throw the first error of the workers after all of them stopped, workers could be added meanwhile
+    private static void awaitWorkers(Download download) throws IOException {
+        IOException error = null;
+        for (int i = 0; i < download.workers.size(); i++) {
+            try {
+                download.workers.get(i).get();
+            } catch (ExecutionException e) {
+                download.fail();
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                download.fail();
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new IOException("Interrupted");
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Total length from "Content-Range: bytes start-end/total"
+    static long parseTotal(Response response, long start) throws IOException {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes " + start + "-")) {
+            throw new IOException("Unexpected Content-Range " + contentRange);
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unknown length " + contentRange);
+        }
+    }
+
+    // Identifies the version of the file, to resume only the same one
+    @Nullable
+    static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        return etag != null ? etag : response.header("Last-Modified");
+    }
+
+    private void post(DownloadHandle handle, Runnable runnable) {
+        mHandler.post(() -> {
+            if (!handle.isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+
+    private static class Chunk {
+
+        // Next byte to write
+        private long offset;
+        // Last byte, inclusive
+        private final long end;
+        // First byte not journaled yet
+        private long journaled;
+        // CRC32 of the bytes written but not journaled yet
+        private final CRC32 crc = new CRC32();
+
+        private Chunk(long offset, long end) {
+            this.offset = offset;
+            this.end = end;
+            this.journaled = offset;
+        }
+    }
+
+    private class Download {
+
+        private final String url;
+        private final File partFile;
+        private final DownloadHandle handle;
+        private final ProgressListener listener;
+        private final int connectType;
+        // Null if not adaptive
+        private final AdaptiveConcurrencyController controller;
+        private final long fixedChunkSize;
+        private final int fixedConnections;
+        // Ranges not started yet, chunks are cut from the first one when a connection is free
+        private final Deque<Chunk> segments = new ArrayDeque<>();
+        private final List<Future<?>> workers = new CopyOnWriteArrayList<>();
+        // Call of each response not released yet
+        private final Map<Response, Call> calls = new ConcurrentHashMap<>();
+        private final AtomicInteger chunkCount = new AtomicInteger();
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong lastProgressTime = new AtomicLong();
+        private volatile long total = -1;
+        // Null if the download could not be resumed
+        private volatile DownloadJournal journal;
+        private volatile DownloadSink output;
+        private volatile boolean singleConnection;
+        private volatile boolean failed;
+        // Guarded by this, the current thread counts as one
+        private int activeWorkers = 1;
+        private int maxActiveWorkers = 1;
+
+        private Download(String url, File partFile, DownloadHandle handle, ProgressListener listener,
+                         int connectType, AdaptiveConcurrencyController controller) {
+            this.url = url;
+            this.partFile = partFile;
+            this.handle = handle;
+            this.listener = listener;
+            this.connectType = connectType;
+            this.controller = controller;
+            this.fixedChunkSize = mChunkSize;
+            this.fixedConnections = getParallelChunks(connectType);
+        }
+
+        private long getChunkSize() {
+            return controller != null ? controller.getChunkSize(connectType) : fixedChunkSize;
+        }
+
+        private int getTargetConnections() {
+            if (singleConnection) {
+                return 1;
+            }
+            return controller != null ? controller.getConcurrencyShare(connectType) : fixedConnections;
+        }
+
+        // Cut the next chunk with the current chunk size
+        private synchronized Chunk nextChunk() {
+            Chunk segment = segments.peekFirst();
+            if (segment == null) {
+                return null;
+            }
+            long chunkSize = getChunkSize();
+            chunkCount.incrementAndGet();
+            if (segment.end - segment.offset + 1 <= chunkSize) {
+                return segments.pollFirst();
+            }
+            Chunk chunk = new Chunk(segment.offset, segment.offset + chunkSize - 1);
+            segment.offset += chunkSize;
+            segment.journaled = segment.offset;
+            return chunk;
+        }
+
+        // Start connections up to the target while there are chunks left
+        private synchronized void addWorkers() {
+            while (!failed && activeWorkers < getTargetConnections() && !segments.isEmpty()) {
+                activeWorkers++;
+                maxActiveWorkers = Math.max(maxActiveWorkers, activeWorkers);
+                workers.add(mExecutor.submit(() -> {
+                    runChunks();
+                    return null;
+                }));
+            }
+        }
+
+        // Stop the connection if more are running than the target, at least one keeps running
+        private synchronized boolean leaveIfOverTarget() {
+            if (activeWorkers > Math.max(1, getTargetConnections())) {
+                activeWorkers--;
+                return true;
+            }
+            return false;
+        }
+
+        // Stop the other connections after an error
+        private void fail() {
+            failed = true;
+            handle.abortCalls();
+        }
+
+        private Response request(long start, long end) throws IOException {
+            if (handle.isCancelled()) {
+                throw new IOException("Canceled");
+            }
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("Range", "bytes=" + start + "-" + end)
+                    .get()
+                    .build();
+            Call call = mClient.newCall(request);
+            if (!handle.addCall(call)) {
+                throw new IOException("Canceled");
+            }
+            Response response;
+            long requestTime = System.nanoTime();
+            try {
+                response = call.execute();
+            } catch (IOException e) {
+                handle.removeCall(call);
+                throw e;
+            }
+            // The call stays in the handle until the body is closed, so cancel() also stops the body being read
+            calls.put(response, call);
+            if (controller != null) {
+                controller.onRtt(connectType, (System.nanoTime() - requestTime) / 1_000_000);
+            }
+            if (response.code() != 200 && response.code() != 206 || response.body() == null) {
+                release(response);
+                throw new IOException("HTTP " + response.code() + " " + url);
+            }
+            return response;
+        }
+
+        // Close the response and remove its call from the handle
+        private void release(Response response) {
+            response.close();
+            Call call = calls.remove(response);
+            if (call != null) {
+                handle.removeCall(call);
+            }
+        }
+
+        private void runChunks() throws IOException {
+            boolean left = false;
+            try {
+                Chunk chunk;
+                while (!failed && !(left = leaveIfOverTarget()) && (chunk = nextChunk()) != null) {
+                    downloadChunk(chunk, null);
+                    addWorkers();
+                }
+            } finally {
+                if (!left) {
+                    synchronized (this) {
+                        activeWorkers--;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Retry from where the chunk stopped, the written bytes are journaled even if it failed
+         *
+         * @param response Response of the chunk if already requested
+         */
+        private void downloadChunk(Chunk chunk, @Nullable Response response) throws IOException {
+            if (controller != null) {
+                controller.onStreamStarted(connectType);
+            }
+            try {
+                downloadChunkWithRetries(chunk, response);
+            } finally {
+                if (controller != null) {
+                    controller.onStreamFinished(connectType);
+                }
+            }
+        }
+
+        private void downloadChunkWithRetries(Chunk chunk, @Nullable Response response) throws IOException {
+            for (int retry = 0; ; retry++) {
+                try {
+                    if (response == null) {
+                        response = request(chunk.offset, chunk.end);
+                    }
+                    if (response.code() != 206) {
+                        release(response);
+                        throw new IOException("Range not supported " + url);
+                    }
+                    parseTotal(response, chunk.offset);
+                    write(output, chunk, response);
+                    response = null;
+                    if (chunk.offset <= chunk.end) {
+                        throw new IOException("Incomplete chunk " + chunk.offset + "-" + chunk.end);
+                    }
+                    commit(chunk);
+                    return;
+                } catch (IOException e) {
+                    if (response != null) {
+                        release(response);
+                        response = null;
+                    }
+                    try {
+                        commit(chunk);
+                    } catch (IOException ignored) {
+                        // The range is downloaded again
+                    }
+                    if (failed || handle.isCancelled()) {
+                        throw e;
+                    }
+                    if (controller != null) {
+                        controller.onError(connectType);
+                    }
+                    if (retry >= MAX_CHUNK_RETRIES) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        // Write the body from the chunk offset, the response is released
+        private void write(DownloadSink output, Chunk chunk, Response response) throws IOException {
+            try {
+                output.write(response.body().source(), chunk.offset, chunk.crc, count -> {
+                    chunk.offset += count;
+                    downloaded.addAndGet(count);
+                    if (controller != null) {
+                        controller.onBytes(connectType, count);
+                    }
+                    notifyProgress(false);
+                });
+            } finally {
+                release(response);
+            }
+        }
+
+        // Sync the written bytes of the chunk, then add them to the journal
+        private void commit(Chunk chunk) throws IOException {
+            if (journal == null || chunk.offset <= chunk.journaled) {
+                return;
+            }
+            output.checkpoint();
+            journal.add(chunk.journaled, chunk.offset - 1, chunk.crc.getValue());
+            chunk.journaled = chunk.offset;
+            chunk.crc.reset();
+        }
+
+        private void notifyProgress(boolean force) {
+            if (listener == null) {
+                return;
+            }
+            long now = System.nanoTime() / 1_000_000;
+            long last = lastProgressTime.get();
+            if (force || now - last >= PROGRESS_INTERVAL && lastProgressTime.compareAndSet(last, now)) {
+                listener.onProgress(downloaded.get(), total);
+            }
+        }
+    }
+}
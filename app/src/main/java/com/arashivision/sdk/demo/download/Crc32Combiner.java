@@ -0,0 +1,80 @@
+package com.arashivision.sdk.demo.download;
+
+import java.util.Locale;
+
+/**
+ * CRC32 of a file from the CRC32 of its ranges, the ranges are hashed while they are downloaded in
+ * any order and combined afterwards, the file is never read again.
+ * <p>
+ * combine() is the crc32_combine() of zlib, java.util.zip.CRC32 is the same CRC.
+ */
+final class Crc32Combiner {
+
+    private static final int GF2_DIM = 32;
+    // Reversed CRC-32 polynomial
+    private static final long POLYNOMIAL = 0xedb88320L;
+
+    private Crc32Combiner() {
+    }
+
+    /**
+     * @param crc1 CRC32 of the first range
+     * @param crc2 CRC32 of the second range, right after the first one
+     * @param len2 Length of the second range
+     * @return CRC32 of both ranges
+     */
+    static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[GF2_DIM];
+        long[] odd = new long[GF2_DIM];
+        // Operator for one zero bit
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < GF2_DIM; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Two zero bits, then four
+        square(even, odd);
+        square(odd, even);
+        // Apply len2 zero bytes to crc1
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return (crc1 ^ crc2) & 0xffffffffL;
+    }
+
+    static String format(long crc) {
+        return String.format(Locale.US, "crc32:%08x", crc);
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < GF2_DIM; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.arashivision.sdk.demo.download;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import okhttp3.Call;
+
+/**
+ * Returned by the downloads, could be used to cancel the download.
+ * <p>
+ * After cancel(), the HTTP calls in flight are aborted and no more callbacks are delivered.
+ */
+public class DownloadHandle {
+
+    private final Set<Call> mCalls = new HashSet<>();
+    private volatile boolean mCancelled;
+    private volatile boolean mDone;
+
+    /**
+     * @return false if the download is already finished or cancelled
+     */
+    public boolean cancel() {
+        List<Call> calls;
+        synchronized (this) {
+            if (mCancelled || mDone) {
+                return false;
+            }
+            mCancelled = true;
+            calls = new ArrayList<>(mCalls);
+            mCalls.clear();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Whether the download is finished, successful or not
+     */
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Abort the calls in flight without cancelling the download, e.g. after another chunk failed
+     */
+    void abortCalls() {
+        List<Call> calls;
+        synchronized (this) {
+            calls = new ArrayList<>(mCalls);
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    synchronized void markDone() {
+        mDone = true;
+    }
+
+    /**
+     * @return false if already cancelled, the call is cancelled too
+     */
+    boolean addCall(@NonNull Call call) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mCalls.add(call);
+                return true;
+            }
+        }
+        call.cancel();
+        return false;
+    }
+
+    synchronized void removeCall(@NonNull Call call) {
+        mCalls.remove(call);
+    }
+}
@@ -0,0 +1,238 @@
+package com.arashivision.sdk.demo.download;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Byte ranges of a ".part" file that are already written and synced to disk, to resume the download
+ * after a disconnect or an app restart.
+ * <p>
+ * The journal is a small text file: a header line "url\ttotal\tvalidator", then one "start-end crc"
+ * line per completed range, appended and synced after the data of the range is synced. The CRC32 of
+ * every range is computed while it is written, adjacent ranges are merged with Crc32Combiner, so the
+ * checksum of the file is known as soon as the last range is journaled. A line
+ * broken by a crash is ignored on load, so at most the range being written is downloaded again.
+ * The validator is the ETag or Last-Modified of the file, a different one means the file changed
+ * on the camera and the download starts over.
+ */
+class DownloadJournal {
+
+    private static final String SEPARATOR = "\t";
+
+    private final File mFile;
+    private final String mUrl;
+    private final long mTotal;
+    private final String mValidator;
+    // Sorted and merged, each one is {start, end, crc} with end inclusive, crc -1 if unknown
+    private final List<long[]> mRanges = new ArrayList<>();
+    private FileOutputStream mOutput;
+
+    private DownloadJournal(File file, String url, long total, String validator) {
+        mFile = file;
+        mUrl = url;
+        mTotal = total;
+        mValidator = validator;
+    }
+
+    /**
+     * Start a new journal, the existing one is overwritten
+     */
+    @NonNull
+    static DownloadJournal create(@NonNull File file, @NonNull String url, long total, @Nullable String validator) throws IOException {
+        DownloadJournal journal = new DownloadJournal(file, url, total, validator == null ? "" : validator);
+        journal.rewrite();
+        return journal;
+    }
+
+    /**
+     * @return null if the journal does not exist, is unreadable or belongs to another url
+     */
+    @Nullable
+    static DownloadJournal load(@NonNull File file, @NonNull String url) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return null;
+            }
+            String[] fields = header.split(SEPARATOR, -1);
+            if (fields.length != 3 || !fields[0].equals(url)) {
+                return null;
+            }
+            DownloadJournal journal = new DownloadJournal(file, url, Long.parseLong(fields[1]), fields[2]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] range = line.split("[- ]");
+                try {
+                    long start = Long.parseLong(range[0]);
+                    long end = Long.parseLong(range[1]);
+                    long crc = range.length > 2 ? Long.parseLong(range[2], 16) : -1;
+                    if (start >= 0 && start <= end && end < journal.mTotal) {
+                        journal.merge(start, end, crc);
+                    }
+                } catch (RuntimeException e) {
+                    // Broken by a crash while appending
+                }
+            }
+            // Compact the appended lines
+            journal.rewrite();
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static void delete(@NonNull File file) {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    long getTotal() {
+        return mTotal;
+    }
+
+    boolean matches(long total, @Nullable String validator) {
+        return mTotal == total && mValidator.equals(validator == null ? "" : validator);
+    }
+
+    /**
+     * @return ranges not downloaded yet, each one is {start, end} with end inclusive
+     */
+    @NonNull
+    synchronized List<long[]> getMissingRanges() {
+        List<long[]> missing = new ArrayList<>();
+        long next = 0;
+        for (long[] range : mRanges) {
+            if (range[0] > next) {
+                missing.add(new long[]{next, range[0] - 1});
+            }
+            next = range[1] + 1;
+        }
+        if (next < mTotal) {
+            missing.add(new long[]{next, mTotal - 1});
+        }
+        return missing;
+    }
+
+    /**
+     * @return end of the downloaded range containing the position, -1 if the position is missing
+     */
+    synchronized long getDownloadedEnd(long position) {
+        for (long[] range : mRanges) {
+            if (range[0] > position) {
+                break;
+            }
+            if (range[1] >= position) {
+                return range[1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return end of the missing range containing the position, -1 if the position is downloaded
+     */
+    synchronized long getMissingEnd(long position) {
+        for (long[] range : mRanges) {
+            if (range[0] > position) {
+                return range[0] - 1;
+            }
+            if (range[1] >= position) {
+                return -1;
+            }
+        }
+        return position < mTotal ? mTotal - 1 : -1;
+    }
+
+    /**
+     * @return CRC32 of the whole file, -1 if not complete or unknown
+     */
+    synchronized long getChecksum() {
+        return isComplete() && mTotal > 0 ? mRanges.get(0)[2] : -1;
+    }
+
+    synchronized boolean isComplete() {
+        return mTotal == 0 || mRanges.size() == 1 && mRanges.get(0)[0] == 0 && mRanges.get(0)[1] == mTotal - 1;
+    }
+
+    /**
+     * Record a completed range, its data must be synced to disk before
+     *
+     * @param crc CRC32 of the range
+     */
+    synchronized void add(long start, long end, long crc) throws IOException {
+        if (start > end) {
+            return;
+        }
+        merge(start, end, crc);
+        if (mOutput == null) {
+            mOutput = new FileOutputStream(mFile, true);
+        }
+        mOutput.write((start + "-" + end + " " + Long.toHexString(crc) + "\n").getBytes(StandardCharsets.UTF_8));
+        mOutput.getFD().sync();
+    }
+
+    synchronized void close() {
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException ignored) {
+            }
+            mOutput = null;
+        }
+    }
+
+    // Adjacent ranges combine their CRC32, overlapping ones make it unknown
+    private void merge(long start, long end, long crc) {
+        int index = 0;
+        while (index < mRanges.size() && mRanges.get(index)[1] < start - 1) {
+            index++;
+        }
+        long[] merged = {start, end, crc};
+        while (index < mRanges.size() && mRanges.get(index)[0] <= merged[1] + 1) {
+            long[] range = mRanges.remove(index);
+            long[] first = range[0] < merged[0] ? range : merged;
+            long[] second = first == range ? merged : range;
+            if (second[0] == first[1] + 1 && first[2] >= 0 && second[2] >= 0) {
+                merged = new long[]{first[0], second[1], Crc32Combiner.combine(first[2], second[2], second[1] - second[0] + 1)};
+            } else {
+                merged = new long[]{Math.min(first[0], second[0]), Math.max(first[1], second[1]), -1};
+            }
+        }
+        mRanges.add(index, merged);
+    }
+
+    // Write the merged ranges to a temp file then rename, the old journal stays valid until then
+    private synchronized void rewrite() throws IOException {
+        close();
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            StringBuilder builder = new StringBuilder()
+                    .append(mUrl).append(SEPARATOR).append(mTotal).append(SEPARATOR).append(mValidator).append('\n');
+            for (long[] range : mRanges) {
+                builder.append(range[0]).append('-').append(range[1]);
+                if (range[2] >= 0) {
+                    builder.append(' ').append(Long.toHexString(range[2]));
+                }
+                builder.append('\n');
+            }
+            output.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Failed to rename " + tempFile);
+        }
+    }
+}
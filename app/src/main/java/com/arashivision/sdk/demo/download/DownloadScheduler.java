@@ -0,0 +1,453 @@
+package com.arashivision.sdk.demo.download;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Queue the camera downloads with a global limit of files downloaded at the same time.
+ * <p>
+ * Every file already uses several connections in ChunkedDownloader, so a few files in parallel are
+ * enough to fill the link, and more of them only compete with the preview stream. Waiting tasks run
+ * by Priority, then in the order they were enqueued. Enqueueing a file that is already waiting or
+ * running joins the same task, raised to the higher priority, e.g. when the user taps "play" on a
+ * file being offloaded. Each caller gets its own Registration: cancelling it only stops the callbacks
+ * of that caller, and the download is cancelled when no caller is left.
+ * <p>
+ * pause() stops the downloads while the preview or the live stream is on: the running ones are
+ * stopped and requeued, and resumed from their journal after the last resume().
+ * <p>
+ * A file played through RangeCacheProxy is claimed by it: no task downloads the file until the proxy
+ * releases it, so the two never write the same part file and journal. The prefetch of the proxy takes
+ * a slot of the limit like a PLAY task.
+ */
+public class DownloadScheduler {
+
+    public enum Priority {
+        // The user is waiting to play the file
+        PLAY,
+        // Offload after a capture
+        OFFLOAD,
+        // Background sync of the camera files
+        SYNC
+    }
+
+    public enum State {
+        WAITING,
+        RUNNING,
+        SUCCESSFUL,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * Download of a file, shared by all the callers of the same file
+     */
+    public class Task {
+
+        private final String url;
+        private final File file;
+        private final long expectedLength;
+        private final String expectedChecksum;
+        private final List<Registration> registrations = new ArrayList<>();
+        private Priority priority;
+        private long sequence;
+        private State state = State.WAITING;
+        // Handle of the running download, replaced when requeued
+        private DownloadHandle handle;
+
+        private Task(String url, File file, Priority priority, long expectedLength, String expectedChecksum) {
+            this.url = url;
+            this.file = file;
+            this.priority = priority;
+            this.expectedLength = expectedLength;
+            this.expectedChecksum = expectedChecksum;
+        }
+
+        @NonNull
+        public File getFile() {
+            return file;
+        }
+
+        @NonNull
+        public Priority getPriority() {
+            synchronized (DownloadScheduler.this) {
+                return priority;
+            }
+        }
+
+        @NonNull
+        public State getState() {
+            synchronized (DownloadScheduler.this) {
+                return state;
+            }
+        }
+
+        /**
+         * Move a waiting task to the priority, a running task only keeps it for later
+         */
+        public void setPriority(@NonNull Priority priority) {
+            reprioritize(this, priority);
+        }
+    }
+
+    /**
+     * Returned by enqueue(), one for each caller of the task
+     */
+    public class Registration {
+
+        private final Task task;
+        private final ChunkedDownloader.Callback callback;
+
+        private Registration(Task task, ChunkedDownloader.Callback callback) {
+            this.task = task;
+            this.callback = callback;
+        }
+
+        @NonNull
+        public Task getTask() {
+            return task;
+        }
+
+        /**
+         * Stop the callbacks of this caller, the download is cancelled if no other caller waits for it
+         *
+         * @return false if already cancelled or the task finished
+         */
+        public boolean cancel() {
+            return unregister(this);
+        }
+    }
+
+    private static class DownloadSchedulerHolder {
+        private static final DownloadScheduler instance = new DownloadScheduler();
+    }
+
+    public static DownloadScheduler getInstance() {
+        return DownloadSchedulerHolder.instance;
+    }
+
+    private final PriorityQueue<Task> mWaiting = new PriorityQueue<>(11, (task1, task2) -> {
+        int result = task1.priority.compareTo(task2.priority);
+        return result != 0 ? result : Long.compare(task1.sequence, task2.sequence);
+    });
+    // Waiting and running tasks by local path
+    private final Map<String, Task> mTasks = new HashMap<>();
+    private final Set<Task> mRunning = new HashSet<>();
+    private final Set<Object> mPauseTokens = new HashSet<>();
+    // Local paths claimed by RangeCacheProxy, of its prefetches running, and of its prefetches waiting for a slot
+    private final Set<String> mClaimed = new HashSet<>();
+    private final Set<String> mSlots = new HashSet<>();
+    private final Set<String> mWaitingSlots = new HashSet<>();
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private int mMaxConcurrentDownloads = 2;
+    private long mSequence;
+
+    private DownloadScheduler() {
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "DownloadScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param maxConcurrentDownloads Files downloaded at the same time, default 2
+     */
+    public DownloadScheduler setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        synchronized (this) {
+            mMaxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+        }
+        dispatch();
+        return this;
+    }
+
+    /**
+     * @param callback Called on the main thread, not called after the registration is cancelled
+     */
+    @NonNull
+    public Registration enqueue(@NonNull String url, @NonNull File file, @NonNull Priority priority,
+                        @NonNull ChunkedDownloader.Callback callback) {
+        return enqueue(url, file, priority, -1, null, callback);
+    }
+
+    /**
+     * @param expectedLength   Size from the camera, -1 if unknown
+     * @param expectedChecksum Checksum from the camera, null if unknown. The download fails on mismatch
+     * @param callback         Called on the main thread, not called after the registration is cancelled
+     */
+    @NonNull
+    public Registration enqueue(@NonNull String url, @NonNull File file, @NonNull Priority priority, long expectedLength,
+                                @Nullable String expectedChecksum, @NonNull ChunkedDownloader.Callback callback) {
+        Task task;
+        Registration registration;
+        synchronized (this) {
+            task = mTasks.get(file.getAbsolutePath());
+            if (task == null) {
+                task = new Task(url, file, priority, expectedLength, expectedChecksum);
+                task.sequence = mSequence++;
+                mTasks.put(file.getAbsolutePath(), task);
+                mWaiting.add(task);
+            } else if (priority.compareTo(task.priority) < 0) {
+                reprioritize(task, priority);
+            }
+            registration = new Registration(task, callback);
+            task.registrations.add(registration);
+        }
+        dispatch();
+        return registration;
+    }
+
+    /**
+     * Stop the downloads until resume() is called with the same token, e.g. the preview page
+     */
+    public void pause(@NonNull Object token) {
+        List<DownloadHandle> handles = new ArrayList<>();
+        synchronized (this) {
+            if (!mPauseTokens.add(token) || mPauseTokens.size() > 1) {
+                return;
+            }
+            for (Task task : mRunning) {
+                handles.add(task.handle);
+            }
+        }
+        // The running tasks are requeued when their downloads stop
+        for (DownloadHandle handle : handles) {
+            handle.cancel();
+        }
+    }
+
+    public void resume(@NonNull Object token) {
+        synchronized (this) {
+            if (!mPauseTokens.remove(token)) {
+                return;
+            }
+        }
+        dispatch();
+    }
+
+    public synchronized boolean isPaused() {
+        return !mPauseTokens.isEmpty();
+    }
+
+    /**
+     * Called by RangeCacheProxy before it writes the file: the task of the file is stopped and waits
+     * until release(). Blocks until the task stopped.
+     */
+    void claim(@NonNull File file) throws InterruptedIOException {
+        String path = file.getAbsolutePath();
+        synchronized (this) {
+            mClaimed.add(path);
+            Task task;
+            while ((task = mTasks.get(path)) != null && task.state == State.RUNNING) {
+                // Requeued when the download stops, like a pause
+                task.handle.cancel();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mClaimed.remove(path);
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param result Result of the file cached by RangeCacheProxy, the task of the file gets it too.
+     *               Null if not complete, the task resumes from the journal
+     */
+    void release(@NonNull File file, @Nullable ChunkedDownloader.Result result) {
+        String path = file.getAbsolutePath();
+        Task task = null;
+        synchronized (this) {
+            if (!mClaimed.remove(path)) {
+                return;
+            }
+            mSlots.remove(path);
+            mWaitingSlots.remove(path);
+            if (result != null && (task = mTasks.get(path)) != null && mWaiting.remove(task)) {
+                task.state = State.SUCCESSFUL;
+                mTasks.remove(path);
+            }
+        }
+        if (task != null) {
+            post(task, callback -> callback.onSuccessful(result));
+        }
+        dispatch();
+    }
+
+    /**
+     * A slot for the prefetch of a file claimed by RangeCacheProxy, until releaseSlot()
+     *
+     * @return false if paused, or all the slots are taken and the prefetch is the next one to get a slot
+     */
+    synchronized boolean acquireSlot(@NonNull File file) {
+        String path = file.getAbsolutePath();
+        if (!mPauseTokens.isEmpty()) {
+            // Given back while paused, and first to get one after resume()
+            mSlots.remove(path);
+            mWaitingSlots.add(path);
+            return false;
+        }
+        if (mSlots.contains(path)) {
+            return true;
+        }
+        if (mRunning.size() + mSlots.size() >= mMaxConcurrentDownloads) {
+            mWaitingSlots.add(path);
+            return false;
+        }
+        mWaitingSlots.remove(path);
+        mSlots.add(path);
+        return true;
+    }
+
+    void releaseSlot(@NonNull File file) {
+        synchronized (this) {
+            mSlots.remove(file.getAbsolutePath());
+            mWaitingSlots.remove(file.getAbsolutePath());
+        }
+        dispatch();
+    }
+
+    private synchronized void reprioritize(Task task, Priority priority) {
+        if (task.state == State.WAITING && mWaiting.remove(task)) {
+            task.priority = priority;
+            mWaiting.add(task);
+        } else {
+            task.priority = priority;
+        }
+    }
+
+    private boolean unregister(Registration registration) {
+        Task task = registration.task;
+        DownloadHandle handle;
+        synchronized (this) {
+            if (task.state != State.WAITING && task.state != State.RUNNING || !task.registrations.remove(registration)) {
+                return false;
+            }
+            if (!task.registrations.isEmpty()) {
+                // Other callers still wait for the file
+                return true;
+            }
+            mWaiting.remove(task);
+            mTasks.remove(task.file.getAbsolutePath());
+            handle = task.handle;
+            task.state = State.CANCELLED;
+        }
+        if (handle != null) {
+            handle.cancel();
+        }
+        dispatch();
+        return true;
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            List<Task> claimed = new ArrayList<>();
+            while (mPauseTokens.isEmpty() && !mWaiting.isEmpty() && hasFreeSlot(mWaiting.peek().priority)) {
+                Task task = mWaiting.poll();
+                if (mClaimed.contains(task.file.getAbsolutePath())) {
+                    // Cached by RangeCacheProxy, waits until it is released
+                    claimed.add(task);
+                    continue;
+                }
+                DownloadHandle handle = new DownloadHandle();
+                task.state = State.RUNNING;
+                task.handle = handle;
+                mRunning.add(task);
+                mExecutor.execute(() -> run(task, handle));
+            }
+            mWaiting.addAll(claimed);
+        }
+    }
+
+    // Guarded by this. The waiting prefetches of RangeCacheProxy come before the tasks below PLAY
+    private boolean hasFreeSlot(Priority priority) {
+        int used = mRunning.size() + mSlots.size();
+        if (priority != Priority.PLAY) {
+            used += mWaitingSlots.size();
+        }
+        return used < mMaxConcurrentDownloads;
+    }
+
+    private void run(Task task, DownloadHandle handle) {
+        ChunkedDownloader.Result result = null;
+        IOException error = null;
+        try {
+            result = ChunkedDownloader.getInstance().execute(task.url, task.file, handle,
+                    (downloaded, total) -> post(task, callback -> callback.onProgress(downloaded, total)),
+                    task.expectedLength, task.expectedChecksum);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            handle.markDone();
+        }
+        synchronized (this) {
+            mRunning.remove(task);
+            // claim() waits for it
+            notifyAll();
+            if (task.state == State.CANCELLED) {
+                // Already removed
+            } else if (error != null && handle.isCancelled()) {
+                // Paused, resume from the journal later, ahead of the tasks enqueued after it
+                task.state = State.WAITING;
+                task.handle = null;
+                mWaiting.add(task);
+            } else {
+                task.state = error == null ? State.SUCCESSFUL : State.FAILED;
+                mTasks.remove(task.file.getAbsolutePath());
+            }
+        }
+        if (task.getState() == State.SUCCESSFUL) {
+            ChunkedDownloader.Result finalResult = result;
+            post(task, callback -> callback.onSuccessful(finalResult));
+        } else if (task.getState() == State.FAILED) {
+            error.printStackTrace();
+            String message = error.getMessage();
+            post(task, callback -> callback.onError(message));
+        }
+        dispatch();
+    }
+
+    private interface CallbackAction {
+        void run(ChunkedDownloader.Callback callback);
+    }
+
+    private void post(Task task, CallbackAction action) {
+        mHandler.post(() -> {
+            List<Registration> registrations;
+            synchronized (this) {
+                if (task.state == State.CANCELLED) {
+                    return;
+                }
+                registrations = new ArrayList<>(task.registrations);
+            }
+            for (Registration registration : registrations) {
+                // Cancelled by an earlier callback of the batch
+                synchronized (this) {
+                    if (!task.registrations.contains(registration)) {
+                        continue;
+                    }
+                }
+                action.run(registration.callback);
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+package com.arashivision.sdk.demo.download;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Write downloaded bytes into a preallocated file through one FileChannel shared by all the
+ * connections of a download.
+ * <p>
+ * A response is read from the socket source straight into a large direct buffer and written at its
+ * file position, with no heap byte[] copy and no seek, so the connections never share a file pointer.
+ * The direct buffers are pooled, a multi-GB download allocates nothing per chunk. The file is
+ * allocated to its full length up front, so writing does not grow it, and it is synced only at
+ * checkpoint(), e.g. before the range is journaled. The bytes could be hashed while they are in the
+ * buffer, so checking the file never reads it again.
+ */
+public class DownloadSink implements Closeable {
+
+    public interface WriteListener {
+        /**
+         * Called after each write to the file
+         */
+        void onWritten(int count);
+    }
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final Queue<ByteBuffer> sBufferPool = new ConcurrentLinkedQueue<>();
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+
+    public DownloadSink(@NonNull File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+    }
+
+    /**
+     * Set the file length and allocate its blocks, the existing content is kept
+     */
+    public void preallocate(long length) throws IOException {
+        if (mChannel.size() > length) {
+            mChannel.truncate(length);
+        }
+        try {
+            Os.posix_fallocate(mFile.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            // Not supported by the file system, the file is only extended
+        }
+        if (mFile.length() != length) {
+            mFile.setLength(length);
+        }
+    }
+
+    public void truncate(long length) throws IOException {
+        mChannel.truncate(length);
+    }
+
+    public long length() throws IOException {
+        return mChannel.size();
+    }
+
+    /**
+     * Write the source from the position until its end
+     *
+     * @param crc      Updated with exactly the bytes written, null if not needed
+     * @return bytes written, also reported to the listener before an error is thrown
+     */
+    public long write(@NonNull ReadableByteChannel source, long position, @Nullable CRC32 crc,
+                      @Nullable WriteListener listener) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        long written = 0;
+        try {
+            boolean end = false;
+            while (!end) {
+                buffer.clear();
+                // Fill the buffer, a socket read returns a few KB only
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) == -1) {
+                        end = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int start = buffer.position();
+                    int count = mChannel.write(buffer, position + written);
+                    if (crc != null) {
+                        // Hashed in place, the direct buffer is not copied
+                        ByteBuffer range = buffer.duplicate();
+                        range.limit(start + count);
+                        range.position(start);
+                        crc.update(range);
+                    }
+                    written += count;
+                    if (listener != null) {
+                        listener.onWritten(count);
+                    }
+                }
+            }
+            return written;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Send the bytes from the position to the target, e.g. a socket, the file channel could do it
+     * without copying them through the heap
+     */
+    public void transferTo(long position, long count, @NonNull WritableByteChannel target) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long n = mChannel.transferTo(position + sent, count - sent, target);
+            if (n <= 0) {
+                throw new EOFException("Transfer stopped at " + (position + sent));
+            }
+            sent += n;
+        }
+    }
+
+    /**
+     * Sync the written bytes to disk
+     */
+    public void checkpoint() throws IOException {
+        mChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = sBufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+            sBufferPool.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.arashivision.sdk.demo.download;
+
+import com.arashivision.sdk.demo.util.StorageUtils;
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+import com.arashivision.sdkmedia.work.WorkWrapper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Local copies of camera works, keyed by the camera serial and WorkWrapper.getIdenticalKey().
+ * <p>
+ * Every page that downloads, plays or exports a camera work resolves it here first, so a file
+ * downloaded by one page is found by the others and never fetched twice. The files are kept under
+ * "SDK_DEMO_MEDIA/serial/", and "index.json" maps each key to the local path, size and checksum of
+ * every file of the work. A file which was deleted or whose size changed is dropped from the index.
+ * The files are also looked up by serial and file name, unique on the camera like the local path, so
+ * a file downloaded as part of one work is found from another work holding the same file.
+ * <p>
+ * The index file is only read and written on a background thread: it is loaded as soon as the store
+ * is created, the first read waits for it, and every change is written after the call returns.
+ * get() and resolve() still run on the caller thread: they wait for the index if it is not loaded yet
+ * and check the size of each file on disk. Call init() when the app starts so the main thread never
+ * waits for the index.
+ */
+public class LocalMediaStore {
+
+    private static final String FOLDER_NAME = "SDK_DEMO_MEDIA";
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String UNKNOWN_SERIAL = "unknown";
+
+    public static class Entry {
+
+        public final String url;
+        public final String path;
+        public final long size;
+        // Null if not computed
+        public final String checksum;
+
+        private Entry(String url, String path, long size, String checksum) {
+            this.url = url;
+            this.path = path;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        private boolean isValid() {
+            File file = new File(path);
+            return file.isFile() && file.length() == size;
+        }
+    }
+
+    private static class LocalMediaStoreHolder {
+        private static final LocalMediaStore instance = new LocalMediaStore();
+    }
+
+    public static LocalMediaStore getInstance() {
+        return LocalMediaStoreHolder.instance;
+    }
+
+    // Key of the work to the entries by file name
+    private final Map<String, Map<String, Entry>> mWorks = new HashMap<>();
+    // "serial/file name" to the entry, the last one put if several works hold the file
+    private final Map<String, Entry> mFiles = new HashMap<>();
+    // Reads and writes of the index file, in order
+    private final ExecutorService mIoExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "LocalMediaStore-io"));
+    private File mFolder;
+    private boolean mLoaded;
+    // Index not written yet, the changes made meanwhile are written at once
+    private byte[] mPendingIndex;
+
+    private LocalMediaStore() {
+        mIoExecutor.execute(this::load);
+    }
+
+    /**
+     * Start loading the index on a background thread, e.g. when the app starts, so the first page
+     * reading the store does not wait for it
+     */
+    public static void init() {
+        getInstance();
+    }
+
+    /**
+     * @return null if the camera is not connected
+     */
+    @Nullable
+    public static String getCameraSerial() {
+        if (InstaCameraManager.getInstance().getCameraConnectedType() == InstaCameraManager.CONNECT_TYPE_NONE) {
+            return null;
+        }
+        return InstaCameraManager.getInstance().getCameraSerial();
+    }
+
+    @NonNull
+    public static String getKey(@Nullable String cameraSerial, @NonNull WorkWrapper workWrapper) {
+        return (cameraSerial == null || cameraSerial.isEmpty() ? UNKNOWN_SERIAL : cameraSerial) + "/" + workWrapper.getIdenticalKey();
+    }
+
+    /**
+     * The local copy of a camera file, also if it was downloaded as part of another work
+     * <p>
+     * Waits for the index if it is not loaded yet, and checks the file on disk
+     *
+     * @return null if not downloaded
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull String key, @NonNull String url) {
+        awaitLoaded();
+        String fileName = getFileName(url);
+        Map<String, Entry> entries = mWorks.get(key);
+        Entry entry = entries == null ? null : entries.get(fileName);
+        if (entry == null) {
+            entry = mFiles.get(getFileKey(key, fileName));
+        }
+        if (entry != null && !entry.isValid()) {
+            if (entries != null && entries.remove(fileName, entry) && entries.isEmpty()) {
+                mWorks.remove(key);
+            }
+            mFiles.remove(getFileKey(key, fileName), entry);
+            save();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Local paths of all the files of a camera work
+     *
+     * @param urls Camera urls of the work, in the order of the returned paths
+     * @return null if any of them is not downloaded
+     */
+    @Nullable
+    public synchronized String[] resolve(@NonNull String key, @NonNull String[] urls) {
+        String[] paths = new String[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            Entry entry = get(key, urls[i]);
+            if (entry == null) {
+                return null;
+            }
+            paths[i] = entry.path;
+        }
+        return paths;
+    }
+
+    /**
+     * Where a camera file is downloaded to, before it is added with put()
+     */
+    @NonNull
+    public synchronized File getLocalFile(@NonNull String key, @NonNull String url) {
+        File folder = new File(getFolder(), key.substring(0, key.indexOf('/')));
+        return new File(folder, getFileName(url));
+    }
+
+    /**
+     * Add a downloaded camera file
+     *
+     * @param checksum Null if not computed
+     */
+    public synchronized void put(@NonNull String key, @NonNull String url, @NonNull File file, @Nullable String checksum) {
+        awaitLoaded();
+        Map<String, Entry> entries = mWorks.get(key);
+        if (entries == null) {
+            entries = new HashMap<>();
+            mWorks.put(key, entries);
+        }
+        Entry entry = new Entry(url, file.getAbsolutePath(), file.length(), checksum);
+        entries.put(getFileName(url), entry);
+        mFiles.put(getFileKey(key, getFileName(url)), entry);
+        save();
+    }
+
+    private synchronized File getFolder() {
+        if (mFolder == null) {
+            String rootPath = StorageUtils.getInternalRootPath();
+            mFolder = new File(rootPath != null ? rootPath : "", FOLDER_NAME);
+        }
+        return mFolder;
+    }
+
+    private static String getFileName(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    // The serial part of the work key and the file name
+    private static String getFileKey(String key, String fileName) {
+        return key.substring(0, key.indexOf('/') + 1) + fileName;
+    }
+
+    // Loaded once on the io thread, then the index file is only written
+    private void load() {
+        Map<String, Map<String, Entry>> works = new HashMap<>();
+        File indexFile = new File(getFolder(), INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                read(indexFile, works);
+            } catch (IOException | JSONException e) {
+                // Start with an empty index, the files are downloaded again
+                e.printStackTrace();
+                works.clear();
+            }
+        }
+        synchronized (this) {
+            mWorks.putAll(works);
+            for (Map.Entry<String, Map<String, Entry>> work : works.entrySet()) {
+                for (Map.Entry<String, Entry> file : work.getValue().entrySet()) {
+                    mFiles.put(getFileKey(work.getKey(), file.getKey()), file.getValue());
+                }
+            }
+            mLoaded = true;
+            notifyAll();
+        }
+    }
+
+    private static void read(File indexFile, Map<String, Map<String, Entry>> works) throws IOException, JSONException {
+        try (InputStream input = new FileInputStream(indexFile)) {
+            byte[] bytes = new byte[(int) indexFile.length()];
+            int offset = 0;
+            int count;
+            while (offset < bytes.length && (count = input.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += count;
+            }
+            JSONObject json = new JSONObject(new String(bytes, 0, offset, StandardCharsets.UTF_8)).getJSONObject("works");
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONArray files = json.getJSONArray(key);
+                Map<String, Entry> entries = new HashMap<>();
+                for (int i = 0; i < files.length(); i++) {
+                    JSONObject file = files.getJSONObject(i);
+                    Entry entry = new Entry(file.getString("url"), file.getString("path"), file.getLong("size"),
+                            file.isNull("checksum") ? null : file.optString("checksum", null));
+                    entries.put(getFileName(entry.url), entry);
+                }
+                works.put(key, entries);
+            }
+        }
+    }
+
+    // Called with the lock held, the lock is released while waiting
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (!mLoaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called with the lock held, the index is written on the io thread
+    private void save() {
+        try {
+            JSONObject works = new JSONObject();
+            for (Map.Entry<String, Map<String, Entry>> work : mWorks.entrySet()) {
+                JSONArray files = new JSONArray();
+                for (Entry entry : work.getValue().values()) {
+                    files.put(new JSONObject()
+                            .put("url", entry.url)
+                            .put("path", entry.path)
+                            .put("size", entry.size)
+                            .put("checksum", entry.checksum == null ? JSONObject.NULL : entry.checksum));
+                }
+                works.put(work.getKey(), files);
+            }
+            boolean scheduled = mPendingIndex != null;
+            mPendingIndex = new JSONObject().put("version", 1).put("works", works).toString().getBytes(StandardCharsets.UTF_8);
+            if (!scheduled) {
+                mIoExecutor.execute(this::write);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Write to a temp file then rename, a crash never leaves a broken index
+    private void write() {
+        byte[] bytes;
+        synchronized (this) {
+            bytes = mPendingIndex;
+            mPendingIndex = null;
+        }
+        File folder = getFolder();
+        if (!folder.exists() && !folder.mkdirs()) {
+            return;
+        }
+        try {
+            File tempFile = new File(folder, INDEX_FILE_NAME + ".tmp");
+            try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                output.write(bytes);
+                output.getFD().sync();
+            }
+            if (!tempFile.renameTo(new File(folder, INDEX_FILE_NAME))) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
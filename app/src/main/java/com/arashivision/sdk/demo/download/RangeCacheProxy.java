@@ -0,0 +1,964 @@
+package com.arashivision.sdk.demo.download;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Loopback HTTP proxy to play camera files while they are downloaded.
+ * <p>
+ * open() returns a "http://127.0.0.1:port/token/name" url which the player opens at once. The token is
+ * 128 random bits, so another app on the phone cannot guess the url of a file and read it. The file is
+ * cached as a sparse "name.part" file of 1MB blocks with the same DownloadJournal as ChunkedDownloader:
+ * a Range requested by the player is sent from the part file, and a block not cached yet is fetched
+ * from the camera on demand. In the background one connection prefetches the missing blocks in order
+ * from the position the player reads, and starts again there after a seek, so the playback seldom
+ * waits for the camera. The prefetch takes a slot of DownloadScheduler like a PLAY download and stops
+ * while it is paused, and its requests follow the chunk size of the AdaptiveConcurrencyController.
+ * <p>
+ * When every block is cached the part file is verified and renamed like a finished ChunkedDownloader
+ * download, and the callbacks get its Result. A file partly cached by the proxy could be resumed by ChunkedDownloader
+ * and the other way round. The proxy claims the file in DownloadScheduler before writing it: the task
+ * of the same file is stopped and waits meanwhile, and gets the Result if the proxy completes the file.
+ */
+public class RangeCacheProxy {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    // A reader waits for the prefetch instead of fetching the block itself when it is this close
+    private static final int MAX_WAIT_BLOCKS = 2;
+    private static final int MAX_PREFETCH_RETRIES = 3;
+    private static final long RETRY_DELAY = 1000;
+    private static final long WAIT_INTERVAL = 500;
+    private static final int SOCKET_TIMEOUT = 60 * 1000;
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+
+    private static class RangeCacheProxyHolder {
+        private static final RangeCacheProxy instance = new RangeCacheProxy();
+    }
+
+    public static RangeCacheProxy getInstance() {
+        return RangeCacheProxyHolder.instance;
+    }
+
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // By token, the first path segment of the proxy url
+    private final Map<String, CacheEntry> mEntries = new ConcurrentHashMap<>();
+    private final SecureRandom mRandom = new SecureRandom();
+    private ServerSocketChannel mServer;
+
+    private RangeCacheProxy() {
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "RangeCacheProxy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @NonNull
+    public String open(@NonNull String url, @NonNull File file, @Nullable ChunkedDownloader.Callback callback) throws IOException {
+        return open(url, file, -1, callback);
+    }
+
+    /**
+     * Start caching the camera file and return the url to play it through the proxy. Opening the
+     * same file again returns the same url.
+     *
+     * @param file           Local file, overwritten if exists, it is "name.part" until every block is cached
+     * @param expectedLength Size from the camera, -1 if unknown. The player gets an error at once
+     *                       if the camera serves another length
+     * @param callback       Called on the main thread, onSuccessful after the file is renamed. Not called
+     *                       after all the urls of the file are released
+     */
+    @NonNull
+    public synchronized String open(@NonNull String url, @NonNull File file, long expectedLength,
+                                    @Nullable ChunkedDownloader.Callback callback) throws IOException {
+        startServer();
+        CacheEntry entry = null;
+        for (CacheEntry existing : mEntries.values()) {
+            if (existing.url.equals(url) && existing.file.getAbsolutePath().equals(file.getAbsolutePath())) {
+                entry = existing;
+                break;
+            }
+        }
+        if (entry == null) {
+            entry = new CacheEntry(newToken(), url, file, expectedLength);
+            mEntries.put(entry.token, entry);
+            mExecutor.execute(entry::prefetch);
+        } else if (entry.finished && entry.result == null) {
+            // Failed before, e.g. the camera was disconnected
+            entry.finished = false;
+            mExecutor.execute(entry::prefetch);
+        }
+        entry.openCount++;
+        if (callback != null) {
+            entry.callbacks.add(callback);
+            ChunkedDownloader.Result result = entry.result;
+            if (result != null) {
+                mHandler.post(() -> callback.onSuccessful(result));
+            }
+        }
+        return getBaseUrl() + "/" + entry.token + "/" + getFileName(url);
+    }
+
+    /**
+     * The player of the urls is closed. A file not cached completely yet is still prefetched in the
+     * background, and closed when complete. The urls not returned by open() are ignored.
+     */
+    public synchronized void release(@NonNull String... proxyUrls) {
+        for (String proxyUrl : proxyUrls) {
+            CacheEntry entry = getEntryByUrl(proxyUrl);
+            if (entry == null || --entry.openCount > 0) {
+                continue;
+            }
+            // Nobody plays the file any more, the prefetch goes on for DownloadScheduler only
+            entry.callbacks.clear();
+            if (entry.finished) {
+                closeEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * Stop caching the files of the urls, the players of them fail. The part file and the journal
+     * are kept to resume.
+     */
+    public synchronized void close(@NonNull String... proxyUrls) {
+        for (String proxyUrl : proxyUrls) {
+            CacheEntry entry = getEntryByUrl(proxyUrl);
+            if (entry != null) {
+                closeEntry(entry);
+            }
+        }
+    }
+
+    private void startServer() throws IOException {
+        if (mServer != null) {
+            return;
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getByName(HOST), 0));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        mServer = server;
+        mExecutor.execute(() -> accept(server));
+    }
+
+    private String getBaseUrl() {
+        return "http://" + HOST + ":" + mServer.socket().getLocalPort();
+    }
+
+    @Nullable
+    private CacheEntry getEntryByUrl(String proxyUrl) {
+        if (mServer == null || !proxyUrl.startsWith(getBaseUrl() + "/")) {
+            return null;
+        }
+        return getEntryByPath(proxyUrl.substring(getBaseUrl().length()));
+    }
+
+    // "/token/name", both must match
+    @Nullable
+    private CacheEntry getEntryByPath(String path) {
+        int slash = path.indexOf('/', 1);
+        if (!path.startsWith("/") || slash < 0) {
+            return null;
+        }
+        CacheEntry entry = mEntries.get(path.substring(1, slash));
+        return entry != null && getFileName(path.substring(slash)).equals(getFileName(entry.url)) ? entry : null;
+    }
+
+    // 128 random bits in hex
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        mRandom.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(String.format(Locale.US, "%02x", b));
+        }
+        return token.toString();
+    }
+
+    private void closeEntry(CacheEntry entry) {
+        mEntries.remove(entry.token);
+        entry.close();
+    }
+
+    private void onFinished(CacheEntry entry, @Nullable ChunkedDownloader.Result result, @Nullable IOException error) {
+        if (result != null) {
+            // The task of the file in DownloadScheduler gets the result instead of downloading it again
+            entry.releaseClaim(result);
+        }
+        synchronized (this) {
+            if (entry.handle.isCancelled()) {
+                return;
+            }
+            entry.finished = true;
+            entry.result = result;
+            if (entry.openCount <= 0) {
+                closeEntry(entry);
+            }
+        }
+        for (ChunkedDownloader.Callback callback : entry.callbacks) {
+            if (result != null) {
+                mHandler.post(() -> callback.onSuccessful(result));
+            } else {
+                mHandler.post(() -> callback.onError(error == null ? null : error.getMessage()));
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        while (server.isOpen()) {
+            try {
+                SocketChannel socket = server.accept();
+                mExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // The connection was reset before it was accepted
+            }
+        }
+    }
+
+    // One request after the other on the connection, until the player closes it
+    private void serve(SocketChannel socket) {
+        try (SocketChannel channel = socket) {
+            channel.socket().setSoTimeout(SOCKET_TIMEOUT);
+            InputStream input = new BufferedInputStream(channel.socket().getInputStream());
+            List<String> header;
+            while ((header = readHeader(input)) != null) {
+                if (!handle(channel, header)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Closed by the player, e.g. to seek, or the file was closed
+        }
+    }
+
+    /**
+     * @return false to close the connection
+     */
+    private boolean handle(SocketChannel channel, List<String> header) throws IOException {
+        String[] requestLine = header.get(0).split(" ");
+        boolean keepAlive = requestLine.length > 2 && "HTTP/1.1".equals(requestLine[2]);
+        String range = null;
+        for (int i = 1; i < header.size(); i++) {
+            String line = header.get(i);
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if ("Range".equalsIgnoreCase(name)) {
+                range = value;
+            } else if ("Connection".equalsIgnoreCase(name) && "close".equalsIgnoreCase(value)) {
+                keepAlive = false;
+            }
+        }
+        String method = requestLine[0];
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            sendStatus(channel, "405 Method Not Allowed", null);
+            return false;
+        }
+        CacheEntry entry = requestLine.length > 1 ? getEntryByPath(requestLine[1]) : null;
+        if (entry == null) {
+            sendStatus(channel, "404 Not Found", null);
+            return keepAlive;
+        }
+        long total;
+        try {
+            total = entry.open();
+        } catch (IOException e) {
+            sendStatus(channel, "502 Bad Gateway", null);
+            return false;
+        }
+        long start = 0;
+        long end = total - 1;
+        if (range != null) {
+            long[] parsed = parseRange(range, total);
+            if (parsed == null) {
+                sendStatus(channel, "416 Range Not Satisfiable", "Content-Range: bytes */" + total);
+                return keepAlive;
+            }
+            start = parsed[0];
+            end = parsed[1];
+        }
+        StringBuilder response = new StringBuilder()
+                .append(range != null ? "HTTP/1.1 206 Partial Content" : "HTTP/1.1 200 OK").append("\r\n")
+                .append("Content-Type: ").append(getContentType(requestLine[1])).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Content-Length: ").append(end - start + 1).append("\r\n");
+        if (range != null) {
+            response.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(total).append("\r\n");
+        }
+        response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        writeFully(channel, response.toString());
+        if ("GET".equals(method)) {
+            entry.read(start, end, channel);
+        }
+        return keepAlive;
+    }
+
+    private static void sendStatus(SocketChannel channel, String status, @Nullable String header) throws IOException {
+        writeFully(channel, "HTTP/1.1 " + status + "\r\n"
+                + (header != null ? header + "\r\n" : "")
+                + "Content-Length: 0\r\n\r\n");
+    }
+
+    private static void writeFully(SocketChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the request line and the header lines, null if the connection is closed
+     */
+    @Nullable
+    private static List<String> readHeader(InputStream input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int length = 0;
+        int b;
+        while ((b = input.read()) != -1) {
+            if (++length > MAX_HEADER_LENGTH) {
+                throw new IOException("Header too large");
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+            }
+            if (line.length() > 0) {
+                lines.add(line.toString());
+                line.setLength(0);
+            } else if (!lines.isEmpty()) {
+                return lines;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Only the first range of "bytes=start-end", "bytes=start-" or "bytes=-suffix"
+     *
+     * @return {start, end} with end inclusive, null if not satisfiable
+     */
+    @Nullable
+    private static long[] parseRange(String range, long total) {
+        if (!range.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length());
+        int comma = spec.indexOf(',');
+        if (comma >= 0) {
+            spec = spec.substring(0, comma);
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                start = Math.max(0, total - Long.parseLong(last));
+                end = total - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? total - 1 : Math.min(total - 1, Long.parseLong(last));
+            }
+            return start <= end ? new long[]{start, end} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String getFileName(String url) {
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getContentType(String path) {
+        String name = path.toLowerCase(Locale.US);
+        if (name.endsWith(".insv") || name.endsWith(".mp4") || name.endsWith(".lrv")) {
+            return "video/mp4";
+        }
+        if (name.endsWith(".insp") || name.endsWith(".jpg")) {
+            return "image/jpeg";
+        }
+        return "application/octet-stream";
+    }
+
+    // Reads at most count bytes of the source, so one response is written block by block
+    private static class LimitedChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel source;
+        private long remaining;
+
+        private LimitedChannel(ReadableByteChannel source, long count) {
+            this.source = source;
+            this.remaining = count;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int limit = buffer.limit();
+            if (buffer.remaining() > remaining) {
+                buffer.limit(buffer.position() + (int) remaining);
+            }
+            try {
+                int count = source.read(buffer);
+                if (count > 0) {
+                    remaining -= count;
+                }
+                return count;
+            } finally {
+                buffer.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class CacheEntry {
+
+        private final String token;
+        private final String url;
+        private final File file;
+        private final File partFile;
+        private final File journalFile;
+        // -1 if unknown
+        private final long expectedLength;
+        private final int connectType;
+        // Null if not adaptive
+        private final AdaptiveConcurrencyController controller;
+        private final DownloadHandle handle = new DownloadHandle();
+        // Call of each response not released yet
+        private final Map<Response, Call> calls = new ConcurrentHashMap<>();
+        private final List<ChunkedDownloader.Callback> callbacks = new CopyOnWriteArrayList<>();
+        private final long startTime = System.nanoTime();
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong lastProgressTime = new AtomicLong();
+        // Guarded by RangeCacheProxy.this
+        private int openCount;
+        private boolean finished;
+        private ChunkedDownloader.Result result;
+        // Guarded by this, set once by open()
+        private DownloadJournal journal;
+        private DownloadSink output;
+        private long total = -1;
+        private long resumedLength;
+        // Guarded by this, the file is claimed in DownloadScheduler
+        private boolean claimed;
+        // Guarded by this, the prefetch asked DownloadScheduler for a slot, and got it
+        private boolean slotRequested;
+        private boolean slotAcquired;
+        // Guarded by this, blocks being written, by a reader or the prefetch
+        private final Set<Long> fetching = new HashSet<>();
+        // Block written by the prefetch and the last one of its request, -1 if none
+        private long prefetchBlock = -1;
+        private long prefetchEnd = -1;
+        private int fetchCount;
+        private int activeFetches;
+        private int maxActiveFetches;
+        // Last position requested by the player
+        private volatile long readPosition;
+
+        private CacheEntry(String token, String url, File file, long expectedLength) {
+            this.token = token;
+            this.url = url;
+            this.file = file;
+            this.expectedLength = expectedLength;
+            connectType = InstaCameraManager.getInstance().getCameraConnectedType();
+            controller = ChunkedDownloader.getInstance().getAdaptiveController(connectType);
+            partFile = new File(file.getPath() + ChunkedDownloader.PART_SUFFIX);
+            journalFile = new File(file.getPath() + ChunkedDownloader.JOURNAL_SUFFIX);
+        }
+
+        /**
+         * Resume from the journal, or start a new part file
+         *
+         * @return length of the file
+         */
+        private synchronized long open() throws IOException {
+            if (journal != null) {
+                return total;
+            }
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create " + parent);
+            }
+            long fileTotal;
+            String validator;
+            Response response = call(0, 0);
+            try {
+                if (response.code() != 206) {
+                    throw new IOException("Range not supported, HTTP " + response.code() + " " + url);
+                }
+                fileTotal = ChunkedDownloader.parseTotal(response, 0);
+                validator = ChunkedDownloader.getValidator(response);
+            } finally {
+                release(response);
+            }
+            if (expectedLength >= 0 && fileTotal != expectedLength) {
+                throw new IOException("Length " + fileTotal + " != " + expectedLength + " " + url);
+            }
+            // Waits until a download of the file by DownloadScheduler stopped and saved its journal
+            DownloadScheduler.getInstance().claim(file);
+            claimed = true;
+            DownloadJournal loaded = partFile.exists() ? DownloadJournal.load(journalFile, url) : null;
+            if (loaded != null && (partFile.length() != loaded.getTotal() || !loaded.matches(fileTotal, validator))) {
+                loaded.close();
+                loaded = null;
+            }
+            DownloadSink sink = new DownloadSink(partFile);
+            try {
+                if (loaded == null) {
+                    sink.preallocate(fileTotal);
+                    loaded = DownloadJournal.create(journalFile, url, fileTotal, validator);
+                }
+            } catch (IOException e) {
+                sink.close();
+                throw e;
+            }
+            long missingLength = 0;
+            for (long[] range : loaded.getMissingRanges()) {
+                missingLength += range[1] - range[0] + 1;
+            }
+            resumedLength = fileTotal - missingLength;
+            downloaded.set(resumedLength);
+            output = sink;
+            journal = loaded;
+            total = fileTotal;
+            return total;
+        }
+
+        // Send the range to the player, waiting for or fetching the blocks not cached yet
+        private void read(long start, long end, SocketChannel channel) throws IOException {
+            long position = start;
+            while (position <= end) {
+                readPosition = position;
+                long downloadedEnd = awaitDownloaded(position);
+                long count = Math.min(end, downloadedEnd) - position + 1;
+                output.transferTo(position, count, channel);
+                position += count;
+            }
+        }
+
+        /**
+         * @return end of the cached range containing the position
+         */
+        private long awaitDownloaded(long position) throws IOException {
+            long block = position / BLOCK_SIZE;
+            while (true) {
+                long fetchEnd;
+                synchronized (this) {
+                    long downloadedEnd = journal.getDownloadedEnd(position);
+                    if (downloadedEnd >= 0) {
+                        return downloadedEnd;
+                    }
+                    if (handle.isCancelled()) {
+                        throw new IOException("Closed " + file.getName());
+                    }
+                    if (fetching.contains(block)
+                            || block > prefetchBlock && block <= Math.min(prefetchEnd, prefetchBlock + MAX_WAIT_BLOCKS)) {
+                        // About to be written
+                        try {
+                            wait(WAIT_INTERVAL);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                        continue;
+                    }
+                    fetching.add(block);
+                    fetchEnd = Math.min(journal.getMissingEnd(position), getBlockEnd(block));
+                }
+                fetch(position, fetchEnd, false);
+            }
+        }
+
+        private void prefetch() {
+            try {
+                prefetchBlocks();
+            } finally {
+                synchronized (this) {
+                    releaseSlot();
+                }
+            }
+        }
+
+        private void prefetchBlocks() {
+            int failures = 0;
+            while (true) {
+                try {
+                    open();
+                    long start;
+                    long end;
+                    synchronized (this) {
+                        if (journal.isComplete()) {
+                            break;
+                        }
+                        long block = getPrefetchBlock();
+                        if (block < 0) {
+                            // The readers are fetching the last blocks
+                            releaseSlot();
+                        }
+                        if (block < 0 || !acquireSlot()) {
+                            // Or paused, or DownloadScheduler has no slot free
+                            wait(WAIT_INTERVAL);
+                            continue;
+                        }
+                        long downloadedEnd = journal.getDownloadedEnd(block * BLOCK_SIZE);
+                        start = downloadedEnd >= 0 ? downloadedEnd + 1 : block * BLOCK_SIZE;
+                        end = journal.getMissingEnd(start);
+                        if (controller != null) {
+                            end = Math.min(end, start + controller.getChunkSize(connectType) - 1);
+                        }
+                        fetching.add(block);
+                        prefetchBlock = block;
+                        prefetchEnd = end / BLOCK_SIZE;
+                    }
+                    fetch(start, end, true);
+                    failures = 0;
+                } catch (IOException e) {
+                    if (handle.isCancelled() || ++failures > MAX_PREFETCH_RETRIES) {
+                        onFinished(this, null, e);
+                        return;
+                    }
+                    try {
+                        Thread.sleep(RETRY_DELAY);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                onFinished(this, complete(), null);
+            } catch (IOException e) {
+                onFinished(this, null, e);
+            }
+        }
+
+        // Guarded by this. The prefetch counts as a download in the controller while it has the slot
+        private boolean acquireSlot() {
+            slotRequested = true;
+            boolean acquired = DownloadScheduler.getInstance().acquireSlot(file);
+            if (acquired != slotAcquired && controller != null) {
+                if (acquired) {
+                    controller.onDownloadStarted(connectType);
+                } else {
+                    controller.onDownloadFinished(connectType);
+                }
+            }
+            slotAcquired = acquired;
+            return acquired;
+        }
+
+        // Guarded by this
+        private void releaseSlot() {
+            if (!slotRequested) {
+                return;
+            }
+            if (slotAcquired && controller != null) {
+                controller.onDownloadFinished(connectType);
+            }
+            slotRequested = false;
+            slotAcquired = false;
+            DownloadScheduler.getInstance().releaseSlot(file);
+        }
+
+        /**
+         * Fetch start-end and write it block by block, each block is journaled once written. The first
+         * block must be marked as fetching by the caller. The prefetch goes on to the next blocks while
+         * they are still the ones to prefetch.
+         */
+        private void fetch(long start, long end, boolean prefetch) throws IOException {
+            long block = start / BLOCK_SIZE;
+            long claimed = block;
+            synchronized (this) {
+                fetchCount++;
+                maxActiveFetches = Math.max(maxActiveFetches, ++activeFetches);
+            }
+            if (controller != null) {
+                controller.onStreamStarted(connectType);
+            }
+            Response response = null;
+            try {
+                response = request(start, end);
+                ReadableByteChannel source = response.body().source();
+                long position = start;
+                while (true) {
+                    long blockEnd = Math.min(end, getBlockEnd(block));
+                    CRC32 crc = new CRC32();
+                    long count = output.write(new LimitedChannel(source, blockEnd - position + 1), position, crc, null);
+                    if (count != blockEnd - position + 1) {
+                        throw new IOException("Incomplete block " + block + " " + file.getName());
+                    }
+                    output.checkpoint();
+                    journal.add(position, blockEnd, crc.getValue());
+                    downloaded.addAndGet(count);
+                    if (controller != null) {
+                        controller.onBytes(connectType, count);
+                    }
+                    notifyProgress();
+                    position = blockEnd + 1;
+                    block++;
+                    synchronized (this) {
+                        fetching.remove(claimed);
+                        claimed = -1;
+                        notifyAll();
+                        if (position > end || !prefetch || !shouldPrefetch(block, position)) {
+                            return;
+                        }
+                        fetching.add(block);
+                        claimed = block;
+                        prefetchBlock = block;
+                    }
+                }
+            } catch (IOException e) {
+                if (controller != null && !handle.isCancelled()) {
+                    controller.onError(connectType);
+                }
+                throw e;
+            } finally {
+                if (response != null) {
+                    release(response);
+                }
+                if (controller != null) {
+                    controller.onStreamFinished(connectType);
+                }
+                synchronized (this) {
+                    if (claimed >= 0) {
+                        fetching.remove(claimed);
+                    }
+                    if (prefetch) {
+                        prefetchBlock = -1;
+                        prefetchEnd = -1;
+                    }
+                    activeFetches--;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Guarded by this. Whether the prefetch goes on to the block, not after the player moved elsewhere
+        private boolean shouldPrefetch(long block, long position) {
+            if (handle.isCancelled() || fetching.contains(block) || journal.getDownloadedEnd(position) >= 0
+                    || DownloadScheduler.getInstance().isPaused()) {
+                return false;
+            }
+            long readBlock = readPosition / BLOCK_SIZE;
+            if (readBlock > block && readBlock - block <= MAX_WAIT_BLOCKS) {
+                // The player waits for it
+                return true;
+            }
+            return getPrefetchBlock() == block;
+        }
+
+        // Guarded by this. The first missing block from the player position, then from the start
+        private long getPrefetchBlock() {
+            long block = getMissingBlock(readPosition / BLOCK_SIZE);
+            return block >= 0 ? block : getMissingBlock(0);
+        }
+
+        // Guarded by this. The first block from the given one which is not cached and not being written
+        private long getMissingBlock(long from) {
+            long block = from;
+            while (block * BLOCK_SIZE < total) {
+                long downloadedEnd = journal.getDownloadedEnd(block * BLOCK_SIZE);
+                if (downloadedEnd >= getBlockEnd(block)) {
+                    // The block of the next byte, the ranges of ChunkedDownloader end anywhere in a block
+                    block = (downloadedEnd + 1) / BLOCK_SIZE;
+                } else if (fetching.contains(block)) {
+                    block++;
+                } else {
+                    return block;
+                }
+            }
+            return -1;
+        }
+
+        private long getBlockEnd(long block) {
+            return Math.min(total, (block + 1) * BLOCK_SIZE) - 1;
+        }
+
+        private Response call(long start, long end) throws IOException {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("Range", "bytes=" + start + "-" + end)
+                    .get()
+                    .build();
+            Call call = ChunkedDownloader.getInstance().getClient().newCall(request);
+            if (!handle.addCall(call)) {
+                throw new IOException("Canceled");
+            }
+            Response response;
+            long requestTime = System.nanoTime();
+            try {
+                response = call.execute();
+            } catch (IOException e) {
+                handle.removeCall(call);
+                throw e;
+            }
+            // The call stays in the handle until the body is closed, so close() also stops the body being read
+            calls.put(response, call);
+            if (controller != null) {
+                controller.onRtt(connectType, (System.nanoTime() - requestTime) / 1_000_000);
+            }
+            return response;
+        }
+
+        // Close the response and remove its call from the handle
+        private void release(Response response) {
+            response.close();
+            Call call = calls.remove(response);
+            if (call != null) {
+                handle.removeCall(call);
+            }
+        }
+
+        private Response request(long start, long end) throws IOException {
+            Response response = call(start, end);
+            try {
+                if (response.code() != 206 || response.body() == null) {
+                    throw new IOException("HTTP " + response.code() + " " + url);
+                }
+                if (ChunkedDownloader.parseTotal(response, start) != total) {
+                    throw new IOException("File changed on the camera " + url);
+                }
+                return response;
+            } catch (IOException e) {
+                release(response);
+                throw e;
+            }
+        }
+
+        // Verify and rename the part file, the players still read it through the open output
+        private ChunkedDownloader.Result complete() throws IOException {
+            String checksum;
+            try {
+                checksum = ChunkedDownloader.verify(partFile, journal.getChecksum(), expectedLength, null);
+            } catch (IOException e) {
+                // It would never be resumed to a valid file
+                journal.close();
+                partFile.delete();
+                DownloadJournal.delete(journalFile);
+                throw e;
+            }
+            journal.close();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+            if (!partFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + partFile);
+            }
+            DownloadJournal.delete(journalFile);
+            synchronized (this) {
+                return new ChunkedDownloader.Result(file, total, resumedLength, fetchCount, Math.max(1, maxActiveFetches),
+                        (System.nanoTime() - startTime) / 1_000_000, checksum);
+            }
+        }
+
+        // At most once per PROGRESS_INTERVAL, like ChunkedDownloader
+        private void notifyProgress() {
+            if (callbacks.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime() / 1_000_000;
+            long last = lastProgressTime.get();
+            if (now - last < ChunkedDownloader.PROGRESS_INTERVAL || !lastProgressTime.compareAndSet(last, now)) {
+                return;
+            }
+            long downloadedLength = downloaded.get();
+            for (ChunkedDownloader.Callback callback : callbacks) {
+                mHandler.post(() -> callback.onProgress(downloadedLength, total));
+            }
+        }
+
+        // Let DownloadScheduler download the file again, with the result if complete
+        private void releaseClaim(@Nullable ChunkedDownloader.Result result) {
+            synchronized (this) {
+                if (!claimed) {
+                    return;
+                }
+                claimed = false;
+            }
+            DownloadScheduler.getInstance().release(file, result);
+        }
+
+        private void close() {
+            handle.cancel();
+            synchronized (this) {
+                if (output != null) {
+                    try {
+                        output.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                if (journal != null) {
+                    journal.close();
+                }
+                notifyAll();
+            }
+            // Resumed from the journal by the task of the file in DownloadScheduler, if any
+            releaseClaim(null);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+import com.arashivision.sdk.demo.osc.delegate.IOscAsyncRequestDelegate;
+import com.arashivision.sdk.demo.osc.delegate.IOscRequestDelegate;
+import com.arashivision.sdk.demo.osc.metrics.OscMetrics;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Bind the requests of one operation to its OscRequestHandle, and record them to OscMetrics.
+ * <p>
+ * Requests go through IOscAsyncRequestDelegate when the delegate supports it, so the call in
+ * flight is aborted on cancel. Otherwise the blocking request is sent and the cancellation is
+ * checked before and after it. A cancelled request throws CancellationException.
+ * <p>
+ * Requests with a transient error are retried by the OscRetryPolicy. While the OscCircuitBreaker
+ * is open, requests fail at once without being sent.
+ */
+class CancellableRequestDelegate implements IOscRequestDelegate {
+
+    private interface Enqueuer {
+        IOscAsyncRequestDelegate.Call enqueue(IOscAsyncRequestDelegate delegate, IOscAsyncRequestDelegate.Callback callback);
+    }
+
+    private interface Sender {
+        OSCResult send(IOscRequestDelegate delegate);
+    }
+
+    private static final String ERROR_MESSAGE_CIRCUIT_OPEN = "Camera unreachable, request not sent.";
+
+    private final IOscRequestDelegate mDelegate;
+    private final OscRequestHandle mHandle;
+    private final long mTimeout;
+    private final OscMetrics mMetrics;
+    private final OscRetryPolicy mRetryPolicy;
+    private final OscCircuitBreaker mCircuitBreaker;
+
+    CancellableRequestDelegate(IOscRequestDelegate delegate, OscRequestHandle handle, long timeout, OscMetrics metrics,
+                               OscRetryPolicy retryPolicy, OscCircuitBreaker circuitBreaker) {
+        mDelegate = delegate;
+        mHandle = handle;
+        mTimeout = timeout;
+        mMetrics = metrics;
+        mRetryPolicy = retryPolicy;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public OSCResult sendRequestByGet(String url, Map<String, String> headerMap) {
+        return send(getMetricName(url, null), url, headerMap,
+                (delegate, callback) -> delegate.enqueueGet(url, headerMap, mTimeout, callback),
+                delegate -> delegate.sendRequestByGet(url, headerMap));
+    }
+
+    @Override
+    public OSCResult sendRequestByPost(String url, String content, Map<String, String> headerMap) {
+        return send(getMetricName(url, getCommandName(content)), url, headerMap,
+                (delegate, callback) -> delegate.enqueuePost(url, content, headerMap, mTimeout, callback),
+                delegate -> delegate.sendRequestByPost(url, content, headerMap));
+    }
+
+    @Override
+    public OSCResult sendRequestByPost(String url, OscCommand command, Map<String, String> headerMap) {
+        return send(getMetricName(url, command.getName()), url, headerMap,
+                (delegate, callback) -> delegate.enqueuePost(url, command, headerMap, mTimeout, callback),
+                delegate -> delegate.sendRequestByPost(url, command, headerMap));
+    }
+
+    // Closing the body aborts the read in progress. The latency is recorded until the body starts.
+    // The failures are not counted by the circuit breaker, an HTTP error can not be told from no response here.
+    @Override
+    public Reader openRequestByPost(String url, OscCommand command, Map<String, String> headerMap) throws IOException {
+        mHandle.throwIfCancelled();
+        if (!checkCircuit(url, headerMap)) {
+            throw new IOException(ERROR_MESSAGE_CIRCUIT_OPEN);
+        }
+        String name = getMetricName(url, command.getName());
+        long startTime = mMetrics.onRequestStart(name);
+        Reader body;
+        try {
+            body = mDelegate.openRequestByPost(url, command, headerMap);
+        } catch (IOException e) {
+            mMetrics.onRequestEnd(name, startTime, OscMetrics.ERROR_TRANSPORT);
+            throw e;
+        } catch (RuntimeException e) {
+            mMetrics.onRequestEnd(name, startTime, e.getClass().getSimpleName());
+            throw e;
+        }
+        mMetrics.onRequestEnd(name, startTime, null);
+        mCircuitBreaker.onSuccess();
+        Runnable onCancel = () -> {
+            try {
+                body.close();
+            } catch (IOException ignore) {
+            }
+        };
+        mHandle.addOnCancelListener(onCancel);
+        return new FilterReader(body) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                mHandle.throwIfCancelled();
+                return super.read(buffer, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                mHandle.removeOnCancelListener(onCancel);
+                super.close();
+            }
+        };
+    }
+
+    private OSCResult send(String name, String url, Map<String, String> headerMap, Enqueuer enqueuer, Sender sender) {
+        mHandle.throwIfCancelled();
+        if (!checkCircuit(url, headerMap)) {
+            return new OSCResult(false, ERROR_MESSAGE_CIRCUIT_OPEN);
+        }
+        for (int retry = 0; ; retry++) {
+            OSCResult result = sendOnce(name, enqueuer, sender);
+            onResult(result);
+            if (retry >= mRetryPolicy.getMaxRetries() || !mRetryPolicy.isRetryable(result)) {
+                return result;
+            }
+            mMetrics.onRetry(name);
+            try {
+                Thread.sleep(mRetryPolicy.getDelay(retry));
+            } catch (InterruptedException e) {
+                throw new CancellationException("Request canceled");
+            }
+            mHandle.throwIfCancelled();
+        }
+    }
+
+    // Return false to fail fast. When the open breaker is due for a probe, "/osc/info" is sent first
+    private boolean checkCircuit(String url, Map<String, String> headerMap) {
+        switch (mCircuitBreaker.acquire()) {
+            case ALLOW:
+                return true;
+            case REJECT:
+                return false;
+            default:
+                break;
+        }
+        String infoUrl = getOscPrefix(url) + "/osc/info";
+        OSCResult result;
+        try {
+            result = sendOnce("/osc/info",
+                    (delegate, callback) -> delegate.enqueueGet(infoUrl, headerMap, mTimeout, callback),
+                    delegate -> delegate.sendRequestByGet(infoUrl, headerMap));
+        } catch (RuntimeException e) {
+            mCircuitBreaker.onProbeCancelled();
+            throw e;
+        }
+        onResult(result);
+        return mCircuitBreaker.getState() == OscCircuitBreaker.State.CLOSED;
+    }
+
+    // Any HTTP response means the camera is reachable
+    private void onResult(OSCResult result) {
+        if (result.isSuccessful() || result.getCode() != 0) {
+            mCircuitBreaker.onSuccess();
+        } else {
+            mCircuitBreaker.onFailure();
+        }
+    }
+
+    private OSCResult sendOnce(String name, Enqueuer enqueuer, Sender sender) {
+        long startTime = mMetrics.onRequestStart(name);
+        String errorCode = OscMetrics.ERROR_CANCELED;
+        try {
+            OSCResult result;
+            if (mDelegate instanceof IOscAsyncRequestDelegate) {
+                result = await(enqueuer);
+            } else {
+                result = sender.send(mDelegate);
+                mHandle.throwIfCancelled();
+            }
+            errorCode = getErrorCode(result);
+            return result;
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            errorCode = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            mMetrics.onRequestEnd(name, startTime, errorCode);
+        }
+    }
+
+    private OSCResult await(Enqueuer enqueuer) {
+        CountDownLatch latch = new CountDownLatch(1);
+        OSCResult[] result = new OSCResult[1];
+        IOscAsyncRequestDelegate.Call call = enqueuer.enqueue((IOscAsyncRequestDelegate) mDelegate, r -> {
+            result[0] = r;
+            latch.countDown();
+        });
+        Runnable onCancel = call::cancel;
+        mHandle.addOnCancelListener(onCancel);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            call.cancel();
+            throw new CancellationException("Request canceled");
+        } finally {
+            mHandle.removeOnCancelListener(onCancel);
+        }
+        mHandle.throwIfCancelled();
+        return result[0];
+    }
+
+    // null if successful. Only the bodies which contain an error are decoded
+    private static String getErrorCode(OSCResult result) {
+        if (!result.isSuccessful()) {
+            return OscMetrics.ERROR_TRANSPORT;
+        }
+        String body = result.getResult();
+        if (body == null || !body.contains("\"error\"")) {
+            return null;
+        }
+        try {
+            String code = OscResponseDecoder.decode(body).getErrorCode();
+            return code != null ? code : "unknown";
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Such as http://192.168.42.1:80 of http://192.168.42.1:80/osc/state
+    private static String getOscPrefix(String url) {
+        int index = url.indexOf("/osc/");
+        return index >= 0 ? url.substring(0, index) : url;
+    }
+
+    private static String getMetricName(String url, String commandName) {
+        if (commandName != null && url.endsWith("/osc/commands/execute")) {
+            return commandName;
+        }
+        int index = url.indexOf("/osc/");
+        return index >= 0 ? url.substring(index) : url;
+    }
+
+    // "name" of the command content, such as camera.listFiles
+    private static String getCommandName(String content) {
+        if (content == null) {
+            return null;
+        }
+        int key = content.indexOf("\"name\"");
+        if (key < 0) {
+            return null;
+        }
+        int colon = content.indexOf(':', key);
+        int start = colon < 0 ? -1 : content.indexOf('"', colon + 1);
+        int end = start < 0 ? -1 : content.indexOf('"', start + 1);
+        return end < 0 ? null : content.substring(start + 1, end);
+    }
+}
@@ -4,10 +4,16 @@ public class OSCResult {
 
     private boolean isSuccessful;
     private String result; // Success is response.body().string()，Failure is response.message()
+    private int code; // HTTP status code, 0 if there is no response
 
     public OSCResult(boolean isSuccessful, String result) {
+        this(isSuccessful, result, 0);
+    }
+
+    public OSCResult(boolean isSuccessful, String result, int code) {
         this.isSuccessful = isSuccessful;
         this.result = result;
+        this.code = code;
     }
 
     public boolean isSuccessful() {
@@ -18,4 +24,11 @@ public class OSCResult {
         return result;
     }
 
+    /**
+     * HTTP status code, 0 if the camera did not respond (connection failed or timeout)
+     */
+    public int getCode() {
+        return code;
+    }
+
 }
@@ -0,0 +1,152 @@
+package com.arashivision.sdk.demo.osc;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Deliver the OSC callbacks on the main thread once per display frame.
+ * <p>
+ * Callbacks posted from the request threads are queued, and all of them run in one frame callback
+ * of the Choreographer, in the order they were posted. Progress-style callbacks posted with
+ * postLatest() replace the pending one of the same listener and request, so only the latest value
+ * is delivered. If no frame comes (e.g. the screen is off), the queue is flushed after a short delay.
+ * <p>
+ * Callbacks of cancelled requests, and callbacks to an Activity which is finishing, are dropped.
+ */
+class OscCallbackDispatcher implements Choreographer.FrameCallback {
+
+    // Max delay in ms of a callback when no frame comes
+    private static final long FALLBACK_DELAY = 100;
+
+    private static class Pending {
+
+        private final Object listener;
+        private final OscRequestHandle handle;
+        private Runnable callback;
+
+        private Pending(Object listener, OscRequestHandle handle, Runnable callback) {
+            this.listener = listener;
+            this.handle = handle;
+            this.callback = callback;
+        }
+    }
+
+    private static class LatestKey {
+
+        private final Object listener;
+        private final OscRequestHandle handle;
+
+        private LatestKey(Object listener, OscRequestHandle handle) {
+            this.listener = listener;
+            this.handle = handle;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LatestKey)) {
+                return false;
+            }
+            LatestKey other = (LatestKey) o;
+            return listener == other.listener && handle == other.handle;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(listener), System.identityHashCode(handle));
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mScheduleFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    private final Runnable mFallbackFlush = this::flush;
+
+    // Guarded by this
+    private List<Pending> mPending = new ArrayList<>();
+    private final Map<LatestKey, Pending> mPendingLatest = new HashMap<>();
+    private boolean mScheduled;
+
+    /**
+     * Queue the callback, it is always delivered unless dropped
+     */
+    void post(@Nullable Object listener, @NonNull OscRequestHandle handle, @NonNull Runnable callback) {
+        synchronized (this) {
+            mPending.add(new Pending(listener, handle, callback));
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * Queue the progress callback, replacing the pending one of the same listener and request
+     */
+    void postLatest(@NonNull Object listener, @NonNull OscRequestHandle handle, @NonNull Runnable callback) {
+        synchronized (this) {
+            LatestKey key = new LatestKey(listener, handle);
+            Pending pending = mPendingLatest.get(key);
+            if (pending != null) {
+                pending.callback = callback;
+                return;
+            }
+            pending = new Pending(listener, handle, callback);
+            mPendingLatest.put(key, pending);
+            mPending.add(pending);
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flush();
+    }
+
+    private void scheduleLocked() {
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+        // The Choreographer belongs to the main thread
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mScheduleFrame.run();
+        } else {
+            mHandler.post(mScheduleFrame);
+        }
+        mHandler.postDelayed(mFallbackFlush, FALLBACK_DELAY);
+    }
+
+    // Run on the main thread, by the frame callback or the fallback, whichever comes first
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            if (!mScheduled) {
+                return;
+            }
+            mScheduled = false;
+            batch = mPending;
+            mPending = new ArrayList<>();
+            mPendingLatest.clear();
+            // Remove the loser, so each batch leaves nothing behind in the main queue
+            mHandler.removeCallbacks(mFallbackFlush);
+            mHandler.removeCallbacks(mScheduleFrame);
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        for (Pending pending : batch) {
+            if (!pending.handle.isCancelled() && !isFinishing(pending.listener)) {
+                pending.callback.run();
+            }
+        }
+    }
+
+    private static boolean isFinishing(Object listener) {
+        return listener instanceof Activity && (((Activity) listener).isFinishing() || ((Activity) listener).isDestroyed());
+    }
+}
@@ -0,0 +1,209 @@
+package com.arashivision.sdk.demo.osc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fail fast while the camera is unreachable.
+ * <p>
+ * After some consecutive requests got no response (connection failed or timeout), the breaker opens
+ * and the requests fail at once instead of each waiting out its own timeout. When the open duration
+ * has passed, the next request first probes the camera with "/osc/info": if it responds, the breaker
+ * closes and the request is sent, otherwise it opens again with a doubled duration.
+ * Any HTTP response, also an error, counts as reachable.
+ */
+public class OscCircuitBreaker {
+
+    public enum State {
+        // Requests are sent
+        CLOSED,
+        // Requests fail fast
+        OPEN,
+        // A probe is in flight, other requests fail fast
+        HALF_OPEN
+    }
+
+    public interface OnStateChangedListener {
+        /**
+         * Called on the main thread
+         */
+        void onStateChanged(@NonNull State state);
+    }
+
+    enum Permit {
+        ALLOW,
+        PROBE,
+        REJECT
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<OnStateChangedListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private int mFailureThreshold = 3;
+    private long mOpenDuration = 3000;
+    private long mMaxOpenDuration = 30000;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenTime;
+    private long mCurrentOpenDuration = mOpenDuration;
+    private long mRejectedCount;
+    private long mOpenCount;
+
+    /**
+     * @param failureThreshold Consecutive requests without response to open the breaker, default 3
+     */
+    public synchronized OscCircuitBreaker setFailureThreshold(int failureThreshold) {
+        mFailureThreshold = Math.max(1, failureThreshold);
+        return this;
+    }
+
+    /**
+     * @param openDuration    Time in ms to fail fast before the first probe, default 3000ms
+     * @param maxOpenDuration Cap in ms of the duration, doubled after each failed probe, default 30000ms
+     */
+    public synchronized OscCircuitBreaker setOpenDuration(long openDuration, long maxOpenDuration) {
+        mOpenDuration = Math.max(0, openDuration);
+        mMaxOpenDuration = Math.max(mOpenDuration, maxOpenDuration);
+        if (mState == State.CLOSED) {
+            mCurrentOpenDuration = mOpenDuration;
+        }
+        return this;
+    }
+
+    public void addOnStateChangedListener(@NonNull OnStateChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnStateChangedListener(@NonNull OnStateChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @NonNull
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Number of requests failed fast
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * Number of times the breaker opened
+     */
+    public synchronized long getOpenCount() {
+        return mOpenCount;
+    }
+
+    /**
+     * Close the breaker, e.g. after the camera reconnected
+     */
+    public void reset() {
+        synchronized (this) {
+            mConsecutiveFailures = 0;
+            mCurrentOpenDuration = mOpenDuration;
+            if (!setState(State.CLOSED)) {
+                return;
+            }
+        }
+        notifyStateChanged(State.CLOSED);
+    }
+
+    @NonNull
+    Permit acquire() {
+        synchronized (this) {
+            switch (mState) {
+                case CLOSED:
+                    return Permit.ALLOW;
+                case OPEN:
+                    if (now() - mOpenTime >= mCurrentOpenDuration) {
+                        setState(State.HALF_OPEN);
+                        break;
+                    }
+                    mRejectedCount++;
+                    return Permit.REJECT;
+                default:
+                    mRejectedCount++;
+                    return Permit.REJECT;
+            }
+        }
+        notifyStateChanged(State.HALF_OPEN);
+        return Permit.PROBE;
+    }
+
+    /**
+     * The camera responded
+     */
+    void onSuccess() {
+        synchronized (this) {
+            mConsecutiveFailures = 0;
+            mCurrentOpenDuration = mOpenDuration;
+            if (!setState(State.CLOSED)) {
+                return;
+            }
+        }
+        notifyStateChanged(State.CLOSED);
+    }
+
+    /**
+     * The camera did not respond
+     */
+    void onFailure() {
+        synchronized (this) {
+            if (mState == State.HALF_OPEN) {
+                mCurrentOpenDuration = Math.min(mMaxOpenDuration, Math.max(1, mCurrentOpenDuration * 2));
+            } else if (mState != State.CLOSED || ++mConsecutiveFailures < mFailureThreshold) {
+                return;
+            }
+            mOpenTime = now();
+            mOpenCount++;
+            setState(State.OPEN);
+        }
+        notifyStateChanged(State.OPEN);
+    }
+
+    /**
+     * The probe was cancelled before a result, let the next request probe again
+     */
+    void onProbeCancelled() {
+        synchronized (this) {
+            if (!setState(State.OPEN)) {
+                return;
+            }
+        }
+        notifyStateChanged(State.OPEN);
+    }
+
+    // Monotonic milliseconds, a clock change does not shorten or stretch the open duration
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    // Return whether the state changed
+    private boolean setState(State state) {
+        if (mState == state) {
+            return false;
+        }
+        mState = state;
+        return true;
+    }
+
+    private void notifyStateChanged(State state) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        mHandler.post(() -> {
+            for (OnStateChangedListener listener : mListeners) {
+                listener.onStateChanged(state);
+            }
+        });
+    }
+}
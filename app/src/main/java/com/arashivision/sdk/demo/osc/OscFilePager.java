@@ -0,0 +1,86 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.decoder.OscFileEntry;
+import com.arashivision.sdk.demo.osc.decoder.OscListFilesDecoder;
+import com.arashivision.sdk.demo.osc.decoder.OscResponse;
+import com.arashivision.sdk.demo.osc.delegate.IOscRequestDelegate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iterate over the camera files page by page with the "startPosition" and "entryCount" of camera.listFiles.
+ * Each page is decoded from the response stream.
+ */
+class OscFilePager {
+
+    private final IOscRequestDelegate mDelegate;
+    private final String mUrl;
+    private final Map<String, String> mHeaderMap;
+    private final String mFileType;
+    private final int mPageSize;
+
+    private int mPosition;
+    private int mTotalEntries = -1;
+    private boolean mFinished;
+
+    OscFilePager(IOscRequestDelegate delegate, String url, Map<String, String> headerMap, String fileType, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        mDelegate = delegate;
+        mUrl = url;
+        mHeaderMap = headerMap;
+        mFileType = fileType;
+        mPageSize = pageSize;
+    }
+
+    boolean hasNextPage() {
+        return !mFinished;
+    }
+
+    /**
+     * Position of the first entry of the next page
+     */
+    int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return "totalEntries" of the last page, -1 if unknown
+     */
+    int getTotalEntries() {
+        return mTotalEntries;
+    }
+
+    /**
+     * @return entries of the next page, empty if there are no more entries
+     * @throws IOException if the request failed or the camera returned an error
+     */
+    List<OscFileEntry> nextPage() throws IOException {
+        if (mFinished) {
+            return new ArrayList<>();
+        }
+        List<OscFileEntry> entries = new ArrayList<>(mPageSize);
+        OscResponse response;
+        try (Reader body = mDelegate.openRequestByPost(mUrl, OscCommand.listFiles(mFileType, mPosition, mPageSize), mHeaderMap)) {
+            response = OscListFilesDecoder.decode(body, entries::add);
+        }
+        if (!response.isDone()) {
+            String error = response.formatError();
+            throw new IOException(error.isEmpty() ? "camera.listFiles failed, state " + response.getState() : error);
+        }
+        mPosition += entries.size();
+        mTotalEntries = response.getTotalEntries();
+        // A short page is the last one
+        if (entries.size() < mPageSize || (mTotalEntries >= 0 && mPosition >= mTotalEntries)) {
+            mFinished = true;
+        }
+        return entries;
+    }
+
+}
@@ -1,20 +1,30 @@
 package com.arashivision.sdk.demo.osc;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.text.TextUtils;
 
 import com.arashivision.sdk.demo.model.CaptureExposureData;
 import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.callback.IOscListFilesCallback;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.command.OscOptions;
+import com.arashivision.sdk.demo.osc.decoder.OscFileEntry;
+import com.arashivision.sdk.demo.osc.decoder.OscResponse;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
 import com.arashivision.sdk.demo.osc.delegate.IOscRequestDelegate;
+import com.arashivision.sdk.demo.osc.executor.OscLaneExecutor;
+import com.arashivision.sdk.demo.osc.metrics.OscMetrics;
 import com.arashivision.sdkcamera.camera.InstaCameraManager;
 
 import org.json.JSONObject;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -25,62 +35,244 @@ public class OscManager {
         private static OscManager instance = new OscManager();
     }
 
-    private OscManager() {
-    }
-
     public static OscManager getInstance() {
         return OscManagerHolder.instance;
     }
 
-    // OSC command will return the states below
-    private static final String CMD_STATE_DONE = "done";
-    private static final String CMD_STATE_IN_PROGRESS = "inProgress";
-    private static final String CMD_STATE_ERROR = "error";
+    // Headers are the same for all requests, share one immutable map
+    private static final Map<String, String> HTTP_HEADERS;
 
-    private Handler mHandler = new Handler(Looper.getMainLooper());
-    private ExecutorService mRequestExecutor = Executors.newSingleThreadExecutor();
+    static {
+        Map<String, String> headerMap = new HashMap<>();
+        headerMap.put("Content-Type", "application/json; charset= utf-8");
+        headerMap.put("Accept", "application/json");
+        headerMap.put("X-XSRF-Protected", "1");
+        HTTP_HEADERS = Collections.unmodifiableMap(headerMap);
+    }
+
+    // The new files are usually found in the first pages
+    private static final int FILE_SIZES_PAGE_SIZE = 50;
+
+    private OscCallbackDispatcher mCallbackDispatcher = new OscCallbackDispatcher();
+    private OscLaneExecutor mRequestExecutor = new OscLaneExecutor();
     private IOscRequestDelegate mOscRequestDelegate;
+    private OscMetrics mMetrics = new OscMetrics();
+    private OscRetryPolicy mRetryPolicy = new OscRetryPolicy();
+    private OscCircuitBreaker mCircuitBreaker = new OscCircuitBreaker();
+    private OscStatusPoller mStatusPoller = new OscStatusPoller();
+    private OscOptionsBatcher mOptionsBatcher = new OscOptionsBatcher(mMetrics);
+    private ScheduledExecutorService mOptionsBatchScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "OscOptionsBatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long mOptionsBatchWindow;
+    private OscOptionsCache mOptionsCache = new OscOptionsCache();
+    private OscSingleFlight mSingleFlight = new OscSingleFlight();
+    private volatile long mRequestTimeout = 10_000;
+    private OscStateWatcher mStateWatcher = new OscStateWatcher(this::sendStateWatcherRequest, this::onStateFingerprint);
+
+    private OscManager() {
+        mStatusPoller.setOnStateFingerprintListener(this::onStateFingerprint);
+    }
 
     public void setOscRequestDelegate(@NonNull IOscRequestDelegate oscRequestDelegate) {
         mOscRequestDelegate = oscRequestDelegate;
     }
 
+    /**
+     * @param timeout Deadline in ms of each HTTP request, only works with IOscAsyncRequestDelegate. Default 10s
+     */
+    public void setRequestTimeout(long timeout) {
+        mRequestTimeout = timeout;
+    }
+
+    /**
+     * Poller used to wait for camera.takePicture results, could be tuned, e.g. enable "/osc/checkForUpdates"
+     */
+    @NonNull
+    public OscStatusPoller getStatusPoller() {
+        return mStatusPoller;
+    }
+
+    /**
+     * Get queue metrics of the lane, such as current queue depth and peak queue depth
+     *
+     * @param lane CAPTURE for commands with status polling, QUICK for state/info queries, FILE for file operations
+     */
+    @NonNull
+    public OscLaneExecutor.LaneStats getLaneStats(@NonNull OscLaneExecutor.Lane lane) {
+        return mRequestExecutor.getLaneStats(lane);
+    }
+
+    /**
+     * Queue size and rejection policy of the lane. DROP_OLDEST only drops the queued "/osc/info", "/osc/state" and
+     * camera.getOptions reads, e.g. for the QUICK lane if only the latest queries matter. Commands such as
+     * startRecord(), stopRecord() and setOptions() are never dropped
+     */
+    public void setLaneQueuePolicy(@NonNull OscLaneExecutor.Lane lane, int capacity, @NonNull OscLaneExecutor.RejectionPolicy policy) {
+        mRequestExecutor.setQueuePolicy(lane, capacity, policy);
+    }
+
+    /**
+     * Request count, latency, error and retry metrics of the OSC requests
+     */
+    @NonNull
+    public OscMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Retry of the requests which failed with a transient error, such as cameraInExclusiveUse
+     */
+    @NonNull
+    public OscRetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * Breaker which fails the requests fast while the camera is unreachable, listen to it to show the camera state
+     */
+    @NonNull
+    public OscCircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * One shared watcher of "/osc/state", subscribe to it instead of polling the state
+     */
+    @NonNull
+    public OscStateWatcher getStateWatcher() {
+        return mStateWatcher;
+    }
+
+    /**
+     * Coalescing of identical "/osc/info", "/osc/state" and camera.getOptions requests in flight,
+     * could be tuned, e.g. set a TTL to serve immediate repeats
+     */
+    @NonNull
+    public OscSingleFlight getSingleFlight() {
+        return mSingleFlight;
+    }
+
     /**
      * Use "/osc/commands/execute/camera.setOptions" to Set Options
+     * It runs in the QUICK lane, so it will not wait for a capture in progress.
+     * If options must be applied right before a capture, pass them to takePicture() or startRecord()
      *
      * @param options  OscOptions for parameter details
      * @param callback If successful, callback returns null
+     * @return handle to cancel the request
      */
-    public void setOptions(@NonNull String options, @Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle setOptions(@NonNull String options, @Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.QUICK, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
-                String cmd = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{" + options + "}}}";
-                OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                OscCommand cmd = OscCommand.setOptions(options);
+                mOptionsCache.invalidateAll();
+                OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                 if (oscResult.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                    if (CMD_STATE_DONE.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                    if (response.isDone()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onSuccessful(null));
+                            post(handle, callback, () -> callback.onSuccessful(null));
                         }
                     } else {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult.getResult())));
                         }
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult.getResult()));
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
+                }
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Use "/osc/commands/execute/camera.setOptions" to Set Options
+     * Each call is sent as its own request, unless a batch window is set (see setOptionsBatchWindow()):
+     * then the calls within it are merged into one request, if an option is set more than once, the last value wins
+     *
+     * @param options  Options to set
+     * @param callback If successful, callback returns null. If failed, the message ends with the options which were not set
+     * @return handle to cancel the request
+     */
+    @NonNull
+    public OscRequestHandle setOptions(@NonNull OscOptions options, @Nullable IOscCallback callback) {
+        return submitOptions(options.copy(), callback, false);
+    }
+
+    /**
+     * Collect option changes and send them as one camera.setOptions when committed
+     */
+    @NonNull
+    public OscOptionsTransaction beginOptionsTransaction() {
+        return new OscOptionsTransaction(this);
+    }
+
+    /**
+     * OSC does not define the order in which the options of one request are applied, so only merge
+     * the calls of callers whose options do not depend on each other, e.g. captureMode and iso do.
+     * The ONE X2 flows send their ordered setOptions themselves and are never merged.
+     *
+     * @param window Time in ms to wait for more setOptions(OscOptions) calls to merge, 0 to send each
+     *               call alone. Default 0, use an OscOptionsTransaction to send options together
+     */
+    public void setOptionsBatchWindow(long window) {
+        mOptionsBatchWindow = Math.max(0, window);
+    }
+
+    /**
+     * Cache of camera options, updated by getOptions()/setOptions() and cleared when the state fingerprint changes
+     */
+    @NonNull
+    public OscOptionsCache getOptionsCache() {
+        return mOptionsCache;
+    }
+
+    /**
+     * Use "/osc/commands/execute/camera.getOptions" to Get Options
+     * Only the options which are not cached or expired are requested from the camera
+     * Identical requests in flight share one call
+     *
+     * @param optionNames Names of the options
+     * @param callback    If successful, callback returns OscOptions
+     * @return handle to cancel the request
+     */
+    @NonNull
+    public OscRequestHandle getOptions(@NonNull String[] optionNames, @Nullable IOscCallback callback) {
+        String key = OscCommand.GET_OPTIONS + Arrays.toString(optionNames);
+        return executeShared(OscLaneExecutor.Lane.QUICK, key, false, callback, delegate -> {
+            OscOptions result = mOptionsCache.get(optionNames);
+            String[] missing = mOptionsCache.getMissing(optionNames);
+            if (missing.length > 0) {
+                OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), OscCommand.getOptions(missing), getHttpHeaders());
+                if (!oscResult.isSuccessful()) {
+                    return OscSingleFlight.Outcome.error(oscResult.getResult());
+                }
+                JSONObject jsonObject = new JSONObject(oscResult.getResult());
+                if (OscResponse.STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    return OscSingleFlight.Outcome.error(getErrorMessage(oscResult.getResult()));
                 }
+                JSONObject options = jsonObject.getJSONObject("results").getJSONObject("options");
+                mOptionsCache.putAll(options);
+                result.putAll(OscOptionsCache.toOscOptions(options));
             }
+            return OscSingleFlight.Outcome.success(result.subset(Arrays.asList(optionNames)));
         });
     }
 
@@ -92,99 +284,90 @@ public class OscManager {
      * @param options  Set the Options first, and then take a photo automatically.
      *                 If the current CaptureMode is image, select it, otherwise it is required
      * @param callback If successful, callback returns file address (String[] urls), could be downloaded to local
+     * @return handle to cancel the request
      */
-    public void takePicture(@Nullable String options, @Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle takePicture(@Nullable String options, @Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.CAPTURE, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
                 // SetOptions
                 if (options != null) {
-                    String cmd = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{" + options + "}}}";
-                    OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                    OscCommand cmd = OscCommand.setOptions(options);
+                    mOptionsCache.invalidateAll();
+                    OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                     if (oscResult.isSuccessful()) {
-                        JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                        if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                        OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                        if (response.isError()) {
                             if (callback != null) {
-                                mHandler.post(() -> callback.onError(getErrorMessage(oscResult.getResult())));
+                                post(handle, callback, () -> callback.onError(getErrorMessage(oscResult.getResult())));
                             }
                             return;
                         }
                     } else {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(oscResult.getResult()));
+                            post(handle, callback, () -> callback.onError(oscResult.getResult()));
                         }
                         return;
                     }
                 }
                 // TakePicture
                 String cmdId;
-                String cmd = "{\"name\":\"camera.takePicture\"}";
-                OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                OscCommand cmd = OscCommand.execute(OscCommand.TAKE_PICTURE);
+                OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                 if (oscResult.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                    if (CMD_STATE_IN_PROGRESS.equals(jsonObject.getString("state"))) {
-                        cmdId = jsonObject.getString("id");
+                    OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                    if (response.isInProgress()) {
+                        cmdId = response.getId();
                     } else {
                         if (callback != null) {
                             String errorMsg = getErrorMessage(oscResult.getResult());
-                            mHandler.post(() -> callback.onError(errorMsg));
+                            post(handle, callback, () -> callback.onError(errorMsg));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
                         String errorMsg = oscResult.getResult();
-                        mHandler.post(() -> callback.onError(errorMsg));
+                        post(handle, callback, () -> callback.onError(errorMsg));
                     }
                     return;
                 }
                 // QueryResult
                 if (!TextUtils.isEmpty(cmdId)) {
-                    cmd = "{\"id\":\"" + cmdId + "\"}";
-                    for (int i = 0; i < 60; i++) {
-                        oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdStatusUrl(), cmd, getHttpHeaders());
-                        if (oscResult.isSuccessful()) {
-                            JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                            if (CMD_STATE_DONE.equals(jsonObject.getString("state"))) {
-                                if (callback != null) {
-                                    // parse file address from result
-                                    JSONObject results = jsonObject.getJSONObject("results");
-                                    String path = null;
-                                    if (results.has("_fileGroup")) {
-                                        path = results.getString("_fileGroup");
-                                    }
-                                    if (TextUtils.isEmpty(path) || path.equals("[]")) {
-                                        path = results.getString("fileUrl");
-                                    }
-                                    path = path.replaceAll("\\[", "").replaceAll("]", "").replaceAll("\\\\/", "/");
-                                    String[] paths = path.split(",");
-                                    for (int j = 0; j < paths.length; j++) {
-                                        paths[j] = paths[j].replaceAll("\"", "");
-                                    }
-                                    mHandler.post(() -> callback.onSuccessful(paths));
-                                }
-                                return;
+                    OSCResult statusResult = mStatusPoller.poll(delegate, "camera.takePicture", cmdId,
+                            getOscCmdStatusUrl(), getOscCheckForUpdatesUrl(), getHttpHeaders());
+                    if (statusResult != null) {
+                        OscResponse response = OscResponseDecoder.decode(statusResult.getResult());
+                        if (response.isDone()) {
+                            if (callback != null) {
+                                // parse file address from result
+                                String[] paths = response.getPictureUrls();
+                                post(handle, callback, () -> callback.onSuccessful(paths));
+                            }
+                        } else {
+                            if (callback != null) {
+                                post(handle, callback, () -> callback.onError(getErrorMessage(statusResult.getResult())));
                             }
                         }
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException exception) {
-                            exception.printStackTrace();
+                    } else {
+                        if (callback != null) {
+                            post(handle, callback, () -> callback.onError("Timeout. Please use command \"listFiles\" to get."));
                         }
                     }
-                    if (callback != null) {
-                        mHandler.post(() -> callback.onError("Timeout. Please use command \"listFiles\" to get."));
-                    }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
     }
 
     /**
@@ -194,208 +377,345 @@ public class OscManager {
      * @param options  Set the Options first, and then take a photo automatically.
      *                 If the current CaptureMode is video, select it, otherwise it is required
      * @param callback If successful, callback returns null
+     * @return handle to cancel the request
      */
-    public void startRecord(@Nullable String options, @Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle startRecord(@Nullable String options, @Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.QUICK, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
                 // SetOptions
                 if (options != null) {
-                    String cmd = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{" + options + "}}}";
-                    OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                    OscCommand cmd = OscCommand.setOptions(options);
+                    mOptionsCache.invalidateAll();
+                    OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                     if (oscResult.isSuccessful()) {
-                        JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                        if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                        OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                        if (response.isError()) {
                             if (callback != null) {
-                                mHandler.post(() -> callback.onError(getErrorMessage(oscResult.getResult())));
+                                post(handle, callback, () -> callback.onError(getErrorMessage(oscResult.getResult())));
                             }
                             return;
                         }
                     } else {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(oscResult.getResult()));
+                            post(handle, callback, () -> callback.onError(oscResult.getResult()));
                         }
                         return;
                     }
                 }
                 // StartCapture
-                String cmd = "{\"name\":\"camera.startCapture\"}";
-                OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                OscCommand cmd = OscCommand.execute(OscCommand.START_CAPTURE);
+                OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                 if (oscResult.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                    if (CMD_STATE_DONE.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                    if (response.isDone()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onSuccessful(null));
+                            post(handle, callback, () -> callback.onSuccessful(null));
                         }
                     } else {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult.getResult())));
                         }
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult.getResult()));
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
     }
 
     /**
      * Use "/osc/commands/execute/camera.stopCapture" to stop record
      *
      * @param callback If successful, callback returns file address (String[] urls), could be downloaded to local
+     * @return handle to cancel the request
      */
-    public void stopRecord(@Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle stopRecord(@Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.QUICK, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
-                String cmd = "{\"name\":\"camera.stopCapture\"}";
-                OSCResult oscResult = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
+                OscCommand cmd = OscCommand.execute(OscCommand.STOP_CAPTURE);
+                OSCResult oscResult = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd, getHttpHeaders());
                 if (oscResult.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult.getResult());
-                    if (CMD_STATE_DONE.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                    if (response.isDone()) {
                         if (callback != null) {
                             // parse file address from result
-                            JSONObject results = jsonObject.getJSONObject("results");
-                            String path = results.getString("fileUrls");
-                            path = path.replaceAll("\\[", "").replaceAll("]", "").replaceAll("\\\\/", "/");
-                            String[] paths = path.split(",");
-                            for (int i = 0; i < paths.length; i++) {
-                                paths[i] = paths[i].replaceAll("\"", "");
-                            }
+                            String[] paths = response.getRecordUrls();
                             if (paths.length == 2 && paths[1].contains("_00_") && paths[0].contains("_10_")) {
                                 String tmp = paths[0];
                                 paths[0] = paths[1];
                                 paths[1] = tmp;
                             }
-                            mHandler.post(() -> callback.onSuccessful(paths));
+                            post(handle, callback, () -> callback.onSuccessful(paths));
                         }
                     } else {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult.getResult())));
                         }
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult.getResult()));
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
+    }
+
+    /**
+     * Use "/osc/commands/execute/camera.listFiles" to list the files page by page
+     * It runs in the FILE lane. Each page is decoded from the response stream and delivered
+     * before the next page is requested, so the first page could be shown while the rest are loading.
+     *
+     * @param fileType "all", "image" or "video"
+     * @param pageSize Number of entries of each page, such as 50
+     * @param callback onPage() for each page, then onSuccessful() returns the number of entries
+     * @return handle to cancel the request
+     */
+    @NonNull
+    public OscRequestHandle listFiles(@NonNull String fileType, int pageSize, @Nullable IOscListFilesCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.FILE, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
+            try {
+                if (callback != null) {
+                    post(handle, callback, callback::onStartRequest);
+                }
+                OscFilePager pager = new OscFilePager(delegate, getOscCmdExecuteUrl(), getHttpHeaders(), fileType, pageSize);
+                while (pager.hasNextPage()) {
+                    int startPosition = pager.getPosition();
+                    List<OscFileEntry> entries = pager.nextPage();
+                    int totalEntries = pager.getTotalEntries();
+                    if (callback != null && !entries.isEmpty()) {
+                        post(handle, callback, () -> callback.onPage(entries, startPosition, totalEntries));
+                    }
+                }
+                int count = pager.getPosition();
+                if (callback != null) {
+                    post(handle, callback, () -> callback.onSuccessful(count));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (callback != null) {
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
+                }
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Sizes of camera files from "/osc/commands/execute/camera.listFiles", e.g. to verify their downloads
+     * It runs in the FILE lane, and stops requesting pages once all the files are found.
+     *
+     * @param fileUrls Files returned by takePicture() or stopRecord(), matched by file name
+     * @param callback onSuccessful() returns the sizes (long[]) in the order of fileUrls, -1 if not listed
+     * @return handle to cancel the request
+     */
+    @NonNull
+    public OscRequestHandle getFileSizes(@NonNull String[] fileUrls, @Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.FILE, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
+            try {
+                if (callback != null) {
+                    post(handle, callback, callback::onStartRequest);
+                }
+                long[] sizes = new long[fileUrls.length];
+                Arrays.fill(sizes, -1);
+                int found = 0;
+                OscFilePager pager = new OscFilePager(delegate, getOscCmdExecuteUrl(), getHttpHeaders(), "all", FILE_SIZES_PAGE_SIZE);
+                while (found < fileUrls.length && pager.hasNextPage()) {
+                    for (OscFileEntry entry : pager.nextPage()) {
+                        if (entry.getFileUrl() == null) {
+                            continue;
+                        }
+                        String name = getFileName(entry.getFileUrl());
+                        for (int i = 0; i < fileUrls.length; i++) {
+                            if (sizes[i] < 0 && name.equals(getFileName(fileUrls[i]))) {
+                                sizes[i] = entry.getSize();
+                                found++;
+                            }
+                        }
+                    }
+                }
+                if (callback != null) {
+                    post(handle, callback, () -> callback.onSuccessful(sizes));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (callback != null) {
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
+                }
+            }
+        });
+        return handle;
+    }
+
+    private static String getFileName(String fileUrl) {
+        return fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
     }
 
     /**
      * Generic OSC request
      * You can also encapsulate other request interfaces yourself
+     * Identical "/osc/info", "/osc/state" and camera.getOptions requests in flight share one call, see getSingleFlight()
      *
      * @param oscApi   OscApi, such as /osc/info, /osc/state
      * @param content  Content of RequestBody. If it is null, use GET request, otherwise use POST request
      * @param callback callback the original content returned by OSC
+     * @return handle to cancel the request
      */
-    public void customRequest(@NonNull String oscApi, @Nullable String content, @Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle customRequest(@NonNull String oscApi, @Nullable String content, @Nullable IOscCallback callback) {
+        if (isIdempotentRead(oscApi, content)) {
+            // Identical reads in flight share one call
+            boolean keepResult = !oscApi.endsWith("/osc/commands/execute");
+            return executeShared(OscLaneExecutor.Lane.QUICK, oscApi + "\n" + content, keepResult, callback, delegate -> {
+                OSCResult oscResult;
+                if (content == null) {
+                    oscResult = delegate.sendRequestByGet(getOscUrl(oscApi), getHttpHeaders());
+                } else {
+                    oscResult = delegate.sendRequestByPost(getOscUrl(oscApi), content, getHttpHeaders());
+                }
+                if (!oscResult.isSuccessful()) {
+                    return OscSingleFlight.Outcome.error(oscResult.getResult());
+                }
+                updateOptionsCache(oscApi, content, oscResult.getResult());
+                return OscSingleFlight.Outcome.success(oscResult.getResult());
+            });
+        }
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(getLaneForOscApi(oscApi, content), handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
                 OSCResult oscResult;
                 if (content == null) {
-                    oscResult = mOscRequestDelegate.sendRequestByGet(getOscUrl(oscApi), getHttpHeaders());
+                    oscResult = delegate.sendRequestByGet(getOscUrl(oscApi), getHttpHeaders());
                 } else {
-                    oscResult = mOscRequestDelegate.sendRequestByPost(getOscUrl(oscApi), content, getHttpHeaders());
+                    oscResult = delegate.sendRequestByPost(getOscUrl(oscApi), content, getHttpHeaders());
                 }
                 if (oscResult.isSuccessful()) {
+                    updateOptionsCache(oscApi, content, oscResult.getResult());
                     if (callback != null) {
-                        mHandler.post(() -> callback.onSuccessful(oscResult.getResult()));
+                        post(handle, callback, () -> callback.onSuccessful(oscResult.getResult()));
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult.getResult()));
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
     }
 
     /**
      * Just a product demand for ONE X2
      *
      * @param callback
+     * @return handle to cancel the request
      */
-    public void getCaptureExposureParamsForX2(@Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle getCaptureExposureParamsForX2(@Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.QUICK, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
+                // 镜头与模式切换、曝光计算分两次setOptions按顺序发送，OSC未规定同一请求内选项的生效顺序
+                // The sensor switch and the exposure calculation are sent as ordered setOptions calls, OSC does not
+                // define the order the options of one request are applied in. They are never merged by the batcher
                 // 进拍照模式并切到全景镜头
-                String cmd1 = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{\"hdr\":\"off\",\"captureMode\":\"image\",\"_FocusSensor\":3,\"_MultiVideoMode\":\"all\"}}}";
-                OSCResult oscResult1 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd1, getHttpHeaders());
+                OscOptions panoOptions = new OscOptions()
+                        .put("hdr", "off")
+                        .put("captureMode", "image")
+                        .put("_FocusSensor", 3)
+                        .put("_MultiVideoMode", "all");
+                OSCResult oscResult1 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), OscCommand.setOptions(panoOptions), getHttpHeaders());
                 if (oscResult1.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult1.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult1.getResult());
+                    if (response.isError()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult1.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult1.getResult())));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult1.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult1.getResult()));
                     }
                     return;
                 }
+                mOptionsCache.putAll(panoOptions);
                 // 打开still参数计算的接口
-                String cmd2 = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{\"_StillExpoCalc\":1}}}";
-                OSCResult oscResult2 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd2, getHttpHeaders());
+                OscOptions stillExpoCalcOn = new OscOptions().put("_StillExpoCalc", 1);
+                OSCResult oscResult2 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), OscCommand.setOptions(stillExpoCalcOn), getHttpHeaders());
                 if (oscResult2.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult2.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult2.getResult());
+                    if (response.isError()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult2.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult2.getResult())));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult2.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult2.getResult()));
                     }
                     return;
                 }
+                mOptionsCache.putAll(stillExpoCalcOn);
                 // 获取3a信息
                 CaptureExposureData exposureData = new CaptureExposureData();
-                String cmd3 = "{\"name\":\"camera.getOptions\",\"parameters\":{\"optionNames\":[\"exposureProgram\",\"iso\",\"shutterSpeed\",\"whiteBalance\",\"_WbRGain\",\"_WbBGain\"]}}";
-                OSCResult oscResult3 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd3, getHttpHeaders());
+                OscCommand cmd3 = OscCommand.getOptions("exposureProgram", "iso", "shutterSpeed", "whiteBalance", "_WbRGain", "_WbBGain");
+                OSCResult oscResult3 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd3, getHttpHeaders());
                 if (oscResult3.isSuccessful()) {
                     JSONObject jsonObject = new JSONObject(oscResult3.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    if (OscResponse.STATE_ERROR.equals(jsonObject.getString("state"))) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult3.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult3.getResult())));
                         }
                         return;
                     } else {
                         JSONObject results = jsonObject.getJSONObject("results");
                         JSONObject options = results.getJSONObject("options");
+                        mOptionsCache.putAll(options);
                         exposureData.exposureProgram = options.getInt("exposureProgram");
                         exposureData.iso = options.getInt("iso");
                         exposureData.shutterSpeed = options.getDouble("shutterSpeed");
@@ -405,156 +725,383 @@ public class OscManager {
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult3.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult3.getResult()));
                     }
                     return;
                 }
                 // 关闭still参数计算的接口
-                String cmd4 = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{\"_StillExpoCalc\":0}}}";
-                OSCResult oscResult4 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd4, getHttpHeaders());
+                OscOptions stillExpoCalcOff = new OscOptions().put("_StillExpoCalc", 0);
+                OscCommand cmd4 = OscCommand.setOptions(stillExpoCalcOff);
+                OSCResult oscResult4 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd4, getHttpHeaders());
                 if (oscResult4.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult4.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult4.getResult());
+                    if (response.isError()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult4.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult4.getResult())));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult4.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult4.getResult()));
                     }
                     return;
                 }
+                mOptionsCache.putAll(stillExpoCalcOff);
                 // 返回值
                 if (callback != null) {
-                    mHandler.post(() -> callback.onSuccessful(exposureData));
+                    post(handle, callback, () -> callback.onSuccessful(exposureData));
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
     }
 
     /**
      * Just a product demand for ONE X2
      *
      * @param callback
+     * @return handle to cancel the request
      */
-    public void takeSingleSensorPictureForX2(int sensor, @NonNull CaptureExposureData exposureData, @Nullable IOscCallback callback) {
-        mRequestExecutor.execute(() -> {
+    @NonNull
+    public OscRequestHandle takeSingleSensorPictureForX2(int sensor, @NonNull CaptureExposureData exposureData, @Nullable IOscCallback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        execute(OscLaneExecutor.Lane.CAPTURE, handle, callback, () -> {
+            IOscRequestDelegate delegate = newRequestDelegate(handle);
             try {
                 if (callback != null) {
-                    mHandler.post(callback::onStartRequest);
+                    post(handle, callback, callback::onStartRequest);
                 }
+                // 镜头切换与3a信息分两次setOptions按顺序发送，手动曝光需在切换镜头后生效
+                // The sensor switch and the exposure params are sent as ordered setOptions calls, so the manual
+                // exposure applies after the sensor switch. They are never merged by the batcher
                 // 进拍照模式并切到单广角镜头
                 String multiVideoMode = sensor == 1 ? "front" : "rear";
-                String cmd1 = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{\"hdr\":\"off\",\"captureMode\":\"image\",\"_FocusSensor\":" + sensor + ",\"_MultiVideoMode\":\"" + multiVideoMode + "\"}}}";
-                OSCResult oscResult1 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd1, getHttpHeaders());
+                OscOptions sensorOptions = new OscOptions()
+                        .put("hdr", "off")
+                        .put("captureMode", "image")
+                        .put("_FocusSensor", sensor)
+                        .put("_MultiVideoMode", multiVideoMode);
+                OSCResult oscResult1 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), OscCommand.setOptions(sensorOptions), getHttpHeaders());
                 if (oscResult1.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult1.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult1.getResult());
+                    if (response.isError()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult1.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult1.getResult())));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult1.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult1.getResult()));
                     }
                     return;
                 }
+                mOptionsCache.putAll(sensorOptions);
                 // 设置3a信息
-                String cmd2 = "{\"name\":\"camera.setOptions\",\"parameters\":{\"options\":{\"exposureProgram\":"
-                        + exposureData.exposureProgram + ",\"iso\":" + exposureData.iso + ",\"shutterSpeed\":"
-                        + exposureData.shutterSpeed + ",\"whiteBalance\":\"" + exposureData.whiteBalance + "\",\"_WbRGain\":"
-                        + exposureData._WbRGain + ",\"_WbBGain\":" + exposureData._WbBGain + "}}}";
-                OSCResult oscResult2 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd2, getHttpHeaders());
+                OscOptions exposureOptions = new OscOptions()
+                        .put("exposureProgram", exposureData.exposureProgram)
+                        .put("iso", exposureData.iso)
+                        .put("shutterSpeed", exposureData.shutterSpeed)
+                        .put("whiteBalance", exposureData.whiteBalance)
+                        .put("_WbRGain", exposureData._WbRGain)
+                        .put("_WbBGain", exposureData._WbBGain);
+                OSCResult oscResult2 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), OscCommand.setOptions(exposureOptions), getHttpHeaders());
                 if (oscResult2.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult2.getResult());
-                    if (CMD_STATE_ERROR.equals(jsonObject.getString("state"))) {
+                    OscResponse response = OscResponseDecoder.decode(oscResult2.getResult());
+                    if (response.isError()) {
                         if (callback != null) {
-                            mHandler.post(() -> callback.onError(getErrorMessage(oscResult2.getResult())));
+                            post(handle, callback, () -> callback.onError(getErrorMessage(oscResult2.getResult())));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
-                        mHandler.post(() -> callback.onError(oscResult2.getResult()));
+                        post(handle, callback, () -> callback.onError(oscResult2.getResult()));
                     }
                     return;
                 }
+                mOptionsCache.putAll(exposureOptions);
                 // TakePicture
                 String cmdId;
-                String cmd3 = "{\"name\":\"camera.takePicture\"}";
-                OSCResult oscResult3 = mOscRequestDelegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd3, getHttpHeaders());
+                OscCommand cmd3 = OscCommand.execute(OscCommand.TAKE_PICTURE);
+                OSCResult oscResult3 = delegate.sendRequestByPost(getOscCmdExecuteUrl(), cmd3, getHttpHeaders());
                 if (oscResult3.isSuccessful()) {
-                    JSONObject jsonObject = new JSONObject(oscResult3.getResult());
-                    if (CMD_STATE_IN_PROGRESS.equals(jsonObject.getString("state"))) {
-                        cmdId = jsonObject.getString("id");
+                    OscResponse response = OscResponseDecoder.decode(oscResult3.getResult());
+                    if (response.isInProgress()) {
+                        cmdId = response.getId();
                     } else {
                         if (callback != null) {
                             String errorMsg = getErrorMessage(oscResult3.getResult());
-                            mHandler.post(() -> callback.onError(errorMsg));
+                            post(handle, callback, () -> callback.onError(errorMsg));
                         }
                         return;
                     }
                 } else {
                     if (callback != null) {
                         String errorMsg = oscResult3.getResult();
-                        mHandler.post(() -> callback.onError(errorMsg));
+                        post(handle, callback, () -> callback.onError(errorMsg));
                     }
                     return;
                 }
                 // QueryResult
                 if (!TextUtils.isEmpty(cmdId)) {
-                    cmd3 = "{\"id\":\"" + cmdId + "\"}";
-                    for (int i = 0; i < 60; i++) {
-                        oscResult3 = mOscRequestDelegate.sendRequestByPost(getOscCmdStatusUrl(), cmd3, getHttpHeaders());
-                        if (oscResult3.isSuccessful()) {
-                            JSONObject jsonObject = new JSONObject(oscResult3.getResult());
-                            if (CMD_STATE_DONE.equals(jsonObject.getString("state"))) {
-                                if (callback != null) {
-                                    // parse file address from result
-                                    JSONObject results = jsonObject.getJSONObject("results");
-                                    String path = null;
-                                    if (results.has("_fileGroup")) {
-                                        path = results.getString("_fileGroup");
-                                    }
-                                    if (TextUtils.isEmpty(path) || path.equals("[]")) {
-                                        path = results.getString("fileUrl");
-                                    }
-                                    path = path.replaceAll("\\[", "").replaceAll("]", "").replaceAll("\\\\/", "/");
-                                    String[] paths = path.split(",");
-                                    for (int j = 0; j < paths.length; j++) {
-                                        paths[j] = paths[j].replaceAll("\"", "");
-                                    }
-                                    mHandler.post(() -> callback.onSuccessful(paths));
-                                }
-                                return;
+                    OSCResult statusResult = mStatusPoller.poll(delegate, "camera.takePicture", cmdId,
+                            getOscCmdStatusUrl(), getOscCheckForUpdatesUrl(), getHttpHeaders());
+                    if (statusResult != null) {
+                        OscResponse response = OscResponseDecoder.decode(statusResult.getResult());
+                        if (response.isDone()) {
+                            if (callback != null) {
+                                // parse file address from result
+                                String[] paths = response.getPictureUrls();
+                                post(handle, callback, () -> callback.onSuccessful(paths));
+                            }
+                        } else {
+                            if (callback != null) {
+                                post(handle, callback, () -> callback.onError(getErrorMessage(statusResult.getResult())));
                             }
                         }
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException exception) {
-                            exception.printStackTrace();
+                    } else {
+                        if (callback != null) {
+                            post(handle, callback, () -> callback.onError("Timeout. Please use command \"listFiles\" to get."));
                         }
                     }
-                    if (callback != null) {
-                        mHandler.post(() -> callback.onError("Timeout. Please use command \"listFiles\" to get."));
-                    }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 if (callback != null) {
-                    mHandler.post(() -> callback.onError(e.getMessage()));
+                    post(handle, callback, () -> callback.onError(e.getMessage()));
                 }
             }
         });
+        return handle;
+    }
+
+    void onStateFingerprint(String stateFingerprint) {
+        mOptionsCache.onStateFingerprint(stateFingerprint);
+    }
+
+    private IOscRequestDelegate newRequestDelegate(OscRequestHandle handle) {
+        return new CancellableRequestDelegate(mOscRequestDelegate, handle, mRequestTimeout, mMetrics, mRetryPolicy, mCircuitBreaker);
+    }
+
+    // Commands of the shot sequencer, sent from its own thread at the scheduled time
+    OSCResult sendCommand(OscRequestHandle handle, OscCommand command) {
+        if (OscCommand.SET_OPTIONS.equals(command.getName())) {
+            mOptionsCache.invalidateAll();
+        }
+        return newRequestDelegate(handle).sendRequestByPost(getOscCmdExecuteUrl(), command, getHttpHeaders());
+    }
+
+    // Status polling of the shot sequencer, null if timeout
+    OSCResult pollStatus(OscRequestHandle handle, String commandName, String commandId) throws InterruptedException {
+        return mStatusPoller.poll(newRequestDelegate(handle), commandName, commandId,
+                getOscCmdStatusUrl(), getOscCheckForUpdatesUrl(), getHttpHeaders());
+    }
+
+    // Requests of the state watcher, sent from its own thread
+    private OSCResult sendStateWatcherRequest(OscRequestHandle handle, String oscApi, String content) {
+        IOscRequestDelegate delegate = newRequestDelegate(handle);
+        return delegate.sendRequestByPost(getOscUrl(oscApi), content, getHttpHeaders());
+    }
+
+    // Keep the options cache in sync with the custom requests which could change or report options
+    private void updateOptionsCache(String oscApi, String content, String result) {
+        if (oscApi.endsWith("/osc/state") || oscApi.endsWith("/osc/checkForUpdates")) {
+            try {
+                onStateFingerprint(OscResponseDecoder.decode(result).getStateFingerprint());
+            } catch (Exception ignore) {
+            }
+        } else if (content != null && content.contains("\"" + OscCommand.SET_OPTIONS + "\"")) {
+            mOptionsCache.invalidateAll();
+        }
+    }
+
+    OscRequestHandle submitOptions(OscOptions options, IOscCallback callback, boolean flushNow) {
+        OscRequestHandle handle = new OscRequestHandle();
+        if (mOptionsBatchWindow == 0) {
+            // Not merged with the options of other callers
+            submitOptionsFlush(Collections.singletonList(new OscOptionsBatcher.Request(options, callback, handle)));
+            return handle;
+        }
+        boolean firstOfBatch = mOptionsBatcher.add(options, callback, handle);
+        if (flushNow) {
+            submitOptionsFlush(null);
+        } else if (firstOfBatch) {
+            mOptionsBatchScheduler.schedule(() -> submitOptionsFlush(null), mOptionsBatchWindow, TimeUnit.MILLISECONDS);
+        }
+        return handle;
+    }
+
+    /**
+     * @param requests Requests to send together, null for the pending requests of the batcher
+     */
+    private void submitOptionsFlush(@Nullable List<OscOptionsBatcher.Request> requests) {
+        if (!mRequestExecutor.execute(OscLaneExecutor.Lane.QUICK, () -> flushOptions(takeOptions(requests)))) {
+            failOptions(takeOptions(requests), "Too many pending requests in lane " + OscLaneExecutor.Lane.QUICK + ".");
+        }
+    }
+
+    // The cancelled requests are dropped
+    private List<OscOptionsBatcher.Request> takeOptions(@Nullable List<OscOptionsBatcher.Request> requests) {
+        return requests == null ? mOptionsBatcher.drain() : OscOptionsBatcher.dropCancelled(requests);
+    }
+
+    private void failOptions(List<OscOptionsBatcher.Request> batch, String message) {
+        for (OscOptionsBatcher.Request request : batch) {
+            if (request.callback != null) {
+                post(request.handle, request.callback, () -> request.callback.onError(message));
+            }
+            request.handle.markDone();
+        }
+    }
+
+    private void flushOptions(List<OscOptionsBatcher.Request> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (OscOptionsBatcher.Request request : batch) {
+            if (request.callback != null) {
+                post(request.handle, request.callback, request.callback::onStartRequest);
+            }
+        }
+        // The merged request is shared by the batch, so cancelling one request only drops its callback
+        IOscRequestDelegate delegate = newRequestDelegate(new OscRequestHandle());
+        try {
+            List<OscOptionsBatcher.Outcome> outcomes = mOptionsBatcher.send(batch,
+                    command -> delegate.sendRequestByPost(getOscCmdExecuteUrl(), command, getHttpHeaders()));
+            for (OscOptionsBatcher.Outcome outcome : outcomes) {
+                if (outcome.appliedOptions != null) {
+                    mOptionsCache.putAll(outcome.appliedOptions);
+                }
+                if (outcome.callback == null) {
+                    continue;
+                }
+                if (outcome.errorMessage == null) {
+                    post(outcome.handle, outcome.callback, () -> outcome.callback.onSuccessful(null));
+                } else {
+                    post(outcome.handle, outcome.callback, () -> outcome.callback.onError(outcome.errorMessage));
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (OscOptionsBatcher.Request request : batch) {
+                if (request.callback != null) {
+                    post(request.handle, request.callback, () -> request.callback.onError(e.getMessage()));
+                }
+            }
+        } finally {
+            for (OscOptionsBatcher.Request request : batch) {
+                request.handle.markDone();
+            }
+        }
+    }
+
+    // Never dropped by DROP_OLDEST, the commands may change the camera
+    private void execute(OscLaneExecutor.Lane lane, OscRequestHandle handle, @Nullable IOscCallback callback, Runnable task) {
+        if (!mRequestExecutor.execute(lane, () -> handle.run(task))) {
+            handle.markDone();
+            if (callback != null) {
+                post(handle, callback, () -> callback.onError("Too many pending requests in lane " + lane + "."));
+            }
+        }
+    }
+
+
+    // Run the call once for all requests of the key in flight, or serve the result kept within the TTL
+    private OscRequestHandle executeShared(OscLaneExecutor.Lane lane, String key, boolean keepResult,
+                                           @Nullable IOscCallback callback, OscSingleFlight.Call call) {
+        OscRequestHandle handle = new OscRequestHandle();
+        if (keepResult) {
+            OscSingleFlight.Outcome fresh = mSingleFlight.getFresh(key);
+            if (fresh != null) {
+                handle.markDone();
+                if (callback != null) {
+                    post(handle, callback, callback::onStartRequest);
+                    deliver(handle, callback, fresh);
+                }
+                return handle;
+            }
+        }
+        OscSingleFlight.Flight flight = mSingleFlight.join(key, keepResult, handle, callback);
+        if (callback != null) {
+            post(handle, callback, callback::onStartRequest);
+        }
+        if (flight == null) {
+            return handle;
+        }
+        OscRequestHandle shared = flight.getHandle();
+        // Idempotent reads, the only requests DROP_OLDEST could drop
+        Runnable onDropped = () -> {
+            shared.markDone();
+            completeShared(flight, OscSingleFlight.Outcome.error("Dropped for a newer request in lane " + lane + "."));
+        };
+        boolean accepted = mRequestExecutor.execute(lane, () -> shared.run(() -> {
+            IOscRequestDelegate delegate = newRequestDelegate(shared);
+            OscSingleFlight.Outcome outcome;
+            try {
+                outcome = call.call(delegate);
+            } catch (Exception e) {
+                e.printStackTrace();
+                outcome = OscSingleFlight.Outcome.error(e.getMessage());
+            }
+            completeShared(flight, outcome);
+        }), onDropped);
+        if (!accepted) {
+            shared.markDone();
+            completeShared(flight, OscSingleFlight.Outcome.error("Too many pending requests in lane " + lane + "."));
+        }
+        return handle;
+    }
+
+    private void completeShared(OscSingleFlight.Flight flight, OscSingleFlight.Outcome outcome) {
+        for (OscSingleFlight.Subscriber subscriber : mSingleFlight.complete(flight, outcome)) {
+            if (subscriber.callback != null) {
+                deliver(subscriber.handle, subscriber.callback, outcome);
+            }
+        }
+    }
+
+    private void deliver(OscRequestHandle handle, IOscCallback callback, OscSingleFlight.Outcome outcome) {
+        if (outcome.errorMessage != null) {
+            post(handle, callback, () -> callback.onError(outcome.errorMessage));
+        } else if (outcome.value instanceof OscOptions) {
+            // Each caller gets its own copy of the shared options
+            OscOptions options = ((OscOptions) outcome.value).copy();
+            post(handle, callback, () -> callback.onSuccessful(options));
+        } else {
+            post(handle, callback, () -> callback.onSuccessful(outcome.value));
+        }
+    }
+
+    // Delivered once per frame. Callbacks of a cancelled request are dropped, also those already posted
+    private void post(OscRequestHandle handle, Object listener, Runnable callback) {
+        mCallbackDispatcher.post(listener, handle, callback);
+    }
+
+    // File operations have their own lane, other custom requests return immediately
+    private OscLaneExecutor.Lane getLaneForOscApi(String oscApi, String content) {
+        if (content != null && oscApi.endsWith("/osc/commands/execute")
+                && (content.contains("\"camera.listFiles\"") || content.contains("\"camera.delete\""))) {
+            return OscLaneExecutor.Lane.FILE;
+        }
+        return OscLaneExecutor.Lane.QUICK;
+    }
+
+    // Reads without side effects, which could share one call
+    private boolean isIdempotentRead(String oscApi, String content) {
+        if (oscApi.endsWith("/osc/info")) {
+            return content == null;
+        }
+        if (oscApi.endsWith("/osc/state")) {
+            return true;
+        }
+        return content != null && oscApi.endsWith("/osc/commands/execute") && content.contains("\"" + OscCommand.GET_OPTIONS + "\"");
     }
 
     private String getOscUrl(String oscApi) {
@@ -569,22 +1116,19 @@ public class OscManager {
         return getOscUrl("/osc/commands/status");
     }
 
+    private String getOscCheckForUpdatesUrl() {
+        return getOscUrl("/osc/checkForUpdates");
+    }
+
     private Map<String, String> getHttpHeaders() {
-        Map<String, String> headerMap = new HashMap<>();
-        headerMap.put("Content-Type", "application/json; charset= utf-8");
-        headerMap.put("Accept", "application/json");
-        headerMap.put("X-XSRF-Protected", "1");
-        return headerMap;
+        return HTTP_HEADERS;
     }
 
     private String getErrorMessage(String result) {
         try {
-            JSONObject jsonObject = new JSONObject(result);
-            if (jsonObject.has("error")) {
-                JSONObject error = jsonObject.getJSONObject("error");
-                String code = error.has("code") ? error.getString("code") + ". " : "";
-                String message = error.has("message") ? error.getString("message") + "." : "";
-                return code + message;
+            OscResponse response = OscResponseDecoder.decode(result);
+            if (response.getErrorCode() != null || response.getErrorMessage() != null) {
+                return response.formatError();
             }
         } catch (Exception ignore) {
         }
@@ -0,0 +1,187 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.command.OscOptions;
+import com.arashivision.sdk.demo.osc.decoder.OscResponse;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+import com.arashivision.sdk.demo.osc.metrics.OscMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Merge setOptions requests into one camera.setOptions.
+ * <p>
+ * Only used when OscManager.setOptionsBatchWindow() is set, or for the options of one
+ * OscOptionsTransaction: OSC does not define the order in which the options of one request are applied.
+ * <p>
+ * If an option is set by several requests, the value of the last request wins.
+ * When the merged request fails because of an invalid option, each request is sent again with
+ * the options it owns (not overwritten by a later request), so the error is reported to the
+ * request which set the invalid option only.
+ */
+class OscOptionsBatcher {
+
+    private static final String ERROR_INVALID_PARAMETER_NAME = "invalidParameterName";
+    private static final String ERROR_INVALID_PARAMETER_VALUE = "invalidParameterValue";
+
+    interface Sender {
+        OSCResult send(OscCommand command) throws Exception;
+    }
+
+    static class Request {
+
+        final OscOptions options;
+        final IOscCallback callback;
+        final OscRequestHandle handle;
+
+        Request(OscOptions options, IOscCallback callback, OscRequestHandle handle) {
+            this.options = options;
+            this.callback = callback;
+            this.handle = handle;
+        }
+    }
+
+    static class Outcome {
+
+        final IOscCallback callback;
+        final OscRequestHandle handle;
+        // Options applied to the camera, null if failed
+        final OscOptions appliedOptions;
+        // null if successful
+        final String errorMessage;
+
+        private Outcome(Request request, OscOptions appliedOptions, String errorMessage) {
+            this.callback = request.callback;
+            this.handle = request.handle;
+            this.appliedOptions = appliedOptions;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    private final List<Request> mPending = new ArrayList<>();
+    private final OscMetrics mMetrics;
+
+    OscOptionsBatcher(@NonNull OscMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @return true if it is the first request of a new batch, the caller should schedule a flush
+     */
+    synchronized boolean add(@NonNull OscOptions options, @Nullable IOscCallback callback, @NonNull OscRequestHandle handle) {
+        mPending.add(new Request(options, callback, handle));
+        return mPending.size() == 1;
+    }
+
+    /**
+     * Take all pending requests, the cancelled requests are dropped
+     */
+    @NonNull
+    synchronized List<Request> drain() {
+        List<Request> batch = dropCancelled(mPending);
+        mPending.clear();
+        return batch;
+    }
+
+    @NonNull
+    static List<Request> dropCancelled(@NonNull List<Request> requests) {
+        List<Request> batch = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            if (request.handle.isCancelled()) {
+                request.handle.markDone();
+            } else {
+                batch.add(request);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Send the batch as one camera.setOptions
+     */
+    @NonNull
+    List<Outcome> send(@NonNull List<Request> batch, @NonNull Sender sender) throws Exception {
+        OscOptions merged = new OscOptions();
+        Map<String, Integer> owners = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            OscOptions options = batch.get(i).options;
+            for (String name : options.names()) {
+                owners.put(name, i);
+            }
+            merged.putAll(options);
+        }
+        List<Outcome> outcomes = new ArrayList<>(batch.size());
+        if (merged.isEmpty()) {
+            for (Request request : batch) {
+                outcomes.add(new Outcome(request, request.options, null));
+            }
+            return outcomes;
+        }
+
+        OSCResult oscResult = sender.send(OscCommand.setOptions(merged));
+        String errorMessage = getErrorMessage(oscResult);
+        if (errorMessage == null) {
+            for (Request request : batch) {
+                outcomes.add(new Outcome(request, request.options, null));
+            }
+        } else if (batch.size() > 1 && isInvalidOptionError(oscResult)) {
+            // Find out which request set the invalid option
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                List<String> ownedNames = new ArrayList<>();
+                for (String name : request.options.names()) {
+                    if (owners.get(name) == i) {
+                        ownedNames.add(name);
+                    }
+                }
+                OscOptions owned = request.options.subset(ownedNames);
+                if (owned.isEmpty()) {
+                    // All options are overwritten by later requests
+                    outcomes.add(new Outcome(request, owned, null));
+                } else {
+                    mMetrics.onRetry(OscCommand.SET_OPTIONS);
+                    String ownedError = getErrorMessage(sender.send(OscCommand.setOptions(owned)));
+                    if (ownedError == null) {
+                        outcomes.add(new Outcome(request, owned, null));
+                    } else {
+                        outcomes.add(new Outcome(request, null, ownedError + " Options: " + owned.names()));
+                    }
+                }
+            }
+        } else {
+            for (Request request : batch) {
+                outcomes.add(new Outcome(request, null, errorMessage + " Options: " + request.options.names()));
+            }
+        }
+        return outcomes;
+    }
+
+    // null if successful
+    private String getErrorMessage(OSCResult oscResult) {
+        if (!oscResult.isSuccessful()) {
+            return oscResult.getResult();
+        }
+        OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+        if (response.isError()) {
+            String error = response.formatError();
+            return error.isEmpty() ? oscResult.getResult() : error;
+        }
+        return null;
+    }
+
+    private boolean isInvalidOptionError(OSCResult oscResult) {
+        if (!oscResult.isSuccessful()) {
+            return false;
+        }
+        String code = OscResponseDecoder.decode(oscResult.getResult()).getErrorCode();
+        return ERROR_INVALID_PARAMETER_NAME.equals(code) || ERROR_INVALID_PARAMETER_VALUE.equals(code);
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.command.OscOptions;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * In-memory cache of camera options.
+ * <p>
+ * Values come from successful camera.getOptions and camera.setOptions.
+ * All values are dropped when the camera reports a new state fingerprint,
+ * and each value expires after the max age.
+ * Options which change by themselves (battery, storage, and the iso, shutter speed and white
+ * balance metered by auto exposure) are never cached.
+ */
+public class OscOptionsCache {
+
+    private static final Set<String> NON_CACHEABLE = new HashSet<>(Arrays.asList(
+            "_batteryCapacity", "remainingSpace", "remainingPictures", "remainingVideoSeconds", "dateTimeZone",
+            // Live auto exposure readings, they change without a state fingerprint change
+            "iso", "shutterSpeed", "whiteBalance", "_WbRGain", "_WbBGain"));
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private String mStateFingerprint;
+    private long mMaxAge = 60000;
+
+    /**
+     * @param maxAge Time in ms a cached value stays valid without a fingerprint change, default 60000ms
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
+
+    /**
+     * Called for every state fingerprint seen from "/osc/state" or "/osc/checkForUpdates"
+     */
+    public synchronized void onStateFingerprint(@Nullable String stateFingerprint) {
+        if (stateFingerprint == null || stateFingerprint.isEmpty()) {
+            return;
+        }
+        if (mStateFingerprint != null && !mStateFingerprint.equals(stateFingerprint)) {
+            mEntries.clear();
+        }
+        mStateFingerprint = stateFingerprint;
+    }
+
+    /**
+     * Store the options which were set successfully
+     */
+    public synchronized void putAll(@NonNull OscOptions options) {
+        long now = now();
+        for (String name : options.names()) {
+            if (!NON_CACHEABLE.contains(name)) {
+                mEntries.put(name, new Entry(options.subset(Collections.singletonList(name)), now));
+            }
+        }
+    }
+
+    /**
+     * Store the "results.options" of camera.getOptions
+     */
+    public synchronized void putAll(@NonNull JSONObject options) {
+        putAll(toOscOptions(options));
+    }
+
+    /**
+     * Drop the given options, e.g. after a setOptions with unknown content
+     */
+    public synchronized void invalidate(@NonNull String... names) {
+        for (String name : names) {
+            mEntries.remove(name);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return Cached values of the names which are valid, may be less than requested
+     */
+    @NonNull
+    public synchronized OscOptions get(@NonNull String... names) {
+        OscOptions options = new OscOptions();
+        long now = now();
+        for (String name : names) {
+            Entry entry = getValidEntry(name, now);
+            if (entry != null) {
+                options.putAll(entry.value);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return Names which are not cached or expired
+     */
+    @NonNull
+    public synchronized String[] getMissing(@NonNull String... names) {
+        List<String> missing = new ArrayList<>();
+        long now = now();
+        for (String name : names) {
+            if (getValidEntry(name, now) == null) {
+                missing.add(name);
+            }
+        }
+        return missing.toArray(new String[0]);
+    }
+
+    private Entry getValidEntry(String name, long now) {
+        Entry entry = mEntries.get(name);
+        if (entry != null && now - entry.time > mMaxAge) {
+            mEntries.remove(name);
+            return null;
+        }
+        return entry;
+    }
+
+    // Monotonic milliseconds, a clock change does not make stale values look fresh or expire all of them
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Convert "results.options" of camera.getOptions, arrays and objects are kept as JSON
+     */
+    @NonNull
+    static OscOptions toOscOptions(@NonNull JSONObject options) {
+        OscOptions oscOptions = new OscOptions();
+        Iterator<String> keys = options.keys();
+        while (keys.hasNext()) {
+            String name = keys.next();
+            Object value = options.opt(name);
+            if (value instanceof Integer) {
+                oscOptions.put(name, (int) (Integer) value);
+            } else if (value instanceof Long) {
+                oscOptions.put(name, (long) (Long) value);
+            } else if (value instanceof Number) {
+                oscOptions.put(name, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                oscOptions.put(name, (boolean) (Boolean) value);
+            } else if (value instanceof String) {
+                oscOptions.put(name, (String) value);
+            } else if (value == null || value == JSONObject.NULL) {
+                oscOptions.put(name, (String) null);
+            } else {
+                oscOptions.putJson(name, value.toString());
+            }
+        }
+        return oscOptions;
+    }
+
+    private static class Entry {
+
+        private final OscOptions value;
+        private final long time;
+
+        private Entry(OscOptions value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.command.OscOptions;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Collect several option changes and send them as one camera.setOptions on commit.
+ * Use OscManager.getInstance().beginOptionsTransaction() to create it.
+ */
+public class OscOptionsTransaction {
+
+    private final OscManager mOscManager;
+    private final OscOptions mOptions = new OscOptions();
+    private boolean mCommitted;
+
+    OscOptionsTransaction(@NonNull OscManager oscManager) {
+        mOscManager = oscManager;
+    }
+
+    /**
+     * Options set later overwrite the same options set before
+     */
+    public synchronized OscOptionsTransaction set(@NonNull OscOptions options) {
+        if (mCommitted) {
+            throw new IllegalStateException("Transaction is already committed");
+        }
+        mOptions.putAll(options);
+        return this;
+    }
+
+    /**
+     * Send the options immediately as one camera.setOptions, together with the setOptions calls
+     * waiting to be merged if a batch window is set
+     *
+     * @param callback If successful, callback returns null
+     * @return handle to cancel the request before it is sent
+     */
+    @NonNull
+    public synchronized OscRequestHandle commit(@Nullable IOscCallback callback) {
+        if (mCommitted) {
+            throw new IllegalStateException("Transaction is already committed");
+        }
+        mCommitted = true;
+        return mOscManager.submitOptions(mOptions.copy(), callback, true);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.arashivision.sdk.demo.osc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Returned by the OscManager operations, could be used to cancel the operation.
+ * <p>
+ * After cancel(), no more callbacks are delivered. If the request delegate implements
+ * IOscAsyncRequestDelegate, the HTTP call in flight is aborted too, otherwise the operation
+ * stops as soon as the current HTTP call returns. A waiting status polling stops immediately.
+ */
+public class OscRequestHandle {
+
+    private final List<Runnable> mOnCancelListeners = new ArrayList<>();
+    private volatile boolean mCancelled;
+    private volatile boolean mDone;
+    private Thread mRunner;
+
+    /**
+     * @return false if the operation is already finished or cancelled
+     */
+    public boolean cancel() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mCancelled || mDone) {
+                return false;
+            }
+            mCancelled = true;
+            listeners = new ArrayList<>(mOnCancelListeners);
+            mOnCancelListeners.clear();
+            if (mRunner != null) {
+                // Wake up the status polling or the wait for an async call
+                mRunner.interrupt();
+            }
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Whether the operation is finished, successful or not
+     */
+    public boolean isDone() {
+        return mDone;
+    }
+
+    void run(@NonNull Runnable task) {
+        synchronized (this) {
+            if (mCancelled) {
+                mDone = true;
+                return;
+            }
+            mRunner = Thread.currentThread();
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                mRunner = null;
+                mDone = true;
+            }
+            // Clear the interrupt of cancel(), it must not affect the next task of the lane
+            Thread.interrupted();
+        }
+    }
+
+    synchronized void markDone() {
+        mDone = true;
+    }
+
+    void addOnCancelListener(@NonNull Runnable listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mOnCancelListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    synchronized void removeOnCancelListener(@NonNull Runnable listener) {
+        mOnCancelListeners.remove(listener);
+    }
+
+    void throwIfCancelled() {
+        if (mCancelled) {
+            throw new CancellationException("Request canceled");
+        }
+    }
+}
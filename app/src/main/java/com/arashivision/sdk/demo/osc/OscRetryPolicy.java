@@ -0,0 +1,85 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Retry of the requests which failed with a transient error.
+ * <p>
+ * Only errors where the camera refused the request without executing it are retried:
+ * HTTP 503 and the OSC error codes "cameraInExclusiveUse" and "serviceUnavailable" by default.
+ * Transport errors are not retried, a command could have been executed before the connection broke.
+ * <p>
+ * The delay before each retry is random between 0 and the exponential backoff ("full jitter"),
+ * so requests failed together do not retry together.
+ */
+public class OscRetryPolicy {
+
+    private volatile int mMaxRetries = 2;
+    private volatile long mBaseDelay = 200;
+    private volatile long mMaxDelay = 2000;
+    private volatile Set<String> mRetryableErrorCodes = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("cameraInExclusiveUse", "serviceUnavailable")));
+
+    /**
+     * @param maxRetries Max retries of a request, 0 to disable. Default 2
+     */
+    public OscRetryPolicy setMaxRetries(int maxRetries) {
+        mMaxRetries = Math.max(0, maxRetries);
+        return this;
+    }
+
+    /**
+     * @param baseDelay Backoff in ms of the first retry, doubled for each retry, default 200ms
+     * @param maxDelay  Backoff cap in ms, default 2000ms
+     */
+    public OscRetryPolicy setBackoff(long baseDelay, long maxDelay) {
+        mBaseDelay = Math.max(1, baseDelay);
+        mMaxDelay = Math.max(mBaseDelay, maxDelay);
+        return this;
+    }
+
+    /**
+     * @param errorCodes OSC error codes to retry, such as "cameraInExclusiveUse"
+     */
+    public OscRetryPolicy setRetryableErrorCodes(@NonNull String... errorCodes) {
+        mRetryableErrorCodes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(errorCodes)));
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * @param retry 0 for the first retry
+     * @return Delay in ms before the retry
+     */
+    long getDelay(int retry) {
+        long backoff = Math.min(mMaxDelay, mBaseDelay << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    boolean isRetryable(@NonNull OSCResult result) {
+        if (!result.isSuccessful()) {
+            return result.getCode() == 503;
+        }
+        String body = result.getResult();
+        if (body == null || !body.contains("\"error\"")) {
+            return false;
+        }
+        try {
+            String code = OscResponseDecoder.decode(body).getErrorCode();
+            return code != null && mRetryableErrorCodes.contains(code);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
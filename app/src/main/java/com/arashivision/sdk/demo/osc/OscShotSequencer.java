@@ -0,0 +1,389 @@
+package com.arashivision.sdk.demo.osc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.command.OscOptions;
+import com.arashivision.sdk.demo.osc.decoder.OscResponse;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Run a script of OSC commands on a fixed schedule, such as a timelapse survey.
+ * <p>
+ * Each command has a planned time relative to the start, the sum of the waits before it in the script.
+ * The schedule is kept on the monotonic clock and never shifts, so the latency of a command does
+ * not delay the later ones. With latency compensation, a command is sent half of its estimated
+ * round trip before the planned time, so it reaches the camera on time.
+ * <p>
+ * The status of a capture is polled on another thread, so the setOptions after it is sent while the
+ * camera is still processing the picture. The next capture waits for the previous one to be done.
+ * <p>
+ * The sequencer sends its commands directly from its own threads, not through the OscManager lanes.
+ * Planned and achieved times of each command are reported in StepRecords.
+ */
+public class OscShotSequencer {
+
+    public enum StepType {
+        SET_OPTIONS,
+        CAPTURE,
+        WAIT
+    }
+
+    /**
+     * Commands to run, such as setOptions(...).capture().waitFor(5000).repeat(100)
+     */
+    public static class Script {
+
+        private final List<Step> mSteps = new ArrayList<>();
+        private int mRepeat = 1;
+
+        public Script setOptions(@NonNull OscOptions options) {
+            mSteps.add(new Step(StepType.SET_OPTIONS, options.copy(), 0));
+            return this;
+        }
+
+        public Script capture() {
+            mSteps.add(new Step(StepType.CAPTURE, null, 0));
+            return this;
+        }
+
+        /**
+         * @param duration Time in ms from the planned time of the previous command to the next one
+         */
+        public Script waitFor(long duration) {
+            mSteps.add(new Step(StepType.WAIT, null, Math.max(0, duration)));
+            return this;
+        }
+
+        /**
+         * @param times How many times to run the whole script, default 1
+         */
+        public Script repeat(int times) {
+            mRepeat = Math.max(1, times);
+            return this;
+        }
+    }
+
+    private static class Step {
+
+        private final StepType type;
+        private final OscOptions options;
+        private final long duration;
+
+        private Step(StepType type, OscOptions options, long duration) {
+            this.type = type;
+            this.options = options;
+            this.duration = duration;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on the main thread when a command is finished, a capture when its files are ready
+         */
+        default void onStep(@NonNull StepRecord record) {
+        }
+
+        /**
+         * Called on the main thread when the whole script is finished, also if some commands failed
+         */
+        void onFinished(@NonNull Result result);
+
+        void onError(String message);
+    }
+
+    /**
+     * Times of a command in ms, relative to the start of the script
+     */
+    public static class StepRecord {
+
+        // Position of the command in the run, waits are not counted
+        public final int index;
+        public final StepType type;
+        public final long plannedTime;
+        // Estimated arrival at the camera: sent time plus half of the round trip
+        public final long achievedTime;
+        // Round trip of the command request
+        public final long latency;
+        // When the files of a capture are ready, or the response of a setOptions
+        public final long doneTime;
+        // Files of a capture, null if setOptions or failed
+        public final String[] fileUrls;
+        // null if successful
+        public final String error;
+
+        private StepRecord(int index, StepType type, long plannedTime, long achievedTime, long latency, long doneTime,
+                           String[] fileUrls, String error) {
+            this.index = index;
+            this.type = type;
+            this.plannedTime = plannedTime;
+            this.achievedTime = achievedTime;
+            this.latency = latency;
+            this.doneTime = doneTime;
+            this.fileUrls = fileUrls;
+            this.error = error;
+        }
+
+        /**
+         * Achieved minus planned time in ms, positive if late
+         */
+        public long getDrift() {
+            return achievedTime - plannedTime;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " " + type +
+                    " planned=" + plannedTime +
+                    " achieved=" + achievedTime +
+                    " drift=" + getDrift() +
+                    " latency=" + latency +
+                    " done=" + doneTime +
+                    (fileUrls != null ? " files=" + Arrays.toString(fileUrls) : "") +
+                    (error != null ? " error=" + error : "");
+        }
+    }
+
+    public static class Result {
+
+        public final List<StepRecord> records;
+        public final long totalTime;
+        // Max of the absolute drifts in ms
+        public final long maxDrift;
+        // Mean of the absolute drifts in ms
+        public final long meanDrift;
+        public final int errorCount;
+
+        private Result(List<StepRecord> records, long totalTime) {
+            long max = 0;
+            long sum = 0;
+            int errors = 0;
+            for (StepRecord record : records) {
+                long drift = Math.abs(record.getDrift());
+                max = Math.max(max, drift);
+                sum += drift;
+                if (record.error != null) {
+                    errors++;
+                }
+            }
+            this.records = records;
+            this.totalTime = totalTime;
+            this.maxDrift = max;
+            this.meanDrift = records.isEmpty() ? 0 : sum / records.size();
+            this.errorCount = errors;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "steps=" + records.size() +
+                    ", errorCount=" + errorCount +
+                    ", maxDrift=" + maxDrift +
+                    ", meanDrift=" + meanDrift +
+                    ", totalTime=" + totalTime +
+                    '}';
+        }
+    }
+
+    // Weight of a new latency sample in the estimate
+    private static final double LATENCY_WEIGHT = 0.25;
+
+    private final OscManager mOscManager;
+    private final Script mScript;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Double> mLatencyEstimates = new HashMap<>();
+    private boolean mLatencyCompensation = true;
+
+    public OscShotSequencer(@NonNull Script script) {
+        mOscManager = OscManager.getInstance();
+        mScript = script;
+    }
+
+    /**
+     * @param latencyCompensation Whether to send each command half of its estimated round trip early, default true
+     */
+    public OscShotSequencer setLatencyCompensation(boolean latencyCompensation) {
+        mLatencyCompensation = latencyCompensation;
+        return this;
+    }
+
+    /**
+     * Run the script on a background thread
+     *
+     * @return handle to cancel the run, the command in progress is cancelled too
+     */
+    @NonNull
+    public OscRequestHandle start(@NonNull Callback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        List<Step> steps = new ArrayList<>(mScript.mSteps);
+        int repeat = mScript.mRepeat;
+        Thread thread = new Thread(() -> handle.run(() -> run(handle, steps, repeat, callback)), "OscShotSequencer");
+        thread.start();
+        return handle;
+    }
+
+    private void run(OscRequestHandle handle, List<Step> steps, int repeat, Callback callback) {
+        long startTime = System.nanoTime();
+        List<StepRecord> records = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService statusExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "OscShotSequencer-status"));
+        Future<?> capture = null;
+        long plannedTime = 0;
+        int index = 0;
+        try {
+            for (int i = 0; i < repeat; i++) {
+                for (Step step : steps) {
+                    if (step.type == StepType.WAIT) {
+                        plannedTime += step.duration;
+                        continue;
+                    }
+                    if (step.type == StepType.CAPTURE && capture != null) {
+                        // The camera takes one picture at a time
+                        await(capture);
+                        capture = null;
+                    }
+                    OscCommand command = step.type == StepType.CAPTURE
+                            ? OscCommand.execute(OscCommand.TAKE_PICTURE)
+                            : OscCommand.setOptions(step.options);
+                    sleepUntil(startTime, plannedTime - getLead(command.getName()));
+
+                    long sentTime = elapsed(startTime);
+                    OSCResult oscResult = mOscManager.sendCommand(handle, command);
+                    long responseTime = elapsed(startTime);
+                    long latency = responseTime - sentTime;
+                    updateLatency(command.getName(), latency);
+                    long achievedTime = sentTime + latency / 2;
+
+                    int stepIndex = index++;
+                    long stepPlannedTime = plannedTime;
+                    String error = getError(oscResult);
+                    if (step.type == StepType.CAPTURE && error == null) {
+                        OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+                        if (response.isInProgress()) {
+                            // Poll while the next commands go on
+                            String commandId = response.getId();
+                            capture = statusExecutor.submit(() -> {
+                                String[] fileUrls = null;
+                                String pollError;
+                                OSCResult statusResult = mOscManager.pollStatus(handle, OscCommand.TAKE_PICTURE, commandId);
+                                if (statusResult == null) {
+                                    pollError = "Timeout";
+                                } else {
+                                    pollError = getError(statusResult);
+                                    if (pollError == null) {
+                                        fileUrls = OscResponseDecoder.decode(statusResult.getResult()).getPictureUrls();
+                                    }
+                                }
+                                onStep(handle, callback, records, new StepRecord(stepIndex, StepType.CAPTURE, stepPlannedTime,
+                                        achievedTime, latency, elapsed(startTime), fileUrls, pollError));
+                                return null;
+                            });
+                            continue;
+                        }
+                        onStep(handle, callback, records, new StepRecord(stepIndex, step.type, stepPlannedTime,
+                                achievedTime, latency, responseTime, response.getPictureUrls(), null));
+                    } else {
+                        onStep(handle, callback, records, new StepRecord(stepIndex, step.type, stepPlannedTime,
+                                achievedTime, latency, responseTime, null, error));
+                    }
+                }
+            }
+            if (capture != null) {
+                await(capture);
+            }
+            List<StepRecord> sorted;
+            synchronized (records) {
+                sorted = new ArrayList<>(records);
+            }
+            Collections.sort(sorted, (r1, r2) -> Integer.compare(r1.index, r2.index));
+            Result result = new Result(Collections.unmodifiableList(sorted), elapsed(startTime));
+            post(handle, () -> callback.onFinished(result));
+        } catch (CancellationException | InterruptedException e) {
+            // Cancelled, no callback
+        } catch (Exception e) {
+            e.printStackTrace();
+            post(handle, () -> callback.onError(e.getMessage()));
+        } finally {
+            statusExecutor.shutdownNow();
+        }
+    }
+
+    private void await(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // Half of the estimated round trip, 0 before the first sample
+    private long getLead(String commandName) {
+        if (!mLatencyCompensation) {
+            return 0;
+        }
+        synchronized (mLatencyEstimates) {
+            Double estimate = mLatencyEstimates.get(commandName);
+            return estimate == null ? 0 : (long) (estimate / 2);
+        }
+    }
+
+    private void updateLatency(String commandName, long latency) {
+        synchronized (mLatencyEstimates) {
+            Double estimate = mLatencyEstimates.get(commandName);
+            mLatencyEstimates.put(commandName, estimate == null ? latency : estimate + (latency - estimate) * LATENCY_WEIGHT);
+        }
+    }
+
+    private void onStep(OscRequestHandle handle, Callback callback, List<StepRecord> records, StepRecord record) {
+        records.add(record);
+        post(handle, () -> callback.onStep(record));
+    }
+
+    private static void sleepUntil(long startTime, long time) throws InterruptedException {
+        long delay = time - elapsed(startTime);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private static long elapsed(long startTime) {
+        return (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    // null if successful
+    @Nullable
+    private static String getError(OSCResult oscResult) {
+        if (!oscResult.isSuccessful()) {
+            return oscResult.getResult();
+        }
+        OscResponse response = OscResponseDecoder.decode(oscResult.getResult());
+        if (response.isError()) {
+            String error = response.formatError();
+            return error.isEmpty() ? oscResult.getResult() : error;
+        }
+        return null;
+    }
+
+    private void post(OscRequestHandle handle, Runnable runnable) {
+        mHandler.post(() -> {
+            if (!handle.isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+}
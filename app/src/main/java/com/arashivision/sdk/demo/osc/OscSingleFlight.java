@@ -0,0 +1,233 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.delegate.IOscRequestDelegate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Share one HTTP call between identical read requests in flight at the same time.
+ * <p>
+ * Only idempotent reads are eligible, such as "/osc/info", "/osc/state" and camera.getOptions.
+ * The first request of a key sends the call, the requests of the same key issued before it returns
+ * join it and get the same result. Cancelling a request only drops its callback, the call is
+ * aborted when all requests of it are cancelled.
+ * <p>
+ * With a TTL, a successful result of "/osc/info" or "/osc/state" is also served to the requests
+ * issued shortly after it, without a new call. The TTL is 0 (disabled) by default.
+ * camera.getOptions results are not kept, repeats are served by the OscOptionsCache.
+ */
+public class OscSingleFlight {
+
+    interface Call {
+        @NonNull
+        Outcome call(@NonNull IOscRequestDelegate delegate) throws Exception;
+    }
+
+    static class Outcome {
+
+        // null if failed
+        final Object value;
+        // null if successful
+        final String errorMessage;
+
+        private Outcome(Object value, String errorMessage) {
+            this.value = value;
+            this.errorMessage = errorMessage;
+        }
+
+        static Outcome success(@Nullable Object value) {
+            return new Outcome(value, null);
+        }
+
+        static Outcome error(@Nullable String errorMessage) {
+            return new Outcome(null, errorMessage == null ? "" : errorMessage);
+        }
+    }
+
+    static class Subscriber {
+
+        final OscRequestHandle handle;
+        final IOscCallback callback;
+        private Runnable onCancel;
+
+        private Subscriber(OscRequestHandle handle, IOscCallback callback) {
+            this.handle = handle;
+            this.callback = callback;
+        }
+    }
+
+    static class Flight {
+
+        private final String key;
+        private final boolean keepResult;
+        // Handle of the shared call, cancelled when all subscribers left
+        private final OscRequestHandle handle = new OscRequestHandle();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+
+        private Flight(String key, boolean keepResult) {
+            this.key = key;
+            this.keepResult = keepResult;
+        }
+
+        @NonNull
+        OscRequestHandle getHandle() {
+            return handle;
+        }
+    }
+
+    private static class CachedOutcome {
+
+        private final Outcome outcome;
+        private final long time;
+
+        private CachedOutcome(Outcome outcome, long time) {
+            this.outcome = outcome;
+            this.time = time;
+        }
+    }
+
+    private final Map<String, Flight> mFlights = new HashMap<>();
+    private final Map<String, CachedOutcome> mCachedOutcomes = new HashMap<>();
+    private long mTtl = 0;
+    private long mCallCount;
+    private long mJoinedCount;
+    private long mCachedCount;
+
+    /**
+     * @param ttl Time in ms a successful result is served to new requests of the same key, 0 to disable. Default 0
+     */
+    public synchronized void setTtl(long ttl) {
+        mTtl = Math.max(0, ttl);
+        if (mTtl == 0) {
+            mCachedOutcomes.clear();
+        }
+    }
+
+    /**
+     * Drop the results kept for the TTL, e.g. after the camera state changed
+     */
+    public synchronized void invalidate() {
+        mCachedOutcomes.clear();
+    }
+
+    /**
+     * Number of HTTP calls sent for the eligible requests
+     */
+    public synchronized long getCallCount() {
+        return mCallCount;
+    }
+
+    /**
+     * Number of requests which joined a call in flight
+     */
+    public synchronized long getJoinedCount() {
+        return mJoinedCount;
+    }
+
+    /**
+     * Number of requests served by a result within the TTL
+     */
+    public synchronized long getCachedCount() {
+        return mCachedCount;
+    }
+
+    /**
+     * @return the successful outcome of the key within the TTL, null if none
+     */
+    @Nullable
+    synchronized Outcome getFresh(@NonNull String key) {
+        CachedOutcome cached = mCachedOutcomes.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (now() - cached.time > mTtl) {
+            mCachedOutcomes.remove(key);
+            return null;
+        }
+        mCachedCount++;
+        return cached.outcome;
+    }
+
+    /**
+     * @param keepResult Whether a successful result is served within the TTL
+     * @return the new flight if the caller should send the call, null if joined a call in flight
+     */
+    @Nullable
+    synchronized Flight join(@NonNull String key, boolean keepResult, @NonNull OscRequestHandle handle, @Nullable IOscCallback callback) {
+        Flight flight = mFlights.get(key);
+        Flight created = null;
+        if (flight == null) {
+            flight = new Flight(key, keepResult);
+            mFlights.put(key, flight);
+            created = flight;
+            mCallCount++;
+        } else {
+            mJoinedCount++;
+        }
+        Subscriber subscriber = new Subscriber(handle, callback);
+        Flight joined = flight;
+        subscriber.onCancel = () -> leave(joined, subscriber);
+        flight.subscribers.add(subscriber);
+        handle.addOnCancelListener(subscriber.onCancel);
+        return created;
+    }
+
+    /**
+     * End the flight, the requests joining the key from now on start a new call
+     *
+     * @return the subscribers which are not cancelled, their handles are marked done
+     */
+    @NonNull
+    List<Subscriber> complete(@NonNull Flight flight, @NonNull Outcome outcome) {
+        List<Subscriber> subscribers;
+        synchronized (this) {
+            if (mFlights.get(flight.key) == flight) {
+                mFlights.remove(flight.key);
+            }
+            if (flight.keepResult && outcome.errorMessage == null && mTtl > 0 && !flight.subscribers.isEmpty()) {
+                mCachedOutcomes.put(flight.key, new CachedOutcome(outcome, now()));
+            }
+            subscribers = new ArrayList<>(flight.subscribers);
+            flight.subscribers.clear();
+        }
+        if (subscribers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.handle.removeOnCancelListener(subscriber.onCancel);
+            subscriber.handle.markDone();
+        }
+        return subscribers;
+    }
+
+    private void leave(Flight flight, Subscriber subscriber) {
+        boolean abort;
+        synchronized (this) {
+            if (!flight.subscribers.remove(subscriber)) {
+                // Already completed
+                return;
+            }
+            abort = flight.subscribers.isEmpty();
+            if (abort && mFlights.get(flight.key) == flight) {
+                mFlights.remove(flight.key);
+            }
+        }
+        subscriber.handle.markDone();
+        if (abort) {
+            flight.handle.cancel();
+        }
+    }
+
+    // Monotonic milliseconds, a clock moved back does not keep a cached result past the TTL
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,405 @@
+package com.arashivision.sdk.demo.osc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One background watcher of the camera state, shared by all subscribers.
+ * <p>
+ * The "state" object of "/osc/state" is flattened to fields such as "batteryLevel" or
+ * "_captureStatus", and compared with the last snapshot. Only the changed fields are pushed to
+ * the subscribers, a removed field is pushed with a null value. A new subscriber gets all fields first.
+ * <p>
+ * The poll interval is adaptive: it drops to the min interval when the state changed, and grows
+ * up to the max interval while nothing changes. It is never shorter than the shortest interval of
+ * the subscribers. If enabled, "/osc/checkForUpdates" is polled instead, and the state is only
+ * fetched when the fingerprint has changed.
+ * <p>
+ * Each subscriber has its own min interval between two callbacks, the changes in between are merged.
+ * Polling starts with the first subscriber and stops with the last one.
+ */
+public class OscStateWatcher {
+
+    public interface OnStateChangedListener {
+        /**
+         * Called on the main thread
+         *
+         * @param changes Changed fields and their new values, null if the field was removed
+         */
+        void onStateChanged(@NonNull Map<String, Object> changes);
+    }
+
+    interface Transport {
+        /**
+         * POST the content to the OSC api, cancelled by the handle
+         */
+        @NonNull
+        OSCResult post(@NonNull OscRequestHandle handle, @NonNull String oscApi, @NonNull String content) throws Exception;
+    }
+
+    private static class Subscriber {
+
+        private final OnStateChangedListener listener;
+        private final long minInterval;
+        // Empty for all fields
+        private final Set<String> fields;
+        private final Map<String, Object> pending = new LinkedHashMap<>();
+        private long lastDeliveryTime;
+        private ScheduledFuture<?> flush;
+
+        private Subscriber(OnStateChangedListener listener, long minInterval, Set<String> fields) {
+            this.listener = listener;
+            this.minInterval = minInterval;
+            this.fields = fields;
+            // The first changes are delivered at once
+            this.lastDeliveryTime = now() - minInterval;
+        }
+
+        private boolean accepts(String field) {
+            return fields.isEmpty() || fields.contains(field);
+        }
+    }
+
+    private final Transport mTransport;
+    private final OscStatusPoller.OnStateFingerprintListener mOnStateFingerprintListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "OscStateWatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Subscriber> mSubscribers = new ArrayList<>();
+
+    private long mMinInterval = 500;
+    private long mMaxInterval = 5000;
+    private float mBackoffMultiplier = 1.5f;
+    private boolean mUseCheckForUpdates = false;
+
+    // Guarded by this
+    private Map<String, Object> mSnapshot;
+    private String mFingerprint;
+    private long mInterval;
+    private ScheduledFuture<?> mPollFuture;
+    private OscRequestHandle mPollHandle;
+    private long mPollCount;
+    private long mStateFetchCount;
+    private long mChangeCount;
+
+    OscStateWatcher(@NonNull Transport transport, @Nullable OscStatusPoller.OnStateFingerprintListener onStateFingerprintListener) {
+        mTransport = transport;
+        mOnStateFingerprintListener = onStateFingerprintListener;
+    }
+
+    /**
+     * @param minInterval Poll interval in ms after a change, default 500ms
+     * @param maxInterval Poll interval cap in ms while nothing changes, default 5000ms
+     */
+    public synchronized OscStateWatcher setInterval(long minInterval, long maxInterval) {
+        mMinInterval = Math.max(1, minInterval);
+        mMaxInterval = Math.max(mMinInterval, maxInterval);
+        return this;
+    }
+
+    /**
+     * @param backoffMultiplier Interval multiplier for each poll without a change, default 1.5
+     */
+    public synchronized OscStateWatcher setBackoffMultiplier(float backoffMultiplier) {
+        mBackoffMultiplier = Math.max(1f, backoffMultiplier);
+        return this;
+    }
+
+    /**
+     * @param useCheckForUpdates Whether to poll "/osc/checkForUpdates" and fetch the state only when the fingerprint changed
+     */
+    public synchronized OscStateWatcher setUseCheckForUpdates(boolean useCheckForUpdates) {
+        mUseCheckForUpdates = useCheckForUpdates;
+        return this;
+    }
+
+    /**
+     * Watch all fields of the state
+     *
+     * @param minInterval Min time in ms between two callbacks of this listener
+     */
+    public void subscribe(@NonNull OnStateChangedListener listener, long minInterval) {
+        subscribe(listener, minInterval, new String[0]);
+    }
+
+    /**
+     * @param minInterval Min time in ms between two callbacks of this listener
+     * @param fields      Fields to watch, such as "batteryLevel", "_captureStatus". All fields if empty
+     */
+    public synchronized void subscribe(@NonNull OnStateChangedListener listener, long minInterval, @NonNull String... fields) {
+        unsubscribe(listener);
+        Subscriber subscriber = new Subscriber(listener, Math.max(0, minInterval), new HashSet<>(Arrays.asList(fields)));
+        mSubscribers.add(subscriber);
+        if (mSnapshot != null) {
+            merge(subscriber, mSnapshot);
+            dispatch(subscriber);
+        }
+        if (mPollFuture == null) {
+            mInterval = getMinInterval();
+            schedulePoll(0);
+        }
+    }
+
+    public synchronized void unsubscribe(@NonNull OnStateChangedListener listener) {
+        Iterator<Subscriber> iterator = mSubscribers.iterator();
+        while (iterator.hasNext()) {
+            Subscriber subscriber = iterator.next();
+            if (subscriber.listener == listener) {
+                if (subscriber.flush != null) {
+                    subscriber.flush.cancel(false);
+                }
+                iterator.remove();
+            }
+        }
+        if (mSubscribers.isEmpty() && mPollFuture != null) {
+            mPollFuture.cancel(false);
+            mPollFuture = null;
+            if (mPollHandle != null) {
+                mPollHandle.cancel();
+                mPollHandle = null;
+            }
+            // The state may change a lot until the next subscriber, start with a full snapshot
+            mSnapshot = null;
+            mFingerprint = null;
+        }
+    }
+
+    /**
+     * Last known state fields, null if not fetched yet
+     */
+    @Nullable
+    public synchronized Map<String, Object> getSnapshot() {
+        return mSnapshot == null ? null : Collections.unmodifiableMap(new LinkedHashMap<>(mSnapshot));
+    }
+
+    /**
+     * Number of polls, "/osc/checkForUpdates" or "/osc/state"
+     */
+    public synchronized long getPollCount() {
+        return mPollCount;
+    }
+
+    /**
+     * Number of "/osc/state" fetches
+     */
+    public synchronized long getStateFetchCount() {
+        return mStateFetchCount;
+    }
+
+    /**
+     * Number of polls which found a changed state
+     */
+    public synchronized long getChangeCount() {
+        return mChangeCount;
+    }
+
+    private void schedulePoll(long delay) {
+        mPollFuture = mScheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        OscRequestHandle handle;
+        boolean useCheckForUpdates;
+        String fingerprint;
+        synchronized (this) {
+            if (mSubscribers.isEmpty()) {
+                return;
+            }
+            handle = new OscRequestHandle();
+            mPollHandle = handle;
+            useCheckForUpdates = mUseCheckForUpdates;
+            fingerprint = mFingerprint;
+            mPollCount++;
+        }
+        boolean changed = false;
+        boolean failed = false;
+        try {
+            Map<String, Object> state = null;
+            String newFingerprint = null;
+            if (useCheckForUpdates && fingerprint != null) {
+                OSCResult oscResult = mTransport.post(handle, "/osc/checkForUpdates", OscCommand.checkForUpdates(fingerprint).toJson());
+                if (oscResult.isSuccessful()) {
+                    newFingerprint = OscResponseDecoder.decode(oscResult.getResult()).getStateFingerprint();
+                }
+            }
+            if (newFingerprint == null || !newFingerprint.equals(fingerprint)) {
+                // Fingerprint changed, or checkForUpdates is disabled or not supported
+                OSCResult oscResult = mTransport.post(handle, "/osc/state", "");
+                synchronized (this) {
+                    mStateFetchCount++;
+                }
+                if (oscResult.isSuccessful()) {
+                    JSONObject jsonObject = new JSONObject(oscResult.getResult());
+                    newFingerprint = jsonObject.optString("fingerprint", null);
+                    state = new LinkedHashMap<>();
+                    JSONObject stateObject = jsonObject.optJSONObject("state");
+                    if (stateObject != null) {
+                        flatten(null, stateObject, state);
+                    }
+                } else {
+                    failed = true;
+                }
+            }
+            if (newFingerprint != null && mOnStateFingerprintListener != null) {
+                mOnStateFingerprintListener.onStateFingerprint(newFingerprint);
+            }
+            synchronized (this) {
+                if (handle.isCancelled()) {
+                    return;
+                }
+                if (!failed) {
+                    // Only advanced with the state fetched, or the next poll would see no change and miss it
+                    mFingerprint = newFingerprint;
+                }
+                if (state != null) {
+                    changed = publish(state);
+                }
+            }
+        } catch (Exception e) {
+            failed = true;
+        }
+        synchronized (this) {
+            if (mPollHandle != handle || mSubscribers.isEmpty()) {
+                // Stopped, or restarted by a new subscriber
+                return;
+            }
+            mPollHandle = null;
+            if (changed) {
+                mChangeCount++;
+                mInterval = getMinInterval();
+            } else if (failed) {
+                // Camera disconnected or busy, do not keep it busier
+                mInterval = mMaxInterval;
+            } else {
+                mInterval = Math.min(mMaxInterval, Math.max(getMinInterval(), (long) (mInterval * mBackoffMultiplier)));
+            }
+            schedulePoll(mInterval);
+        }
+    }
+
+    // Diff with the last snapshot and push the changes, return whether anything changed
+    private boolean publish(Map<String, Object> state) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        Map<String, Object> last = mSnapshot == null ? Collections.emptyMap() : mSnapshot;
+        for (Map.Entry<String, Object> entry : state.entrySet()) {
+            if (!last.containsKey(entry.getKey()) || !isSameValue(last.get(entry.getKey()), entry.getValue())) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String field : last.keySet()) {
+            if (!state.containsKey(field)) {
+                changes.put(field, null);
+            }
+        }
+        mSnapshot = state;
+        if (changes.isEmpty()) {
+            return false;
+        }
+        for (Subscriber subscriber : mSubscribers) {
+            merge(subscriber, changes);
+            dispatch(subscriber);
+        }
+        return true;
+    }
+
+    private void merge(Subscriber subscriber, Map<String, Object> changes) {
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (subscriber.accepts(entry.getKey())) {
+                subscriber.pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Deliver the pending changes now, or when the min interval of the subscriber has passed
+    private void dispatch(Subscriber subscriber) {
+        if (subscriber.pending.isEmpty() || subscriber.flush != null) {
+            return;
+        }
+        long wait = subscriber.lastDeliveryTime + subscriber.minInterval - now();
+        if (wait > 0) {
+            subscriber.flush = mScheduler.schedule(() -> {
+                synchronized (this) {
+                    subscriber.flush = null;
+                    if (mSubscribers.contains(subscriber)) {
+                        dispatch(subscriber);
+                    }
+                }
+            }, wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        Map<String, Object> changes = Collections.unmodifiableMap(new LinkedHashMap<>(subscriber.pending));
+        subscriber.pending.clear();
+        subscriber.lastDeliveryTime = now();
+        mHandler.post(() -> {
+            boolean subscribed;
+            synchronized (this) {
+                subscribed = mSubscribers.contains(subscriber);
+            }
+            if (subscribed) {
+                subscriber.listener.onStateChanged(changes);
+            }
+        });
+    }
+
+    // Polling faster than every subscriber wants the changes is wasted
+    private long getMinInterval() {
+        long shortest = Long.MAX_VALUE;
+        for (Subscriber subscriber : mSubscribers) {
+            shortest = Math.min(shortest, subscriber.minInterval);
+        }
+        return Math.min(mMaxInterval, Math.max(mMinInterval, shortest == Long.MAX_VALUE ? 0 : shortest));
+    }
+
+    // Monotonic milliseconds, a clock change does not hold the updates of a subscriber
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private static void flatten(String prefix, JSONObject object, Map<String, Object> out) {
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            String field = prefix == null ? key : prefix + "." + key;
+            Object value = object.opt(key);
+            if (value instanceof JSONObject) {
+                flatten(field, (JSONObject) value, out);
+            } else {
+                out.put(field, value == JSONObject.NULL ? null : value);
+            }
+        }
+    }
+
+    private static boolean isSameValue(Object a, Object b) {
+        if (a instanceof JSONArray && b instanceof JSONArray) {
+            return a.toString().equals(b.toString());
+        }
+        return Objects.equals(a, b);
+    }
+}
@@ -0,0 +1,264 @@
+package com.arashivision.sdk.demo.osc;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+import com.arashivision.sdk.demo.osc.delegate.IOscRequestDelegate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Poll "/osc/commands/status" until the command is no longer in progress.
+ * <p>
+ * The first polls are sent quickly, then the delay grows exponentially up to the max delay.
+ * If enabled, "/osc/checkForUpdates" is used between polls, and the status is only fetched
+ * when the stateFingerprint has changed (or the last fetch is older than the max status interval).
+ */
+public class OscStatusPoller {
+
+    public interface OnStateFingerprintListener {
+        void onStateFingerprint(String stateFingerprint);
+    }
+
+    private final Map<String, PollStats> mPollStatsMap = new ConcurrentHashMap<>();
+    private volatile OnStateFingerprintListener mOnStateFingerprintListener;
+
+    private long mInitialDelay = 100;
+    private int mFastAttempts = 3;
+    private float mBackoffMultiplier = 1.6f;
+    private long mMaxDelay = 1000;
+    private long mTimeout = 30000;
+    private boolean mUseCheckForUpdates = false;
+    private long mMaxStatusInterval = 2000;
+
+    /**
+     * @param initialDelay Delay in ms of the first polls, default 100ms
+     * @param fastAttempts How many polls are sent with the initial delay before backing off, default 3
+     */
+    public OscStatusPoller setInitialDelay(long initialDelay, int fastAttempts) {
+        mInitialDelay = Math.max(0, initialDelay);
+        mFastAttempts = Math.max(0, fastAttempts);
+        return this;
+    }
+
+    /**
+     * @param backoffMultiplier Delay multiplier after the fast attempts, default 1.6
+     * @param maxDelay          Delay cap in ms, default 1000ms
+     */
+    public OscStatusPoller setBackoff(float backoffMultiplier, long maxDelay) {
+        mBackoffMultiplier = Math.max(1f, backoffMultiplier);
+        mMaxDelay = Math.max(mInitialDelay, maxDelay);
+        return this;
+    }
+
+    /**
+     * @param timeout Give up polling after this time in ms, default 30000ms
+     */
+    public OscStatusPoller setTimeout(long timeout) {
+        mTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param useCheckForUpdates Whether to use "/osc/checkForUpdates" to skip redundant status fetches
+     * @param maxStatusInterval  Fetch the status at least once in this time in ms, even if the fingerprint is unchanged
+     */
+    public OscStatusPoller setUseCheckForUpdates(boolean useCheckForUpdates, long maxStatusInterval) {
+        mUseCheckForUpdates = useCheckForUpdates;
+        mMaxStatusInterval = maxStatusInterval;
+        return this;
+    }
+
+    /**
+     * @param listener Notified of the stateFingerprint returned by "/osc/checkForUpdates"
+     */
+    public OscStatusPoller setOnStateFingerprintListener(@Nullable OnStateFingerprintListener listener) {
+        mOnStateFingerprintListener = listener;
+        return this;
+    }
+
+    /**
+     * Poll the status of the command until it is done or failed
+     *
+     * @param oscRequestDelegate Delegate to send the requests
+     * @param commandName        Such as camera.takePicture, used for statistics
+     * @param commandId          The "id" returned by "/osc/commands/execute"
+     * @param statusUrl          Url of "/osc/commands/status"
+     * @param checkForUpdatesUrl Url of "/osc/checkForUpdates"
+     * @param headerMap          HTTP request headers to use
+     * @return The last status response whose state is "done" or "error", null if timeout
+     */
+    @Nullable
+    public OSCResult poll(@NonNull IOscRequestDelegate oscRequestDelegate, @NonNull String commandName, @NonNull String commandId, @NonNull String statusUrl,
+                          @NonNull String checkForUpdatesUrl, @NonNull Map<String, String> headerMap) throws InterruptedException {
+        OscCommand statusCmd = OscCommand.status(commandId);
+        long startTime = now();
+        long lastStatusTime = 0;
+        long delay = mInitialDelay;
+        int attempt = 0;
+        int statusCount = 0;
+        int skippedCount = 0;
+        boolean useCheckForUpdates = mUseCheckForUpdates;
+        String fingerprint = null;
+        while (now() - startTime < mTimeout) {
+            boolean fetchStatus = true;
+            if (useCheckForUpdates && attempt > 0 && now() - lastStatusTime < mMaxStatusInterval) {
+                String newFingerprint = checkForUpdates(oscRequestDelegate, checkForUpdatesUrl, fingerprint, headerMap);
+                if (newFingerprint == null) {
+                    // Not supported by the camera, fall back to status polling
+                    useCheckForUpdates = false;
+                } else {
+                    OnStateFingerprintListener listener = mOnStateFingerprintListener;
+                    if (listener != null) {
+                        listener.onStateFingerprint(newFingerprint);
+                    }
+                    fetchStatus = fingerprint == null || !fingerprint.equals(newFingerprint);
+                    fingerprint = newFingerprint;
+                }
+            }
+            if (fetchStatus) {
+                statusCount++;
+                lastStatusTime = now();
+                OSCResult oscResult = oscRequestDelegate.sendRequestByPost(statusUrl, statusCmd, headerMap);
+                if (oscResult.isSuccessful() && !isInProgress(oscResult.getResult())) {
+                    recordPollStats(commandName, now() - startTime, statusCount, skippedCount, false);
+                    return oscResult;
+                }
+            } else {
+                skippedCount++;
+            }
+            Thread.sleep(delay);
+            attempt++;
+            if (attempt >= mFastAttempts) {
+                delay = Math.min(mMaxDelay, Math.max(1, (long) (delay * mBackoffMultiplier)));
+            }
+        }
+        recordPollStats(commandName, now() - startTime, statusCount, skippedCount, true);
+        return null;
+    }
+
+    // Monotonic milliseconds, a clock change during the capture does not move the timeout
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Get the time-to-done statistics of the command
+     *
+     * @param commandName Such as camera.takePicture
+     */
+    @Nullable
+    public PollStats getPollStats(@NonNull String commandName) {
+        return mPollStatsMap.get(commandName);
+    }
+
+    private boolean isInProgress(String result) {
+        try {
+            return OscResponseDecoder.decode(result).isInProgress();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    // Return the current stateFingerprint, or null if the camera does not support checkForUpdates
+    private String checkForUpdates(IOscRequestDelegate oscRequestDelegate, String checkForUpdatesUrl, String fingerprint, Map<String, String> headerMap) {
+        OSCResult oscResult = oscRequestDelegate.sendRequestByPost(checkForUpdatesUrl, OscCommand.checkForUpdates(fingerprint), headerMap);
+        if (!oscResult.isSuccessful()) {
+            return null;
+        }
+        try {
+            return OscResponseDecoder.decode(oscResult.getResult()).getStateFingerprint();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void recordPollStats(String commandName, long timeToDone, int statusCount, int skippedCount, boolean timeout) {
+        PollStats pollStats = mPollStatsMap.get(commandName);
+        if (pollStats == null) {
+            pollStats = new PollStats(commandName);
+            PollStats old = mPollStatsMap.putIfAbsent(commandName, pollStats);
+            if (old != null) {
+                pollStats = old;
+            }
+        }
+        pollStats.record(timeToDone, statusCount, skippedCount, timeout);
+    }
+
+    public static class PollStats {
+
+        private final String mCommandName;
+        private long mCount;
+        private long mTimeoutCount;
+        private long mLastTimeToDone;
+        private long mTotalTimeToDone;
+        private long mMaxTimeToDone;
+        private long mStatusRequestCount;
+        private long mSkippedStatusCount;
+
+        private PollStats(String commandName) {
+            mCommandName = commandName;
+        }
+
+        private synchronized void record(long timeToDone, int statusCount, int skippedCount, boolean timeout) {
+            mCount++;
+            if (timeout) {
+                mTimeoutCount++;
+            }
+            mLastTimeToDone = timeToDone;
+            mTotalTimeToDone += timeToDone;
+            mMaxTimeToDone = Math.max(mMaxTimeToDone, timeToDone);
+            mStatusRequestCount += statusCount;
+            mSkippedStatusCount += skippedCount;
+        }
+
+        public String getCommandName() {
+            return mCommandName;
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getTimeoutCount() {
+            return mTimeoutCount;
+        }
+
+        public synchronized long getLastTimeToDone() {
+            return mLastTimeToDone;
+        }
+
+        public synchronized long getAverageTimeToDone() {
+            return mCount == 0 ? 0 : mTotalTimeToDone / mCount;
+        }
+
+        public synchronized long getMaxTimeToDone() {
+            return mMaxTimeToDone;
+        }
+
+        public synchronized long getStatusRequestCount() {
+            return mStatusRequestCount;
+        }
+
+        public synchronized long getSkippedStatusCount() {
+            return mSkippedStatusCount;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "{" +
+                    "commandName=" + mCommandName +
+                    ", count=" + mCount +
+                    ", timeoutCount=" + mTimeoutCount +
+                    ", lastTimeToDone=" + mLastTimeToDone +
+                    ", averageTimeToDone=" + getAverageTimeToDone() +
+                    ", maxTimeToDone=" + mMaxTimeToDone +
+                    ", statusRequestCount=" + mStatusRequestCount +
+                    ", skippedStatusCount=" + mSkippedStatusCount +
+                    '}';
+        }
+    }
+}
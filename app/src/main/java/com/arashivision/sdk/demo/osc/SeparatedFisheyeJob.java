@@ -0,0 +1,316 @@
+package com.arashivision.sdk.demo.osc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.arashivision.sdk.demo.model.CaptureExposureData;
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * ONE X2 / X3 separated fisheye capture as one job:
+ * get exposure params, capture with the front sensor, capture with the rear sensor, download both
+ * files and stitch them.
+ * <p>
+ * The stages overlap where possible: the front file is downloaded while the rear sensor is
+ * capturing, and the stitch starts as soon as both files are local. The time of each stage is
+ * reported in the Result.
+ * <p>
+ * Downloading and stitching are done by the FileDownloader and Stitcher of the caller, so the job
+ * could be used with any download implementation and with StitchUtils of the media SDK.
+ */
+public class SeparatedFisheyeJob {
+
+    public enum Stage {
+        EXPOSURE_PARAMS,
+        FRONT_CAPTURE,
+        FRONT_DOWNLOAD,
+        REAR_CAPTURE,
+        REAR_DOWNLOAD,
+        STITCH
+    }
+
+    public interface FileDownloader {
+        /**
+         * Download the file, called on a background thread
+         *
+         * @return Local file, it could be a copy downloaded before
+         * @throws Exception if failed
+         */
+        @NonNull
+        File download(@NonNull String url) throws Exception;
+    }
+
+    public interface Stitcher {
+        /**
+         * Stitch the two fisheye files, called on a background thread
+         *
+         * @return 0 if successful, otherwise the error code
+         */
+        int stitch(@NonNull String frontPath, @NonNull String rearPath, @NonNull String outputPath);
+    }
+
+    public interface Callback {
+        /**
+         * Called on the main thread when a stage is finished
+         */
+        default void onStageFinished(@NonNull StageTiming timing) {
+        }
+
+        void onSuccessful(@NonNull Result result);
+
+        /**
+         * @param stage Stage which failed
+         */
+        void onError(@NonNull Stage stage, String message);
+    }
+
+    /**
+     * Time of a stage, relative to the start of the job
+     */
+    public static class StageTiming {
+
+        public final Stage stage;
+        public final long startTime;
+        public final long duration;
+
+        private StageTiming(Stage stage, long startTime, long duration) {
+            this.stage = stage;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
+
+        @Override
+        public String toString() {
+            return stage + " +" + startTime + "ms " + duration + "ms";
+        }
+    }
+
+    public static class Result {
+
+        public final CaptureExposureData exposureData;
+        public final String frontPath;
+        public final String rearPath;
+        public final String outputPath;
+        public final List<StageTiming> timings;
+        public final long totalTime;
+
+        private Result(CaptureExposureData exposureData, String frontPath, String rearPath, String outputPath,
+                       List<StageTiming> timings, long totalTime) {
+            this.exposureData = exposureData;
+            this.frontPath = frontPath;
+            this.rearPath = rearPath;
+            this.outputPath = outputPath;
+            this.timings = timings;
+            this.totalTime = totalTime;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (StageTiming timing : timings) {
+                builder.append(timing).append('\n');
+            }
+            return builder.append("TOTAL ").append(totalTime).append("ms").toString();
+        }
+    }
+
+    private static final int FRONT_SENSOR = 1;
+    private static final int REAR_SENSOR = 2;
+
+    private final OscManager mOscManager;
+    private final FileDownloader mDownloader;
+    private final Stitcher mStitcher;
+    private final File mLocalFolder;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private CaptureExposureData mExposureData;
+
+    /**
+     * @param downloader  Download the captured files
+     * @param stitcher    Stitch the two fisheye files
+     * @param localFolder Folder of the stitched file
+     */
+    public SeparatedFisheyeJob(@NonNull FileDownloader downloader, @NonNull Stitcher stitcher, @NonNull File localFolder) {
+        mOscManager = OscManager.getInstance();
+        mDownloader = downloader;
+        mStitcher = stitcher;
+        mLocalFolder = localFolder;
+    }
+
+    /**
+     * Use these exposure params instead of getting them from the camera,
+     * e.g. for several captures at the same position
+     */
+    public SeparatedFisheyeJob setExposureData(@Nullable CaptureExposureData exposureData) {
+        mExposureData = exposureData;
+        return this;
+    }
+
+    /**
+     * Run the job on a background thread
+     *
+     * @return handle to cancel the job, the request in progress is cancelled too
+     */
+    @NonNull
+    public OscRequestHandle start(@NonNull Callback callback) {
+        OscRequestHandle handle = new OscRequestHandle();
+        Thread thread = new Thread(() -> handle.run(() -> run(handle, callback)), "SeparatedFisheyeJob");
+        thread.start();
+        return handle;
+    }
+
+    private void run(OscRequestHandle handle, Callback callback) {
+        long jobStartTime = System.nanoTime();
+        List<StageTiming> timings = Collections.synchronizedList(new ArrayList<>());
+        Stage stage = Stage.EXPOSURE_PARAMS;
+        // Only the front file is downloaded in parallel, the rear file is downloaded on this thread
+        ExecutorService downloadExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "SeparatedFisheyeJob-download"));
+        try {
+            if (!mLocalFolder.exists() && !mLocalFolder.mkdirs()) {
+                throw new IllegalStateException("Failed to create " + mLocalFolder);
+            }
+
+            CaptureExposureData exposureData = mExposureData;
+            if (exposureData == null) {
+                long startTime = System.nanoTime();
+                exposureData = (CaptureExposureData) await(handle, mOscManager::getCaptureExposureParamsForX2);
+                exposureData.exposureProgram = 1;
+                onStageFinished(handle, callback, timings, Stage.EXPOSURE_PARAMS, jobStartTime, startTime);
+            }
+            CaptureExposureData finalExposureData = exposureData;
+
+            stage = Stage.FRONT_CAPTURE;
+            long startTime = System.nanoTime();
+            String frontUrl = getFirstUrl(await(handle, c -> mOscManager.takeSingleSensorPictureForX2(FRONT_SENSOR, finalExposureData, c)));
+            onStageFinished(handle, callback, timings, Stage.FRONT_CAPTURE, jobStartTime, startTime);
+
+            Future<File> frontDownload = downloadExecutor.submit(() -> {
+                long downloadStartTime = System.nanoTime();
+                File file = mDownloader.download(frontUrl);
+                onStageFinished(handle, callback, timings, Stage.FRONT_DOWNLOAD, jobStartTime, downloadStartTime);
+                return file;
+            });
+
+            stage = Stage.REAR_CAPTURE;
+            startTime = System.nanoTime();
+            String rearUrl = getFirstUrl(await(handle, c -> mOscManager.takeSingleSensorPictureForX2(REAR_SENSOR, finalExposureData, c)));
+            onStageFinished(handle, callback, timings, Stage.REAR_CAPTURE, jobStartTime, startTime);
+
+            stage = Stage.REAR_DOWNLOAD;
+            startTime = System.nanoTime();
+            File rearFile = mDownloader.download(rearUrl);
+            onStageFinished(handle, callback, timings, Stage.REAR_DOWNLOAD, jobStartTime, startTime);
+
+            stage = Stage.FRONT_DOWNLOAD;
+            File frontFile;
+            try {
+                frontFile = frontDownload.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+
+            stage = Stage.STITCH;
+            handle.throwIfCancelled();
+            startTime = System.nanoTime();
+            String outputPath = new File(mLocalFolder, "separated_fisheye_" + System.currentTimeMillis() + ".jpg").getAbsolutePath();
+            int code = mStitcher.stitch(frontFile.getAbsolutePath(), rearFile.getAbsolutePath(), outputPath);
+            if (code != 0) {
+                throw new IllegalStateException("Stitch failed " + code);
+            }
+            onStageFinished(handle, callback, timings, Stage.STITCH, jobStartTime, startTime);
+
+            Result result = new Result(finalExposureData, frontFile.getAbsolutePath(), rearFile.getAbsolutePath(), outputPath,
+                    sortByStartTime(timings), toMillis(System.nanoTime() - jobStartTime));
+            post(handle, () -> callback.onSuccessful(result));
+        } catch (CancellationException | InterruptedException e) {
+            // Cancelled, no callback
+        } catch (Exception e) {
+            e.printStackTrace();
+            Stage failedStage = stage;
+            post(handle, () -> callback.onError(failedStage, e.getMessage()));
+        } finally {
+            downloadExecutor.shutdownNow();
+        }
+    }
+
+    // Run an OscManager request and wait for its callback, the request is cancelled with the job
+    private Object await(OscRequestHandle jobHandle, Function<IOscCallback, OscRequestHandle> request) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        Object[] result = new Object[1];
+        String[] error = new String[1];
+        OscRequestHandle requestHandle = request.apply(new IOscCallback() {
+            @Override
+            public void onSuccessful(Object object) {
+                result[0] = object;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error[0] = message == null ? "Unknown error" : message;
+                latch.countDown();
+            }
+        });
+        Runnable onCancel = requestHandle::cancel;
+        jobHandle.addOnCancelListener(onCancel);
+        try {
+            latch.await();
+        } finally {
+            jobHandle.removeOnCancelListener(onCancel);
+        }
+        if (error[0] != null) {
+            throw new IllegalStateException(error[0]);
+        }
+        return result[0];
+    }
+
+    private String getFirstUrl(Object result) {
+        if (result instanceof String[] && ((String[]) result).length > 0) {
+            return ((String[]) result)[0];
+        }
+        throw new IllegalStateException("No file returned");
+    }
+
+    private void onStageFinished(OscRequestHandle handle, Callback callback, List<StageTiming> timings,
+                                 Stage stage, long jobStartTime, long stageStartTime) {
+        long now = System.nanoTime();
+        StageTiming timing = new StageTiming(stage, toMillis(stageStartTime - jobStartTime), toMillis(now - stageStartTime));
+        timings.add(timing);
+        post(handle, () -> callback.onStageFinished(timing));
+    }
+
+    private static List<StageTiming> sortByStartTime(List<StageTiming> timings) {
+        List<StageTiming> sorted;
+        synchronized (timings) {
+            sorted = new ArrayList<>(timings);
+        }
+        Collections.sort(sorted, (t1, t2) -> Long.compare(t1.startTime, t2.startTime));
+        return Collections.unmodifiableList(sorted);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private void post(OscRequestHandle handle, Runnable runnable) {
+        mHandler.post(() -> {
+            if (!handle.isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+}
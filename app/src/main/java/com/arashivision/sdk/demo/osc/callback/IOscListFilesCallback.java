@@ -0,0 +1,22 @@
+package com.arashivision.sdk.demo.osc.callback;
+
+import com.arashivision.sdk.demo.osc.decoder.OscFileEntry;
+
+import java.util.List;
+
+/**
+ * Callback of OscManager.listFiles()
+ * onSuccessful() returns the number of entries (Integer) after the last page
+ */
+public interface IOscListFilesCallback extends IOscCallback {
+
+    /**
+     * Called for each page in order, before the next page is requested
+     *
+     * @param entries       Entries of the page
+     * @param startPosition Position of the first entry of the page
+     * @param totalEntries  Number of all files on the camera, -1 if unknown
+     */
+    void onPage(List<OscFileEntry> entries, int startPosition, int totalEntries);
+
+}
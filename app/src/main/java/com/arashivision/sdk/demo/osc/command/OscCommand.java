@@ -0,0 +1,425 @@
+package com.arashivision.sdk.demo.osc.command;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Utf8;
+
+/**
+ * Content of an OSC request, such as {"name":"camera.setOptions","parameters":{"options":{...}}}
+ * <p>
+ * The fixed head and tail of each command are encoded to bytes once and shared,
+ * only the parameters are encoded when the command is written to the request body.
+ * String values are escaped, so values from the camera (such as whiteBalance) are always valid JSON.
+ */
+public final class OscCommand {
+
+    public static final String SET_OPTIONS = "camera.setOptions";
+    public static final String GET_OPTIONS = "camera.getOptions";
+    public static final String TAKE_PICTURE = "camera.takePicture";
+    public static final String START_CAPTURE = "camera.startCapture";
+    public static final String STOP_CAPTURE = "camera.stopCapture";
+    public static final String LIST_FILES = "camera.listFiles";
+    public static final String DELETE = "camera.delete";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Map<String, Template> TEMPLATES = new ConcurrentHashMap<>();
+    private static final Template STATUS = new Template("{", "}");
+    private static final Template CHECK_FOR_UPDATES = new Template("{", "}");
+
+    private final String mName;
+    private final Template mTemplate;
+    private final List<Object> mFields;
+    private final String mRawFields;
+    private long mContentLength = -1;
+
+    private OscCommand(String name, Template template, List<Object> fields, String rawFields) {
+        mName = name;
+        mTemplate = template;
+        mFields = fields;
+        mRawFields = rawFields;
+    }
+
+    /**
+     * "/osc/commands/execute" without parameters, such as camera.takePicture
+     */
+    @NonNull
+    public static OscCommand execute(@NonNull String name) {
+        return new OscCommand(name, template(name, Template.KIND_NO_PARAMETERS), Collections.emptyList(), null);
+    }
+
+    /**
+     * "/osc/commands/execute" with parameters, such as camera.listFiles
+     */
+    @NonNull
+    public static Builder executeWithParameters(@NonNull String name) {
+        return new Builder(name, template(name, Template.KIND_PARAMETERS));
+    }
+
+    /**
+     * camera.setOptions, put the options to the builder
+     */
+    @NonNull
+    public static Builder setOptions() {
+        return new Builder(SET_OPTIONS, template(SET_OPTIONS, Template.KIND_OPTIONS));
+    }
+
+    /**
+     * camera.setOptions with typed options
+     */
+    @NonNull
+    public static OscCommand setOptions(@NonNull OscOptions options) {
+        return setOptions().putAll(options).build();
+    }
+
+    /**
+     * camera.setOptions with options already formatted as JSON fields, such as "captureMode":"image","hdr":"hdr"
+     */
+    @NonNull
+    public static OscCommand setOptions(@NonNull String options) {
+        return setOptions().putRaw(options).build();
+    }
+
+    /**
+     * camera.getOptions
+     */
+    @NonNull
+    public static OscCommand getOptions(@NonNull String... optionNames) {
+        return executeWithParameters(GET_OPTIONS).put("optionNames", optionNames).build();
+    }
+
+    /**
+     * camera.listFiles without thumbnails
+     *
+     * @param fileType      "all", "image" or "video"
+     * @param startPosition Position of the first entry to return
+     * @param entryCount    Max number of entries to return
+     */
+    @NonNull
+    public static OscCommand listFiles(@NonNull String fileType, int startPosition, int entryCount) {
+        return executeWithParameters(LIST_FILES)
+                .put("fileType", fileType)
+                .put("startPosition", startPosition)
+                .put("entryCount", entryCount)
+                .put("maxThumbSize", (String) null)
+                .build();
+    }
+
+    /**
+     * Content of "/osc/commands/status"
+     */
+    @NonNull
+    public static OscCommand status(@NonNull String commandId) {
+        return new Builder("status", STATUS).put("id", commandId).build();
+    }
+
+    /**
+     * Content of "/osc/checkForUpdates"
+     */
+    @NonNull
+    public static OscCommand checkForUpdates(@Nullable String stateFingerprint) {
+        return new Builder("checkForUpdates", CHECK_FOR_UPDATES).put("stateFingerprint", stateFingerprint == null ? "" : stateFingerprint).build();
+    }
+
+    private static Template template(String name, int kind) {
+        String key = kind + name;
+        Template template = TEMPLATES.get(key);
+        if (template == null) {
+            String head = "{\"name\":" + quote(name);
+            switch (kind) {
+                case Template.KIND_PARAMETERS:
+                    template = new Template(head + ",\"parameters\":{", "}}");
+                    break;
+                case Template.KIND_OPTIONS:
+                    template = new Template(head + ",\"parameters\":{\"options\":{", "}}}");
+                    break;
+                default:
+                    template = new Template(head, "}");
+                    break;
+            }
+            TEMPLATES.put(key, template);
+        }
+        return template;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Number of UTF-8 bytes written by writeTo()
+     */
+    public long contentLength() {
+        if (mContentLength < 0) {
+            LengthCounter counter = new LengthCounter();
+            try {
+                write(counter);
+            } catch (IOException ignore) {
+                // counting does not throw
+            }
+            mContentLength = counter.length;
+        }
+        return mContentLength;
+    }
+
+    /**
+     * Write the command into the request body directly
+     */
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        write(new SinkOutput(sink));
+    }
+
+    @NonNull
+    public String toJson() {
+        Buffer buffer = new Buffer();
+        try {
+            writeTo(buffer);
+        } catch (IOException ignore) {
+            // Buffer does not throw
+        }
+        return buffer.readUtf8();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private void write(Output output) throws IOException {
+        boolean hasField = false;
+        output.write(mTemplate.head);
+        for (int i = 0; i < mFields.size(); i += 2) {
+            if (hasField) {
+                output.writeByte(',');
+            }
+            hasField = true;
+            writeString(output, (String) mFields.get(i));
+            output.writeByte(':');
+            writeValue(output, mFields.get(i + 1));
+        }
+        if (mRawFields != null && !mRawFields.trim().isEmpty()) {
+            if (hasField) {
+                output.writeByte(',');
+            }
+            output.writeUtf8(mRawFields, 0, mRawFields.length());
+        }
+        output.write(mTemplate.tail);
+    }
+
+    private static void writeValue(Output output, Object value) throws IOException {
+        if (value == null) {
+            output.writeUtf8("null", 0, 4);
+        } else if (value instanceof String) {
+            writeString(output, (String) value);
+        } else if (value instanceof OscOptions.RawJson) {
+            String json = ((OscOptions.RawJson) value).json;
+            output.writeUtf8(json, 0, json.length());
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            output.writeByte('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    output.writeByte(',');
+                }
+                writeString(output, array[i]);
+            }
+            output.writeByte(']');
+        } else {
+            // Number or Boolean
+            String literal = String.valueOf(value);
+            output.writeUtf8(literal, 0, literal.length());
+        }
+    }
+
+    private static void writeString(Output output, String value) throws IOException {
+        output.writeByte('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c < 0x20) {
+                replacement = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            if (start < i) {
+                output.writeUtf8(value, start, i);
+            }
+            output.writeUtf8(replacement, 0, replacement.length());
+            start = i + 1;
+        }
+        if (start < length) {
+            output.writeUtf8(value, start, length);
+        }
+        output.writeByte('"');
+    }
+
+    private static String quote(String value) {
+        Buffer buffer = new Buffer();
+        try {
+            writeString(new SinkOutput(buffer), value);
+        } catch (IOException ignore) {
+            // Buffer does not throw
+        }
+        return buffer.readUtf8();
+    }
+
+    public static final class Builder {
+
+        private final String mName;
+        private final Template mTemplate;
+        private final List<Object> mFields = new ArrayList<>();
+        private StringBuilder mRawFields;
+
+        private Builder(String name, Template template) {
+            mName = name;
+            mTemplate = template;
+        }
+
+        public Builder put(@NonNull String key, @Nullable String value) {
+            mFields.add(key);
+            mFields.add(value);
+            return this;
+        }
+
+        public Builder put(@NonNull String key, int value) {
+            mFields.add(key);
+            mFields.add(value);
+            return this;
+        }
+
+        public Builder put(@NonNull String key, long value) {
+            mFields.add(key);
+            mFields.add(value);
+            return this;
+        }
+
+        public Builder put(@NonNull String key, double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException("Invalid number " + value + " of " + key);
+            }
+            mFields.add(key);
+            mFields.add(value);
+            return this;
+        }
+
+        public Builder put(@NonNull String key, boolean value) {
+            mFields.add(key);
+            mFields.add(value);
+            return this;
+        }
+
+        public Builder put(@NonNull String key, @NonNull String[] values) {
+            mFields.add(key);
+            mFields.add(values.clone());
+            return this;
+        }
+
+        public Builder putAll(@NonNull OscOptions options) {
+            for (Map.Entry<String, Object> entry : options.values().entrySet()) {
+                mFields.add(entry.getKey());
+                mFields.add(entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Append fields already formatted as JSON, such as "exposureBracket":{"shots":3,"increment":2}
+         */
+        public Builder putRaw(@NonNull String fields) {
+            if (mRawFields == null) {
+                mRawFields = new StringBuilder(fields);
+            } else {
+                mRawFields.append(',').append(fields);
+            }
+            return this;
+        }
+
+        @NonNull
+        public OscCommand build() {
+            return new OscCommand(mName, mTemplate, new ArrayList<>(mFields), mRawFields == null ? null : mRawFields.toString());
+        }
+    }
+
+    private static final class Template {
+
+        private static final int KIND_NO_PARAMETERS = 0;
+        private static final int KIND_PARAMETERS = 1;
+        private static final int KIND_OPTIONS = 2;
+
+        private final byte[] head;
+        private final byte[] tail;
+
+        private Template(String head, String tail) {
+            this.head = head.getBytes(UTF_8);
+            this.tail = tail.getBytes(UTF_8);
+        }
+    }
+
+    private interface Output {
+        void write(byte[] bytes) throws IOException;
+
+        void writeByte(int b) throws IOException;
+
+        void writeUtf8(String string, int beginIndex, int endIndex) throws IOException;
+    }
+
+    private static final class SinkOutput implements Output {
+
+        private final BufferedSink sink;
+
+        private SinkOutput(BufferedSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(byte[] bytes) throws IOException {
+            sink.write(bytes);
+        }
+
+        @Override
+        public void writeByte(int b) throws IOException {
+            sink.writeByte(b);
+        }
+
+        @Override
+        public void writeUtf8(String string, int beginIndex, int endIndex) throws IOException {
+            sink.writeUtf8(string, beginIndex, endIndex);
+        }
+    }
+
+    private static final class LengthCounter implements Output {
+
+        private long length;
+
+        @Override
+        public void write(byte[] bytes) {
+            length += bytes.length;
+        }
+
+        @Override
+        public void writeByte(int b) {
+            length++;
+        }
+
+        @Override
+        public void writeUtf8(String string, int beginIndex, int endIndex) {
+            length += Utf8.size(string, beginIndex, endIndex);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.arashivision.sdk.demo.osc.command;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Options of camera.setOptions, keyed by option name.
+ * Putting an option which already exists replaces its value and moves it to the end,
+ * so merged options keep the order in which they were last written.
+ */
+public final class OscOptions {
+
+    private final LinkedHashMap<String, Object> mValues = new LinkedHashMap<>();
+
+    public OscOptions put(@NonNull String name, @Nullable String value) {
+        return putValue(name, value);
+    }
+
+    public OscOptions put(@NonNull String name, int value) {
+        return putValue(name, value);
+    }
+
+    public OscOptions put(@NonNull String name, long value) {
+        return putValue(name, value);
+    }
+
+    public OscOptions put(@NonNull String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Invalid number " + value + " of " + name);
+        }
+        return putValue(name, value);
+    }
+
+    public OscOptions put(@NonNull String name, boolean value) {
+        return putValue(name, value);
+    }
+
+    /**
+     * Put a value already formatted as JSON, such as {"shots":3,"increment":2} of exposureBracket
+     */
+    public OscOptions putJson(@NonNull String name, @NonNull String json) {
+        return putValue(name, new RawJson(json));
+    }
+
+    /**
+     * Put all options of other, the values of other win
+     */
+    public OscOptions putAll(@NonNull OscOptions other) {
+        for (Map.Entry<String, Object> entry : other.mValues.entrySet()) {
+            putValue(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Copy the options of the names which exist
+     */
+    @NonNull
+    public OscOptions subset(@NonNull Collection<String> names) {
+        OscOptions options = new OscOptions();
+        for (String name : names) {
+            if (mValues.containsKey(name)) {
+                options.putValue(name, mValues.get(name));
+            }
+        }
+        return options;
+    }
+
+    public boolean contains(@NonNull String name) {
+        return mValues.containsKey(name);
+    }
+
+    /**
+     * @return String, Integer, Long, Double, Boolean, or the JSON string put by putJson()
+     */
+    @Nullable
+    public Object get(@NonNull String name) {
+        Object value = mValues.get(name);
+        return value instanceof RawJson ? ((RawJson) value).json : value;
+    }
+
+    @NonNull
+    public List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(mValues.keySet()));
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    public boolean isEmpty() {
+        return mValues.isEmpty();
+    }
+
+    @NonNull
+    public OscOptions copy() {
+        return new OscOptions().putAll(this);
+    }
+
+    @Override
+    public String toString() {
+        return mValues.toString();
+    }
+
+    Map<String, Object> values() {
+        return mValues;
+    }
+
+    private OscOptions putValue(String name, Object value) {
+        mValues.remove(name);
+        mValues.put(name, value);
+        return this;
+    }
+
+    static final class RawJson {
+
+        final String json;
+
+        private RawJson(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.arashivision.sdk.demo.osc.decoder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One entry of camera.listFiles, decoded by {@link OscListFilesDecoder}
+ */
+public class OscFileEntry {
+
+    String name;
+    String fileUrl;
+    long size = -1;
+    String dateTimeZone;
+    int width;
+    int height;
+    boolean isProcessed = true;
+    String previewUrl;
+
+    OscFileEntry() {
+    }
+
+    @Nullable
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getFileUrl() {
+        return fileUrl;
+    }
+
+    /**
+     * @return size in bytes, -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return such as "2014:05:18 01:04:29+08:00"
+     */
+    @Nullable
+    public String getDateTimeZone() {
+        return dateTimeZone;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isProcessed() {
+        return isProcessed;
+    }
+
+    @Nullable
+    public String getPreviewUrl() {
+        return previewUrl;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "OscFileEntry{name=" + name + ", fileUrl=" + fileUrl + ", size=" + size + "}";
+    }
+}
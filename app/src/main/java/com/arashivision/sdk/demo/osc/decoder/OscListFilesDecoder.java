@@ -0,0 +1,397 @@
+package com.arashivision.sdk.demo.osc.decoder;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decode the camera.listFiles response from a stream.
+ * <p>
+ * Each entry of "results.entries" is passed to the listener as soon as it is read, the response
+ * body is never held in memory as a whole. Besides the entries, the envelope fields of
+ * {@link OscResponse} and "results.totalEntries" are decoded.
+ */
+public class OscListFilesDecoder {
+
+    public interface OnEntryListener {
+        void onEntry(@NonNull OscFileEntry entry);
+    }
+
+    private static final int EOF = -1;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[8192];
+    private final StringBuilder mStringBuilder = new StringBuilder(64);
+    private int mPos;
+    private int mLimit;
+    // Chars consumed before the buffer, for error messages
+    private long mOffset;
+
+    private OscListFilesDecoder(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * @param reader   Response body of camera.listFiles, not closed by this method
+     * @param listener Called on the current thread for each entry
+     * @throws IOException              if failed to read the body
+     * @throws IllegalArgumentException if the body is not a JSON object
+     */
+    @NonNull
+    public static OscResponse decode(@NonNull Reader reader, @NonNull OnEntryListener listener) throws IOException {
+        OscResponse response = new OscResponse();
+        new OscListFilesDecoder(reader).readEnvelope(response, listener);
+        return response;
+    }
+
+    private void readEnvelope(OscResponse response, OnEntryListener listener) throws IOException {
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "state":
+                    response.state = readStringOrNull();
+                    break;
+                case "id":
+                    response.id = readScalar();
+                    break;
+                case "error":
+                    readError(response);
+                    break;
+                case "results":
+                    readResults(response, listener);
+                    break;
+                default:
+                    skipValue();
+                    break;
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readError(OscResponse response) throws IOException {
+        if (!peekIs('{')) {
+            skipValue();
+            return;
+        }
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            if ("code".equals(key)) {
+                response.errorCode = readScalar();
+            } else if ("message".equals(key)) {
+                response.errorMessage = readScalar();
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readResults(OscResponse response, OnEntryListener listener) throws IOException {
+        if (!peekIs('{')) {
+            skipValue();
+            return;
+        }
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            if ("entries".equals(key)) {
+                readEntries(listener);
+            } else if ("totalEntries".equals(key)) {
+                response.totalEntries = (int) readLong(-1);
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readEntries(OnEntryListener listener) throws IOException {
+        if (!peekIs('[')) {
+            skipValue();
+            return;
+        }
+        expect('[');
+        if (consumeIf(']')) {
+            return;
+        }
+        do {
+            if (peekIs('{')) {
+                listener.onEntry(readEntry());
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect(']');
+    }
+
+    private OscFileEntry readEntry() throws IOException {
+        OscFileEntry entry = new OscFileEntry();
+        expect('{');
+        if (consumeIf('}')) {
+            return entry;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "name":
+                    entry.name = readStringOrNull();
+                    break;
+                case "fileUrl":
+                    entry.fileUrl = readStringOrNull();
+                    break;
+                case "size":
+                    entry.size = readLong(-1);
+                    break;
+                case "dateTimeZone":
+                    entry.dateTimeZone = readStringOrNull();
+                    break;
+                case "width":
+                    entry.width = (int) readLong(0);
+                    break;
+                case "height":
+                    entry.height = (int) readLong(0);
+                    break;
+                case "isProcessed":
+                    entry.isProcessed = !"false".equals(readScalar());
+                    break;
+                case "previewUrl":
+                    entry.previewUrl = readStringOrNull();
+                    break;
+                default:
+                    skipValue();
+                    break;
+            }
+        } while (consumeIf(','));
+        expect('}');
+        return entry;
+    }
+
+    private long readLong(long defaultValue) throws IOException {
+        String value = readScalar();
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(value);
+            } catch (NumberFormatException ignore) {
+                return defaultValue;
+            }
+        }
+    }
+
+    // Read a string, number or boolean as String, null for null or nested values
+    private String readScalar() throws IOException {
+        skipWhitespace();
+        int c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        mStringBuilder.setLength(0);
+        while ((c = peek()) != EOF && c != ',' && c != '}' && c != ']' && c > ' ') {
+            mStringBuilder.append((char) c);
+            mPos++;
+        }
+        if (mStringBuilder.length() == 0) {
+            throw syntaxError("Expected value");
+        }
+        String literal = mStringBuilder.toString();
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readStringOrNull() throws IOException {
+        skipWhitespace();
+        if (peek() == '"') {
+            return readString();
+        }
+        skipValue();
+        return null;
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        mStringBuilder.setLength(0);
+        while (true) {
+            if (mPos >= mLimit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            // Copy the chars before the next quote or escape at once
+            int start = mPos;
+            while (mPos < mLimit && mBuffer[mPos] != '"' && mBuffer[mPos] != '\\') {
+                mPos++;
+            }
+            mStringBuilder.append(mBuffer, start, mPos - start);
+            if (mPos >= mLimit) {
+                continue;
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return mStringBuilder.toString();
+            }
+            readEscape();
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int escaped = read();
+        switch (escaped) {
+            case EOF:
+                throw syntaxError("Unterminated string");
+            case 'b':
+                mStringBuilder.append('\b');
+                break;
+            case 'f':
+                mStringBuilder.append('\f');
+                break;
+            case 'n':
+                mStringBuilder.append('\n');
+                break;
+            case 'r':
+                mStringBuilder.append('\r');
+                break;
+            case 't':
+                mStringBuilder.append('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    value = (value << 4) | digit;
+                }
+                mStringBuilder.append((char) value);
+                break;
+            default:
+                // '"', '\\', '/'
+                mStringBuilder.append((char) escaped);
+                break;
+        }
+    }
+
+    private void skipValue() throws IOException {
+        skipWhitespace();
+        int c = peek();
+        if (c == '"') {
+            mPos++;
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while ((c = read()) != EOF) {
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw syntaxError("Unterminated value");
+        } else {
+            readScalar();
+        }
+    }
+
+    // The opening quote is consumed
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '\\') {
+                read();
+            } else if (c == '"') {
+                return;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (true) {
+            while (mPos < mLimit) {
+                if (mBuffer[mPos] > ' ') {
+                    return;
+                }
+                mPos++;
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (mPos >= mLimit && !fill()) {
+            return EOF;
+        }
+        return mBuffer[mPos];
+    }
+
+    private int read() throws IOException {
+        if (mPos >= mLimit && !fill()) {
+            return EOF;
+        }
+        return mBuffer[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        mOffset += mLimit;
+        mPos = 0;
+        mLimit = 0;
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mLimit = count;
+        return true;
+    }
+
+    private boolean peekIs(char c) throws IOException {
+        skipWhitespace();
+        return peek() == c;
+    }
+
+    private boolean consumeIf(char c) throws IOException {
+        if (peekIs(c)) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws IOException {
+        if (!consumeIf(c)) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at " + (mOffset + mPos) + " of OSC response");
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.arashivision.sdk.demo.osc.decoder;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Fields of the OSC response envelope decoded by {@link OscResponseDecoder}
+ */
+public class OscResponse {
+
+    // OSC command will return the states below
+    public static final String STATE_DONE = "done";
+    public static final String STATE_IN_PROGRESS = "inProgress";
+    public static final String STATE_ERROR = "error";
+
+    private static final String[] EMPTY_URLS = new String[0];
+
+    String state;
+    String id;
+    String errorCode;
+    String errorMessage;
+    String stateFingerprint;
+    String[] fileGroup;
+    String[] fileUrl;
+    String[] fileUrls;
+    int totalEntries = -1;
+
+    OscResponse() {
+    }
+
+    @Nullable
+    public String getState() {
+        return state;
+    }
+
+    public boolean isDone() {
+        return STATE_DONE.equals(state);
+    }
+
+    public boolean isInProgress() {
+        return STATE_IN_PROGRESS.equals(state);
+    }
+
+    public boolean isError() {
+        return STATE_ERROR.equals(state);
+    }
+
+    @Nullable
+    public String getId() {
+        return id;
+    }
+
+    @Nullable
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    @Nullable
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return "totalEntries" of camera.listFiles, -1 if absent
+     */
+    public int getTotalEntries() {
+        return totalEntries;
+    }
+
+    /**
+     * Returned by "/osc/state" and "/osc/checkForUpdates"
+     */
+    @Nullable
+    public String getStateFingerprint() {
+        return stateFingerprint;
+    }
+
+    /**
+     * File address of camera.takePicture, "results._fileGroup" first, then "results.fileUrl"
+     */
+    public String[] getPictureUrls() {
+        if (fileGroup != null && fileGroup.length > 0) {
+            return fileGroup;
+        }
+        return fileUrl != null ? fileUrl : EMPTY_URLS;
+    }
+
+    /**
+     * File address of camera.stopCapture, "results.fileUrls"
+     */
+    public String[] getRecordUrls() {
+        return fileUrls != null ? fileUrls : EMPTY_URLS;
+    }
+
+    /**
+     * Same format as the error message of OSC before: "code. message."
+     */
+    public String formatError() {
+        String code = errorCode != null ? errorCode + ". " : "";
+        String message = errorMessage != null ? errorMessage + "." : "";
+        return code + message;
+    }
+
+}
@@ -0,0 +1,360 @@
+package com.arashivision.sdk.demo.osc.decoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decode the OSC response envelope in a single pass.
+ * <p>
+ * Only "state", "id", "stateFingerprint" ("fingerprint" of /osc/state), "error.code", "error.message" and the file address of
+ * "results" ("_fileGroup", "fileUrl", "fileUrls") are extracted, other values are skipped without
+ * creating any object. Strings without escapes are copied once with substring().
+ */
+public class OscResponseDecoder {
+
+    private final String mJson;
+    private int mPos;
+
+    private OscResponseDecoder(String json) {
+        mJson = json;
+    }
+
+    /**
+     * @param json Response body of OSC
+     * @throws IllegalArgumentException if the body is not a JSON object
+     */
+    @NonNull
+    public static OscResponse decode(@NonNull String json) {
+        OscResponse response = new OscResponse();
+        new OscResponseDecoder(json).readEnvelope(response);
+        return response;
+    }
+
+    private void readEnvelope(OscResponse response) {
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "state":
+                    response.state = readStringOrNull();
+                    break;
+                case "id":
+                    response.id = readScalar();
+                    break;
+                case "stateFingerprint":
+                case "fingerprint":
+                    response.stateFingerprint = readStringOrNull();
+                    break;
+                case "error":
+                    readError(response);
+                    break;
+                case "results":
+                    readResults(response);
+                    break;
+                default:
+                    skipValue();
+                    break;
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readError(OscResponse response) {
+        if (!peekIs('{')) {
+            skipValue();
+            return;
+        }
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            if ("code".equals(key)) {
+                response.errorCode = readScalar();
+            } else if ("message".equals(key)) {
+                response.errorMessage = readScalar();
+            } else {
+                skipValue();
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    private void readResults(OscResponse response) {
+        if (!peekIs('{')) {
+            skipValue();
+            return;
+        }
+        expect('{');
+        if (consumeIf('}')) {
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "_fileGroup":
+                    response.fileGroup = readUrls();
+                    break;
+                case "fileUrl":
+                    response.fileUrl = readUrls();
+                    break;
+                case "fileUrls":
+                    response.fileUrls = readUrls();
+                    break;
+                default:
+                    skipValue();
+                    break;
+            }
+        } while (consumeIf(','));
+        expect('}');
+    }
+
+    // Accept an array of strings, or a single string separated by ","
+    private String[] readUrls() {
+        skipWhitespace();
+        char c = current();
+        if (c == '[') {
+            mPos++;
+            if (consumeIf(']')) {
+                return new String[0];
+            }
+            List<String> urls = new ArrayList<>(4);
+            do {
+                String url = readStringOrNull();
+                if (url != null && !url.isEmpty()) {
+                    urls.add(url);
+                }
+            } while (consumeIf(','));
+            expect(']');
+            return urls.toArray(new String[0]);
+        } else if (c == '"') {
+            return splitUrls(readString());
+        }
+        skipValue();
+        return null;
+    }
+
+    private static String[] splitUrls(String value) {
+        if (value.isEmpty()) {
+            return new String[0];
+        }
+        int count = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == ',') {
+                count++;
+            }
+        }
+        String[] urls = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            urls[i] = value.substring(start, end).trim();
+            start = end + 1;
+        }
+        return urls;
+    }
+
+    // Read a string, number or boolean as String, null for null or nested values
+    private String readScalar() {
+        skipWhitespace();
+        char c = current();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        int start = mPos;
+        skipLiteral();
+        String literal = mJson.substring(start, mPos);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readStringOrNull() {
+        skipWhitespace();
+        if (current() == '"') {
+            return readString();
+        }
+        skipValue();
+        return null;
+    }
+
+    private String readString() {
+        expect('"');
+        int start = mPos;
+        int length = mJson.length();
+        while (mPos < length) {
+            char c = mJson.charAt(mPos);
+            if (c == '"') {
+                String value = mJson.substring(start, mPos);
+                mPos++;
+                return value;
+            }
+            if (c == '\\') {
+                return readEscapedString(start);
+            }
+            mPos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readEscapedString(int start) {
+        StringBuilder builder = new StringBuilder(mPos - start + 16);
+        builder.append(mJson, start, mPos);
+        int length = mJson.length();
+        while (mPos < length) {
+            char c = mJson.charAt(mPos++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (mPos >= length) {
+                break;
+            }
+            char escaped = mJson.charAt(mPos++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (mPos + 4 > length) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    builder.append((char) Integer.parseInt(mJson.substring(mPos, mPos + 4), 16));
+                    mPos += 4;
+                    break;
+                default:
+                    // '"', '\\', '/'
+                    builder.append(escaped);
+                    break;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        char c = current();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            int length = mJson.length();
+            while (mPos < length) {
+                c = mJson.charAt(mPos);
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        mPos++;
+                        return;
+                    }
+                }
+                mPos++;
+            }
+            throw syntaxError("Unterminated " + (c == '{' ? "object" : "array"));
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void skipString() {
+        mPos++;
+        int length = mJson.length();
+        while (mPos < length) {
+            char c = mJson.charAt(mPos++);
+            if (c == '\\') {
+                mPos++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipLiteral() {
+        int start = mPos;
+        int length = mJson.length();
+        while (mPos < length) {
+            char c = mJson.charAt(mPos);
+            if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                break;
+            }
+            mPos++;
+        }
+        if (mPos == start) {
+            throw syntaxError("Expected value");
+        }
+    }
+
+    private void skipWhitespace() {
+        int length = mJson.length();
+        while (mPos < length && mJson.charAt(mPos) <= ' ') {
+            mPos++;
+        }
+    }
+
+    private char current() {
+        if (mPos >= mJson.length()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mJson.charAt(mPos);
+    }
+
+    private boolean peekIs(char c) {
+        skipWhitespace();
+        return mPos < mJson.length() && mJson.charAt(mPos) == c;
+    }
+
+    private boolean consumeIf(char c) {
+        if (peekIs(c)) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consumeIf(c)) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at " + mPos + " of OSC response");
+    }
+
+}
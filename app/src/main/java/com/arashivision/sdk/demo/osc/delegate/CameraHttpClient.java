@@ -0,0 +1,150 @@
+package com.arashivision.sdk.demo.osc.delegate;
+
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.SocketFactory;
+
+import androidx.annotation.NonNull;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * OkHttpClient for the OSC control commands only.
+ * <p>
+ * It does not share the dispatcher or the connection pool with the OkGo client used by file
+ * downloads, so a command is never queued behind a download. There is only one host (the camera),
+ * so the idle connections are kept alive for a long time and could be opened in advance by prewarm().
+ */
+public class CameraHttpClient {
+
+    private static final int MAX_REQUESTS = 8;
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_DURATION = 5; // minutes
+
+    private static class CameraHttpClientHolder {
+        private static final CameraHttpClient instance = new CameraHttpClient();
+    }
+
+    public static CameraHttpClient getInstance() {
+        return CameraHttpClientHolder.instance;
+    }
+
+    private final OkHttpClient mClient;
+    private final AtomicBoolean mPrewarming = new AtomicBoolean(false);
+
+    private CameraHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        // All requests go to the camera, don't limit them by host
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS);
+        mClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES))
+                .socketFactory(new NoDelaySocketFactory(SocketFactory.getDefault()))
+                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    @NonNull
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * Open a connection to the camera in advance, so the first command does not pay for the TCP handshake.
+     * Call it when the camera is connected.
+     */
+    public void prewarm() {
+        if (InstaCameraManager.getInstance().getCameraConnectedType() == InstaCameraManager.CONNECT_TYPE_NONE
+                || !mPrewarming.compareAndSet(false, true)) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(InstaCameraManager.getInstance().getCameraHttpPrefix() + "/osc/info")
+                .get()
+                .build();
+        mClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                mPrewarming.set(false);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                // Read the body so the connection goes back to the pool
+                try (Response r = response) {
+                    r.body().string();
+                } catch (IOException ignore) {
+                } finally {
+                    mPrewarming.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the idle connections, call it when the camera is disconnected
+     */
+    public void evictConnections() {
+        mClient.connectionPool().evictAll();
+    }
+
+    // Commands are small, send them without waiting for the ACK of the previous segment (Nagle)
+    private static class NoDelaySocketFactory extends SocketFactory {
+
+        private final SocketFactory mDelegate;
+
+        NoDelaySocketFactory(SocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(mDelegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(mDelegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(mDelegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket configure(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            return socket;
+        }
+    }
+
+}
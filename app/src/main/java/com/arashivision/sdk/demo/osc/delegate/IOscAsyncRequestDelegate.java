@@ -0,0 +1,61 @@
+package com.arashivision.sdk.demo.osc.delegate;
+
+import com.arashivision.sdk.demo.osc.OSCResult;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+
+import java.util.Map;
+
+/**
+ * Request delegate which sends requests asynchronously.
+ * If the delegate set to OscManager also implements this interface, the requests could be
+ * aborted by OscRequestHandle.cancel() and each request has its own deadline.
+ */
+public interface IOscAsyncRequestDelegate {
+
+    interface Callback {
+        /**
+         * @param result Network Request Response Body or Error Message
+         */
+        void onResult(OSCResult result);
+    }
+
+    interface Call {
+        /**
+         * Abort the request, the callback may not be called after this
+         */
+        void cancel();
+    }
+
+    /**
+     * Send a Http network request by Get asynchronously
+     *
+     * @param url       Request address
+     * @param headerMap HTTP request headers to use
+     * @param timeout   Deadline in ms of the whole call, including connecting and reading the body
+     * @param callback  Called on a background thread
+     */
+    Call enqueueGet(String url, Map<String, String> headerMap, long timeout, Callback callback);
+
+    /**
+     * Send a Http network request by Post asynchronously
+     *
+     * @param url       Request address
+     * @param content   osc command content
+     * @param headerMap HTTP request headers to use
+     * @param timeout   Deadline in ms of the whole call, including connecting and reading the body
+     * @param callback  Called on a background thread
+     */
+    Call enqueuePost(String url, String content, Map<String, String> headerMap, long timeout, Callback callback);
+
+    /**
+     * Send a Http network request by Post asynchronously
+     *
+     * @param url       Request address
+     * @param command   osc command
+     * @param headerMap HTTP request headers to use
+     * @param timeout   Deadline in ms of the whole call, including connecting and reading the body
+     * @param callback  Called on a background thread
+     */
+    Call enqueuePost(String url, OscCommand command, Map<String, String> headerMap, long timeout, Callback callback);
+
+}
@@ -1,7 +1,11 @@
 package com.arashivision.sdk.demo.osc.delegate;
 
 import com.arashivision.sdk.demo.osc.OSCResult;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Map;
 
 public interface IOscRequestDelegate {
@@ -25,4 +29,35 @@ public interface IOscRequestDelegate {
      */
     OSCResult sendRequestByPost(String url, String content, Map<String, String> headerMap);
 
+    /**
+     * Send a Http network request by Post
+     * Override it to write the command into the request body directly
+     *
+     * @param url       Request address
+     * @param command   osc command
+     * @param headerMap HTTP request headers to use
+     * @return Network Request Response Body or Error Message
+     */
+    default OSCResult sendRequestByPost(String url, OscCommand command, Map<String, String> headerMap) {
+        return sendRequestByPost(url, command.toJson(), headerMap);
+    }
+
+    /**
+     * Send a Http network request by Post and read the response body as a stream
+     * Override it to decode large responses, such as camera.listFiles, without buffering the whole body
+     *
+     * @param url       Request address
+     * @param command   osc command
+     * @param headerMap HTTP request headers to use
+     * @return Reader of the response body, the caller must close it
+     * @throws IOException if the request failed, the message is the error message
+     */
+    default Reader openRequestByPost(String url, OscCommand command, Map<String, String> headerMap) throws IOException {
+        OSCResult result = sendRequestByPost(url, command, headerMap);
+        if (!result.isSuccessful()) {
+            throw new IOException(result.getResult());
+        }
+        return new StringReader(result.getResult());
+    }
+
 }
@@ -0,0 +1,152 @@
+package com.arashivision.sdk.demo.osc.delegate;
+
+import com.arashivision.sdk.demo.osc.OSCResult;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Request delegate on OkHttp which also supports asynchronous and cancellable requests
+ */
+public class OkHttpOscRequestDelegate implements IOscRequestDelegate, IOscAsyncRequestDelegate {
+
+    private final OkHttpClient mClient;
+
+    // OscManager always passes the same immutable header map, so convert it only once
+    private Map<String, String> mCachedHeaderMap;
+    private Headers mCachedHeaders;
+
+    /**
+     * Use the dedicated camera client, see CameraHttpClient
+     */
+    public OkHttpOscRequestDelegate() {
+        this(CameraHttpClient.getInstance().getClient());
+    }
+
+    public OkHttpOscRequestDelegate(@NonNull OkHttpClient client) {
+        mClient = client;
+    }
+
+    @Override
+    public OSCResult sendRequestByGet(String url, Map<String, String> headerMap) {
+        return execute(newGetCall(url, headerMap));
+    }
+
+    @Override
+    public OSCResult sendRequestByPost(String url, String content, Map<String, String> headerMap) {
+        return execute(newPostCall(url, RequestBody.create(OscCommandRequestBody.MEDIA_TYPE_JSON, content), headerMap));
+    }
+
+    @Override
+    public OSCResult sendRequestByPost(String url, OscCommand command, Map<String, String> headerMap) {
+        return execute(newPostCall(url, new OscCommandRequestBody(command), headerMap));
+    }
+
+    @Override
+    public Reader openRequestByPost(String url, OscCommand command, Map<String, String> headerMap) throws IOException {
+        Response response = newPostCall(url, new OscCommandRequestBody(command), headerMap).execute();
+        if (response.isSuccessful()) {
+            return response.body().charStream();
+        }
+        response.close();
+        throw new IOException(response.message());
+    }
+
+    @Override
+    public Call enqueueGet(String url, Map<String, String> headerMap, long timeout, Callback callback) {
+        return enqueue(newGetCall(url, headerMap), timeout, callback);
+    }
+
+    @Override
+    public Call enqueuePost(String url, String content, Map<String, String> headerMap, long timeout, Callback callback) {
+        return enqueue(newPostCall(url, RequestBody.create(OscCommandRequestBody.MEDIA_TYPE_JSON, content), headerMap), timeout, callback);
+    }
+
+    @Override
+    public Call enqueuePost(String url, OscCommand command, Map<String, String> headerMap, long timeout, Callback callback) {
+        return enqueue(newPostCall(url, new OscCommandRequestBody(command), headerMap), timeout, callback);
+    }
+
+    private okhttp3.Call newGetCall(String url, Map<String, String> headerMap) {
+        Request request = new Request.Builder()
+                .url(url)
+                .headers(getHeaders(headerMap))
+                .get()
+                .build();
+        return mClient.newCall(request);
+    }
+
+    private okhttp3.Call newPostCall(String url, RequestBody requestBody, Map<String, String> headerMap) {
+        Request request = new Request.Builder()
+                .url(url)
+                .headers(getHeaders(headerMap))
+                .post(requestBody)
+                .build();
+        return mClient.newCall(request);
+    }
+
+    private OSCResult execute(okhttp3.Call call) {
+        try (Response response = call.execute()) {
+            return toOscResult(response);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new OSCResult(false, e.getMessage());
+        }
+    }
+
+    private Call enqueue(okhttp3.Call call, long timeout, Callback callback) {
+        if (timeout > 0) {
+            call.timeout().timeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(@NonNull okhttp3.Call call, @NonNull IOException e) {
+                if (!call.isCanceled()) {
+                    e.printStackTrace();
+                }
+                callback.onResult(new OSCResult(false, e.getMessage()));
+            }
+
+            @Override
+            public void onResponse(@NonNull okhttp3.Call call, @NonNull Response response) {
+                OSCResult result;
+                try (Response r = response) {
+                    result = toOscResult(r);
+                } catch (IOException e) {
+                    result = new OSCResult(false, e.getMessage());
+                }
+                callback.onResult(result);
+            }
+        });
+        return call::cancel;
+    }
+
+    private static OSCResult toOscResult(Response response) throws IOException {
+        if (response.isSuccessful()) {
+            return new OSCResult(true, response.body().string(), response.code());
+        } else {
+            return new OSCResult(false, response.message(), response.code());
+        }
+    }
+
+    private synchronized Headers getHeaders(Map<String, String> headerMap) {
+        if (headerMap == mCachedHeaderMap) {
+            return mCachedHeaders;
+        }
+        Headers headers = Headers.of(headerMap);
+        mCachedHeaderMap = headerMap;
+        mCachedHeaders = headers;
+        return headers;
+    }
+
+}
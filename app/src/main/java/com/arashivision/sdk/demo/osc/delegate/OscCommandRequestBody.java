@@ -0,0 +1,38 @@
+package com.arashivision.sdk.demo.osc.delegate;
+
+import com.arashivision.sdk.demo.osc.command.OscCommand;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Write the OscCommand into the body sink without creating the JSON string
+ */
+class OscCommandRequestBody extends RequestBody {
+
+    static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json");
+
+    private final OscCommand mCommand;
+
+    OscCommandRequestBody(OscCommand command) {
+        mCommand = command;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE_JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return mCommand.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        mCommand.writeTo(sink);
+    }
+}
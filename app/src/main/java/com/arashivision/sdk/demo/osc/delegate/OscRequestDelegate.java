@@ -1,32 +1,39 @@
 package com.arashivision.sdk.demo.osc.delegate;
 
 import com.arashivision.sdk.demo.osc.OSCResult;
+import com.arashivision.sdk.demo.osc.command.OscCommand;
 import com.lzy.okgo.OkGo;
 import com.lzy.okgo.model.HttpHeaders;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Map;
 
-import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
  * This demo use OkGo to implements Http Request
  * https://github.com/jeasonlzy/okhttp-OkGo
+ * Requests are sent by CameraHttpClient, not the OkGo client shared with file downloads
  */
 public class OscRequestDelegate implements IOscRequestDelegate {
 
+    // OscManager always passes the same immutable header map, so convert it only once
+    private Map<String, String> mCachedHeaderMap;
+    private HttpHeaders mCachedHttpHeaders;
+
     @Override
     public OSCResult sendRequestByGet(String url, Map<String, String> headerMap) {
         try {
             Response response = OkGo.get(url)
+                    .client(CameraHttpClient.getInstance().getClient())
                     .headers(getHttpHeaders(headerMap))
                     .execute();
             if (response.isSuccessful()) {
-                return new OSCResult(true, response.body().string());
+                return new OSCResult(true, response.body().string(), response.code());
             } else {
-                return new OSCResult(false, response.message());
+                return new OSCResult(false, response.message(), response.code());
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -36,17 +43,25 @@ public class OscRequestDelegate implements IOscRequestDelegate {
 
     @Override
     public OSCResult sendRequestByPost(String url, String content, Map<String, String> headerMap) {
+        return sendRequestByPost(url, RequestBody.create(OscCommandRequestBody.MEDIA_TYPE_JSON, content), headerMap);
+    }
+
+    @Override
+    public OSCResult sendRequestByPost(String url, OscCommand command, Map<String, String> headerMap) {
+        return sendRequestByPost(url, new OscCommandRequestBody(command), headerMap);
+    }
+
+    private OSCResult sendRequestByPost(String url, RequestBody requestBody, Map<String, String> headerMap) {
         try {
-            MediaType mediaType = MediaType.parse("application/json");
-            RequestBody requestBody = RequestBody.create(mediaType, content);
             Response response = OkGo.post(url)
+                    .client(CameraHttpClient.getInstance().getClient())
                     .headers(getHttpHeaders(headerMap))
                     .upRequestBody(requestBody)
                     .execute();
             if (response.isSuccessful()) {
-                return new OSCResult(true, response.body().string());
+                return new OSCResult(true, response.body().string(), response.code());
             } else {
-                return new OSCResult(false, response.message());
+                return new OSCResult(false, response.message(), response.code());
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -54,12 +69,31 @@ public class OscRequestDelegate implements IOscRequestDelegate {
         }
     }
 
-    private HttpHeaders getHttpHeaders(Map<String, String> headerMap) {
+    @Override
+    public Reader openRequestByPost(String url, OscCommand command, Map<String, String> headerMap) throws IOException {
+        Response response = OkGo.post(url)
+                .client(CameraHttpClient.getInstance().getClient())
+                .headers(getHttpHeaders(headerMap))
+                .upRequestBody(new OscCommandRequestBody(command))
+                .execute();
+        if (response.isSuccessful()) {
+            return response.body().charStream();
+        }
+        response.close();
+        throw new IOException(response.message());
+    }
+
+    private synchronized HttpHeaders getHttpHeaders(Map<String, String> headerMap) {
+        if (headerMap == mCachedHeaderMap) {
+            return mCachedHttpHeaders;
+        }
         HttpHeaders httpHeaders = new HttpHeaders();
         for (String name : headerMap.keySet()) {
             String value = headerMap.get(name);
             httpHeaders.put(name, value);
         }
+        mCachedHeaderMap = headerMap;
+        mCachedHttpHeaders = httpHeaders;
         return httpHeaders;
     }
 
@@ -0,0 +1,246 @@
+package com.arashivision.sdk.demo.osc.executor;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Execute OSC requests on independent lanes.
+ * Each lane has its own worker thread and a bounded queue, so a long capture status polling
+ * will not block quick state/info queries or file operations.
+ * Requests in the same lane are executed in the order they were submitted.
+ * <p>
+ * When the queue of a lane is full, the RejectionPolicy of the lane decides whether the new
+ * request or the oldest queued droppable request is rejected. Only requests submitted with an
+ * onDropped callback are droppable, such as repeatable reads. Commands like startRecord or
+ * stopRecord are never dropped.
+ */
+public class OscLaneExecutor {
+
+    public enum Lane {
+        // Commands which poll "/osc/commands/status" until done, such as camera.takePicture
+        CAPTURE(8),
+        // Quick requests, such as /osc/info, /osc/state, camera.setOptions
+        QUICK(32),
+        // File operations, such as camera.listFiles, camera.delete
+        FILE(16);
+
+        private final int defaultCapacity;
+
+        Lane(int defaultCapacity) {
+            this.defaultCapacity = defaultCapacity;
+        }
+
+        public int getDefaultCapacity() {
+            return defaultCapacity;
+        }
+    }
+
+    public enum RejectionPolicy {
+        // Reject the new request, default
+        REJECT_NEW,
+        // Drop the oldest queued droppable request to accept the new one, e.g. when only the latest state
+        // query matters. The new request is rejected if none is droppable
+        DROP_OLDEST
+    }
+
+    private final Map<Lane, LaneWorker> mWorkers = new EnumMap<>(Lane.class);
+
+    public OscLaneExecutor() {
+        for (Lane lane : Lane.values()) {
+            mWorkers.put(lane, new LaneWorker(lane, lane.getDefaultCapacity()));
+        }
+    }
+
+    /**
+     * Submit a request to the lane
+     *
+     * @param lane Lane to execute on
+     * @param task Request to execute
+     * @return false if the queue of this lane is full and the task was rejected
+     */
+    public boolean execute(@NonNull Lane lane, @NonNull Runnable task) {
+        return execute(lane, task, null);
+    }
+
+    /**
+     * Submit a request to the lane
+     *
+     * @param lane      Lane to execute on
+     * @param task      Request to execute
+     * @param onDropped Called if the queued task is dropped for a newer one by DROP_OLDEST. Null if the
+     *                  task must not be dropped, e.g. a command which changes the camera
+     * @return false if the queue of this lane is full and the task was rejected
+     */
+    public boolean execute(@NonNull Lane lane, @NonNull Runnable task, @Nullable Runnable onDropped) {
+        return mWorkers.get(lane).execute(new LaneTask(task, onDropped));
+    }
+
+    /**
+     * @param capacity Max number of queued requests of the lane, the default capacity of the lane if not set
+     * @param policy   Which request to reject when the queue is full, default REJECT_NEW
+     */
+    public void setQueuePolicy(@NonNull Lane lane, int capacity, @NonNull RejectionPolicy policy) {
+        mWorkers.get(lane).setQueuePolicy(capacity, policy);
+    }
+
+    /**
+     * Get the queue metrics of the lane
+     */
+    @NonNull
+    public LaneStats getLaneStats(@NonNull Lane lane) {
+        return mWorkers.get(lane).getStats();
+    }
+
+    public void shutdown() {
+        for (LaneWorker worker : mWorkers.values()) {
+            worker.mExecutor.shutdownNow();
+        }
+    }
+
+    private static class LaneTask implements Runnable {
+
+        private final Runnable mTask;
+        private final Runnable mOnDropped;
+        private Runnable mOnFinished;
+
+        private LaneTask(Runnable task, Runnable onDropped) {
+            mTask = task;
+            mOnDropped = onDropped;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } finally {
+                mOnFinished.run();
+            }
+        }
+    }
+
+    private static class LaneWorker {
+
+        private final Lane mLane;
+        private volatile int mCapacity;
+        private volatile RejectionPolicy mPolicy = RejectionPolicy.REJECT_NEW;
+        private final ThreadPoolExecutor mExecutor;
+        private final AtomicInteger mPeakQueueDepth = new AtomicInteger(0);
+        private final AtomicLong mSubmittedCount = new AtomicLong(0);
+        private final AtomicLong mCompletedCount = new AtomicLong(0);
+        private final AtomicLong mRejectedCount = new AtomicLong(0);
+        private final AtomicLong mDroppedCount = new AtomicLong(0);
+
+        private LaneWorker(Lane lane, int capacity) {
+            mLane = lane;
+            mCapacity = capacity;
+            // The capacity is checked on submit, so it could be changed
+            mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "OscLane-" + lane.name());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        private void setQueuePolicy(int capacity, RejectionPolicy policy) {
+            mCapacity = Math.max(1, capacity);
+            mPolicy = policy;
+        }
+
+        private boolean execute(LaneTask task) {
+            task.mOnFinished = mCompletedCount::incrementAndGet;
+            LaneTask dropped = null;
+            synchronized (this) {
+                if (mExecutor.getQueue().size() >= mCapacity) {
+                    if (mPolicy != RejectionPolicy.DROP_OLDEST || (dropped = pollDroppable()) == null) {
+                        mRejectedCount.incrementAndGet();
+                        return false;
+                    }
+                    mDroppedCount.incrementAndGet();
+                }
+                try {
+                    mExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    mRejectedCount.incrementAndGet();
+                    return false;
+                }
+            }
+            if (dropped != null) {
+                dropped.mOnDropped.run();
+            }
+            mSubmittedCount.incrementAndGet();
+            int depth = mExecutor.getQueue().size();
+            mPeakQueueDepth.accumulateAndGet(depth, Math::max);
+            return true;
+        }
+
+        // Guarded by this. Remove the oldest queued task which could be dropped
+        private LaneTask pollDroppable() {
+            for (Runnable queued : mExecutor.getQueue()) {
+                if (queued instanceof LaneTask && ((LaneTask) queued).mOnDropped != null
+                        && mExecutor.getQueue().remove(queued)) {
+                    return (LaneTask) queued;
+                }
+            }
+            return null;
+        }
+
+        private LaneStats getStats() {
+            return new LaneStats(mLane, mCapacity, mExecutor.getQueue().size(), mPeakQueueDepth.get(),
+                    mExecutor.getActiveCount(), mSubmittedCount.get(), mCompletedCount.get(), mRejectedCount.get(), mDroppedCount.get());
+        }
+    }
+
+    public static class LaneStats {
+
+        public final Lane lane;
+        public final int capacity;
+        public final int queueDepth;
+        public final int peakQueueDepth;
+        public final int activeCount;
+        public final long submittedCount;
+        public final long completedCount;
+        public final long rejectedCount;
+        // Queued requests dropped for newer ones by DROP_OLDEST
+        public final long droppedCount;
+
+        private LaneStats(Lane lane, int capacity, int queueDepth, int peakQueueDepth, int activeCount,
+                          long submittedCount, long completedCount, long rejectedCount, long droppedCount) {
+            this.lane = lane;
+            this.capacity = capacity;
+            this.queueDepth = queueDepth;
+            this.peakQueueDepth = peakQueueDepth;
+            this.activeCount = activeCount;
+            this.submittedCount = submittedCount;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+            this.droppedCount = droppedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "lane=" + lane +
+                    ", capacity=" + capacity +
+                    ", queueDepth=" + queueDepth +
+                    ", peakQueueDepth=" + peakQueueDepth +
+                    ", activeCount=" + activeCount +
+                    ", submittedCount=" + submittedCount +
+                    ", completedCount=" + completedCount +
+                    ", rejectedCount=" + rejectedCount +
+                    ", droppedCount=" + droppedCount +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.arashivision.sdk.demo.osc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets from 5ms to 60s.
+ * Percentiles are reported as the upper bound of the bucket, which is accurate enough to compare cameras.
+ */
+class OscLatencyHistogram {
+
+    // Upper bounds in ms, the last bucket holds everything above
+    static final long[] BOUNDS = {5, 10, 20, 50, 100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 10000, 20000, 60000};
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long latencyMs) {
+        int index = 0;
+        while (index < BOUNDS.length && latencyMs > BOUNDS[index]) {
+            index++;
+        }
+        mCounts.incrementAndGet(index);
+        mCount.incrementAndGet();
+        mSum.addAndGet(latencyMs);
+        long max;
+        while (latencyMs > (max = mMax.get()) && !mMax.compareAndSet(max, latencyMs)) {
+            // retry
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile 0 ~ 100
+     * @return latency in ms, 0 if nothing recorded
+     */
+    long getPercentile(double percentile) {
+        long[] counts = new long[mCounts.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Never report more than the real max
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], getMax()) : getMax();
+            }
+        }
+        return getMax();
+    }
+
+    long[] getBucketCounts() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
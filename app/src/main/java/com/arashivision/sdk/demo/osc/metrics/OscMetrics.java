@@ -0,0 +1,225 @@
+package com.arashivision.sdk.demo.osc.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Metrics of the OSC requests, grouped by command name.
+ * <p>
+ * The name is the command name for "/osc/commands/execute" (such as camera.takePicture), otherwise
+ * the api path (such as /osc/commands/status for status polling). Each group counts requests,
+ * errors and retries, tracks the requests in flight and keeps a latency histogram.
+ * Errors are also counted by code: the OSC error code, or "transport" if the HTTP request failed.
+ * <p>
+ * Use OscManager.getInstance().getMetrics() to query it, or dump() it to a file.
+ */
+public class OscMetrics {
+
+    public static final String ERROR_TRANSPORT = "transport";
+    public static final String ERROR_CANCELED = "canceled";
+
+    private final Map<String, CommandMetrics> mCommands = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> mErrorCodes = new ConcurrentHashMap<>();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private volatile long mStartTime = System.currentTimeMillis();
+
+    /**
+     * Called before sending the request
+     *
+     * @return start time to pass to onRequestEnd()
+     */
+    public long onRequestStart(@NonNull String name) {
+        getCommandMetrics(name).inFlight.incrementAndGet();
+        mInFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when the response arrived or the request failed
+     *
+     * @param errorCode null if successful
+     */
+    public void onRequestEnd(@NonNull String name, long startTime, @Nullable String errorCode) {
+        long latencyMs = (System.nanoTime() - startTime) / 1_000_000;
+        CommandMetrics metrics = getCommandMetrics(name);
+        metrics.inFlight.decrementAndGet();
+        mInFlight.decrementAndGet();
+        metrics.requestCount.incrementAndGet();
+        metrics.latency.record(latencyMs);
+        if (errorCode != null) {
+            metrics.errorCount.incrementAndGet();
+            getErrorCounter(errorCode).incrementAndGet();
+        }
+    }
+
+    /**
+     * Count a request sent again, such as the isolated setOptions of a failed batch
+     */
+    public void onRetry(@NonNull String name) {
+        getCommandMetrics(name).retryCount.incrementAndGet();
+    }
+
+    /**
+     * Number of requests in flight of all commands
+     */
+    public int getInFlight() {
+        return mInFlight.get();
+    }
+
+    @NonNull
+    public List<String> getCommandNames() {
+        List<String> names = new ArrayList<>(mCommands.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return null if the command is never sent
+     */
+    @Nullable
+    public CommandStats getCommandStats(@NonNull String name) {
+        CommandMetrics metrics = mCommands.get(name);
+        return metrics == null ? null : metrics.snapshot(name);
+    }
+
+    /**
+     * @return error counts by error code, sorted by code
+     */
+    @NonNull
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mErrorCodes.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Clear all metrics except the requests in flight
+     */
+    public void reset() {
+        for (CommandMetrics metrics : mCommands.values()) {
+            metrics.reset();
+        }
+        mErrorCodes.clear();
+        mStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Write all metrics as text, such as
+     * camera.takePicture count=20 errors=1 retries=0 inFlight=0 mean=850 p50=1000 p90=1500 p99=2000 max=1804
+     */
+    public void dump(@NonNull Writer writer) {
+        PrintWriter printWriter = new PrintWriter(writer);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        printWriter.println("OSC metrics since " + format.format(new Date(mStartTime))
+                + ", dumped at " + format.format(new Date()) + ", inFlight=" + getInFlight());
+        printWriter.println("latency in ms");
+        for (String name : getCommandNames()) {
+            CommandStats stats = getCommandStats(name);
+            if (stats != null) {
+                printWriter.println(stats);
+            }
+        }
+        printWriter.println("errors " + getErrorCounts());
+        printWriter.flush();
+    }
+
+    /**
+     * Append all metrics to the file
+     */
+    public void dump(@NonNull File file) throws IOException {
+        try (Writer writer = new FileWriter(file, true)) {
+            dump(writer);
+        }
+    }
+
+    private CommandMetrics getCommandMetrics(String name) {
+        return mCommands.computeIfAbsent(name, key -> new CommandMetrics());
+    }
+
+    private AtomicLong getErrorCounter(String errorCode) {
+        return mErrorCodes.computeIfAbsent(errorCode, key -> new AtomicLong());
+    }
+
+    private static class CommandMetrics {
+
+        final AtomicLong requestCount = new AtomicLong();
+        final AtomicLong errorCount = new AtomicLong();
+        final AtomicLong retryCount = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final OscLatencyHistogram latency = new OscLatencyHistogram();
+
+        CommandStats snapshot(String name) {
+            return new CommandStats(name, requestCount.get(), errorCount.get(), retryCount.get(), inFlight.get(),
+                    latency.getMean(), latency.getPercentile(50), latency.getPercentile(90),
+                    latency.getPercentile(99), latency.getMax());
+        }
+
+        void reset() {
+            requestCount.set(0);
+            errorCount.set(0);
+            retryCount.set(0);
+            latency.reset();
+        }
+    }
+
+    public static class CommandStats {
+
+        public final String name;
+        public final long requestCount;
+        public final long errorCount;
+        public final long retryCount;
+        public final int inFlight;
+        public final long meanLatency;
+        public final long p50Latency;
+        public final long p90Latency;
+        public final long p99Latency;
+        public final long maxLatency;
+
+        private CommandStats(String name, long requestCount, long errorCount, long retryCount, int inFlight,
+                             long meanLatency, long p50Latency, long p90Latency, long p99Latency, long maxLatency) {
+            this.name = name;
+            this.requestCount = requestCount;
+            this.errorCount = errorCount;
+            this.retryCount = retryCount;
+            this.inFlight = inFlight;
+            this.meanLatency = meanLatency;
+            this.p50Latency = p50Latency;
+            this.p90Latency = p90Latency;
+            this.p99Latency = p99Latency;
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return name +
+                    " count=" + requestCount +
+                    " errors=" + errorCount +
+                    " retries=" + retryCount +
+                    " inFlight=" + inFlight +
+                    " mean=" + meanLatency +
+                    " p50=" + p50Latency +
+                    " p90=" + p90Latency +
+                    " p99=" + p99Latency +
+                    " max=" + maxLatency;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.arashivision.sdk.demo.download;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AdaptiveConcurrencyController through a congested and a recovered link, on a fake clock
+ */
+public class AdaptiveConcurrencyControllerTest {
+
+    private static final int TYPE = 1;
+    private static final long MB = 1024 * 1024;
+
+    private long mTime = 1000;
+    private AdaptiveConcurrencyController mController;
+
+    @Before
+    public void setUp() {
+        mController = new AdaptiveConcurrencyController() {
+            @Override
+            long now() {
+                return mTime;
+            }
+        };
+        mController.setMaxConcurrency(8);
+        mController.init(TYPE, 4, 4 * MB);
+        mController.onDownloadStarted(TYPE);
+        // As many streams as the max, every window is judged
+        for (int i = 0; i < 8; i++) {
+            mController.onStreamStarted(TYPE);
+        }
+    }
+
+    @Test
+    public void recoversAfterCongestion() {
+        window(20, 20 * MB);
+        window(20, 20 * MB);
+        assertEquals(6, mController.getConcurrency(TYPE));
+
+        // The round trip grows beyond twice the lowest one
+        window(100, 20 * MB);
+        assertEquals(3, mController.getConcurrency(TYPE));
+        // Samples of the saturated link right after the decrease do not halve it again
+        window(100, 10 * MB);
+        assertEquals(3, mController.getConcurrency(TYPE));
+
+        // Recovered
+        for (int i = 0; i < 5; i++) {
+            window(20, 20 * MB);
+        }
+        assertEquals(8, mController.getConcurrency(TYPE));
+    }
+
+    @Test
+    public void oneDecreasePerEpoch() {
+        mController.onError(TYPE);
+        mController.onError(TYPE);
+        mController.onError(TYPE);
+        assertEquals(2, mController.getConcurrency(TYPE));
+        assertEquals(2 * MB, mController.getChunkSize(TYPE));
+
+        // The goodput of the lower limit is the new reference, not the one before the decrease
+        window(20, 5 * MB);
+        window(20, 5 * MB);
+        assertEquals(3, mController.getConcurrency(TYPE));
+        mController.onError(TYPE);
+        assertEquals(1, mController.getConcurrency(TYPE));
+    }
+
+    @Test
+    public void minRttExpires() {
+        window(20, 20 * MB);
+        assertEquals(20, mController.getSnapshot(TYPE).minRtt);
+        // The camera moved away, the round trip of the idle link is higher for good
+        for (int i = 0; i < 10; i++) {
+            window(60, 20 * MB);
+        }
+        assertEquals(1, mController.getConcurrency(TYPE));
+        assertEquals(60, mController.getSnapshot(TYPE).minRtt);
+        // No longer compared to the round trip of the closer camera
+        for (int i = 0; i < 5; i++) {
+            window(60, 20 * MB);
+        }
+        assertEquals(6, mController.getConcurrency(TYPE));
+    }
+
+    // One window of 1s with the round trip samples and the bytes received
+    private void window(long rtt, long bytes) {
+        for (int i = 0; i < 16; i++) {
+            mController.onRtt(TYPE, rtt);
+        }
+        mTime += 1000;
+        mController.onBytes(TYPE, bytes);
+    }
+}
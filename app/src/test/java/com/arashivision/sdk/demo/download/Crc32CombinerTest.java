@@ -0,0 +1,49 @@
+package com.arashivision.sdk.demo.download;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Crc32Combiner.combine() against java.util.zip.CRC32 of the concatenated ranges
+ */
+public class Crc32CombinerTest {
+
+    @Test
+    public void combineTwoRanges() {
+        byte[] data = new byte[256 * 1024 + 7];
+        new Random(1).nextBytes(data);
+        for (int split : new int[]{1, 4096, 128 * 1024, data.length - 1}) {
+            long combined = Crc32Combiner.combine(crc(data, 0, split), crc(data, split, data.length), data.length - split);
+            assertEquals("split " + split, crc(data, 0, data.length), combined);
+        }
+    }
+
+    @Test
+    public void combineChunksInOrder() {
+        byte[] data = new byte[1024 * 1024];
+        new Random(2).nextBytes(data);
+        // Uneven chunks, as the adaptive chunk size changes during a download
+        int[] ends = {1, 65536, 65537, 300000, 777777, data.length};
+        long combined = crc(data, 0, ends[0]);
+        for (int i = 1; i < ends.length; i++) {
+            combined = Crc32Combiner.combine(combined, crc(data, ends[i - 1], ends[i]), ends[i] - ends[i - 1]);
+        }
+        assertEquals(crc(data, 0, data.length), combined);
+    }
+
+    @Test
+    public void combineEmptyRange() {
+        byte[] data = {1, 2, 3};
+        assertEquals(crc(data, 0, 3), Crc32Combiner.combine(crc(data, 0, 3), new CRC32().getValue(), 0));
+    }
+
+    private static long crc(byte[] data, int start, int end) {
+        CRC32 crc = new CRC32();
+        crc.update(data, start, end - start);
+        return crc.getValue();
+    }
+}
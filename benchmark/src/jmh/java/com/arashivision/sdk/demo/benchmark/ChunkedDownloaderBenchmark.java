@@ -0,0 +1,135 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.benchmark.simulator.OscCameraSimulator;
+import com.arashivision.sdk.demo.download.ChunkedDownloader;
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChunkedDownloader against the media files of the OscCameraSimulator. Every connection is limited
+ * to the stream bandwidth, like a single TCP stream over the camera Wi-Fi, so the download time shows
+ * how much the parallel chunks gain over one stream.
+ * <p>
+ * With adaptive, parallelChunks is only the start value of the AdaptiveConcurrencyController, its
+ * last snapshot is printed at the end of each trial.
+ * <p>
+ * megabytes is reported per second, i.e. MB/s. The file content is verified once per trial.
+ * <p>
+ * Run with: ./gradlew :benchmark:jmh -Pjmh.includes=ChunkedDownloaderBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class ChunkedDownloaderBenchmark {
+
+    private static final String FILE_NAME = "VID_20240101_120000_00_001.insv";
+
+    @Param({"1", "4"})
+    public int parallelChunks;
+
+    @Param({"67108864"})
+    public long fileSize;
+
+    // Bytes per second of each connection
+    @Param({"20971520"})
+    public long streamBandwidth;
+
+    @Param({"4194304"})
+    public long chunkSize;
+
+    @Param({"false", "true"})
+    public boolean adaptive;
+
+    private OscCameraSimulator mSimulator;
+    private File mFolder;
+    private String mUrl;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mSimulator = new OscCameraSimulator()
+                .setMediaFileSize(fileSize)
+                .setStreamBandwidth(streamBandwidth);
+        mSimulator.start(0);
+        InstaCameraManager.getInstance().setCameraHttpPrefix(mSimulator.getHttpPrefix());
+        ChunkedDownloader.getInstance()
+                .setParallelChunks(InstaCameraManager.CONNECT_TYPE_WIFI, parallelChunks)
+                .setChunkSize(chunkSize)
+                .setMinChunkedLength(0)
+                .setAdaptive(adaptive);
+        ChunkedDownloader.getInstance().getConcurrencyController().reset();
+        mFolder = Files.createTempDirectory("download").toFile();
+        mUrl = mSimulator.getHttpPrefix() + "/DCIM/Camera01/" + FILE_NAME;
+        verify(ChunkedDownloader.getInstance().execute(mUrl, new File(mFolder, FILE_NAME)).file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (adaptive) {
+            System.out.println(ChunkedDownloader.getInstance().getConcurrencyController()
+                    .getSnapshot(InstaCameraManager.CONNECT_TYPE_WIFI));
+        }
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+        mSimulator.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object download(Counters counters) throws Exception {
+        ChunkedDownloader.Result result = ChunkedDownloader.getInstance().execute(mUrl, new File(mFolder, FILE_NAME));
+        counters.megabytes += result.length / 1024.0 / 1024.0;
+        return result;
+    }
+
+    private void verify(File file) throws IOException {
+        if (file.length() != fileSize) {
+            throw new IOException("Length " + file.length() + " != " + fileSize);
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[64 * 1024];
+            long offset = 0;
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] != OscCameraSimulator.getMediaByte(FILE_NAME, offset + i)) {
+                        throw new IOException("Unexpected content at " + (offset + i));
+                    }
+                }
+                offset += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.benchmark.simulator.OscCameraSimulator;
+import com.arashivision.sdk.demo.download.ChunkedDownloader;
+import com.arashivision.sdk.demo.download.DownloadScheduler;
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time from DownloadScheduler.pause() until the running download is stopped and requeued, while its
+ * chunks are in the middle of their bodies. The chunks are much longer than an iteration, so the time
+ * only stays short if the calls being read are aborted.
+ * <p>
+ * Run with: ./gradlew :benchmark:jmh -Pjmh.includes=DownloadSchedulerBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DownloadSchedulerBenchmark {
+
+    private static final String FILE_NAME = "VID_20240101_120000_00_001.insv";
+
+    @Param({"536870912"})
+    public long fileSize;
+
+    // Bytes per second of each connection
+    @Param({"2097152"})
+    public long streamBandwidth;
+
+    @Param({"67108864"})
+    public long chunkSize;
+
+    private final Object mPauseToken = new Object();
+    private OscCameraSimulator mSimulator;
+    private File mFolder;
+    private File mFile;
+    private String mUrl;
+    private DownloadScheduler.Registration mRegistration;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mSimulator = new OscCameraSimulator()
+                .setMediaFileSize(fileSize)
+                .setStreamBandwidth(streamBandwidth);
+        mSimulator.start(0);
+        InstaCameraManager.getInstance().setCameraHttpPrefix(mSimulator.getHttpPrefix());
+        ChunkedDownloader.getInstance()
+                .setChunkSize(chunkSize)
+                .setAdaptive(false);
+        mFolder = Files.createTempDirectory("scheduler").toFile();
+        mFile = new File(mFolder, FILE_NAME);
+        mUrl = mSimulator.getHttpPrefix() + "/DCIM/Camera01/" + FILE_NAME;
+    }
+
+    // Every iteration pauses a download that already receives bytes
+    @Setup(Level.Iteration)
+    public void start() throws Exception {
+        CountDownLatch receiving = new CountDownLatch(1);
+        mRegistration = DownloadScheduler.getInstance().enqueue(mUrl, mFile, DownloadScheduler.Priority.OFFLOAD,
+                new ChunkedDownloader.Callback() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                        receiving.countDown();
+                    }
+
+                    @Override
+                    public void onSuccessful(@NonNull ChunkedDownloader.Result result) {
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                    }
+                });
+        if (!receiving.await(30, TimeUnit.SECONDS)) {
+            throw new IOException("No progress from " + mUrl);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        mRegistration.cancel();
+        DownloadScheduler.getInstance().resume(mPauseToken);
+        ChunkedDownloader.getInstance().discard(mFile);
+        mFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFolder.delete();
+        mSimulator.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object pause() throws Exception {
+        DownloadScheduler.getInstance().pause(mPauseToken);
+        DownloadScheduler.Task task = mRegistration.getTask();
+        while (task.getState() == DownloadScheduler.State.RUNNING) {
+            Thread.sleep(1);
+        }
+        if (task.getState() != DownloadScheduler.State.WAITING) {
+            throw new IOException("Not requeued: " + task.getState());
+        }
+        return task;
+    }
+}
@@ -0,0 +1,151 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.benchmark.simulator.OscCameraSimulator;
+import com.arashivision.sdk.demo.download.DownloadSink;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Write path of one media file download from the OscCameraSimulator over one connection, without a
+ * bandwidth limit.
+ * <ul>
+ * <li>stream: heap byte[] into a growing FileOutputStream, like the OkGo FileCallback</li>
+ * <li>channel: DownloadSink, direct buffers and positional writes into a preallocated FileChannel</li>
+ * </ul>
+ * megabytes is reported per second, i.e. MB/s. The GC count per GB transferred is printed at the end
+ * of each trial.
+ * <p>
+ * Run with: ./gradlew :benchmark:jmh -Pjmh.includes=DownloadSinkBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class DownloadSinkBenchmark {
+
+    private static final String FILE_NAME = "VID_20240101_120000_00_001.insv";
+    // Like OkGo FileCallback
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    @Param({"stream", "channel"})
+    public String sink;
+
+    @Param({"268435456"})
+    public long fileSize;
+
+    private OscCameraSimulator mSimulator;
+    private OkHttpClient mClient;
+    private File mFile;
+    private String mUrl;
+    private long mTransferred;
+    private long mGcCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mSimulator = new OscCameraSimulator().setMediaFileSize(fileSize);
+        mSimulator.start(0);
+        mClient = new OkHttpClient.Builder()
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+        mFile = Files.createTempFile("download", ".insv").toFile();
+        mUrl = mSimulator.getHttpPrefix() + "/DCIM/Camera01/" + FILE_NAME;
+        mTransferred = 0;
+        mGcCount = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        double gigabytes = mTransferred / 1024.0 / 1024.0 / 1024.0;
+        System.out.println(String.format(Locale.US, "%s: %.2fGB transferred, %.1f GC per GB",
+                sink, gigabytes, gigabytes <= 0 ? 0 : mGcCount / gigabytes));
+        mFile.delete();
+        mSimulator.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long download(Counters counters) throws Exception {
+        long gcCount = getGcCount();
+        long length;
+        try (Response response = mClient.newCall(new Request.Builder().url(mUrl).get().build()).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP " + response.code());
+            }
+            length = "channel".equals(sink) ? writeChannel(body) : writeStream(body);
+        }
+        if (length != fileSize) {
+            throw new IOException("Length " + length + " != " + fileSize);
+        }
+        mGcCount += getGcCount() - gcCount;
+        mTransferred += length;
+        counters.megabytes += length / 1024.0 / 1024.0;
+        return length;
+    }
+
+    private long writeStream(ResponseBody body) throws IOException {
+        long length = 0;
+        try (InputStream input = body.byteStream(); FileOutputStream output = new FileOutputStream(mFile)) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+                length += count;
+            }
+            output.getFD().sync();
+        }
+        return length;
+    }
+
+    private long writeChannel(ResponseBody body) throws IOException {
+        try (DownloadSink output = new DownloadSink(mFile)) {
+            output.preallocate(body.contentLength());
+            long length = output.write(body.source(), 0, null, null);
+            output.checkpoint();
+            return length;
+        }
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+}
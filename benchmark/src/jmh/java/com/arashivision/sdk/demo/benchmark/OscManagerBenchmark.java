@@ -0,0 +1,141 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.benchmark.simulator.OscCameraSimulator;
+import com.arashivision.sdk.demo.osc.OscManager;
+import com.arashivision.sdk.demo.osc.callback.IOscCallback;
+import com.arashivision.sdk.demo.osc.delegate.OkHttpOscRequestDelegate;
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+/**
+ * OscManager end to end against the OscCameraSimulator, including the status polling and the
+ * callback dispatch to the "main" thread.
+ * <ul>
+ * <li>takePicture: shots per minute, statusPolls is the number of "/osc/commands/status" requests</li>
+ * <li>startStopRecord: latency of camera.startCapture followed by camera.stopCapture</li>
+ * <li>customRequestState: latency of a "/osc/state" request</li>
+ * </ul>
+ * Run with: ./gradlew :benchmark:jmh -Pjmh.includes=OscManagerBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class OscManagerBenchmark {
+
+    private static final long CALLBACK_TIMEOUT = 60_000;
+
+    @Param({"10"})
+    public long latency;
+
+    @Param({"5"})
+    public long jitter;
+
+    @Param({"300"})
+    public long captureDuration;
+
+    @Param({"0"})
+    public double errorRate;
+
+    private OscCameraSimulator mSimulator;
+    private OscManager mOscManager;
+
+    /**
+     * Counted per benchmark invocation and summed by JMH
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long statusPolls;
+        public long errors;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mSimulator = new OscCameraSimulator()
+                .setLatency(latency, jitter)
+                .setCaptureDuration(captureDuration)
+                .setErrorRate(errorRate);
+        mSimulator.start(0);
+        InstaCameraManager.getInstance().setCameraHttpPrefix(mSimulator.getHttpPrefix());
+        mOscManager = OscManager.getInstance();
+        // The same CameraHttpClient as the app
+        mOscManager.setOscRequestDelegate(new OkHttpOscRequestDelegate());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        // Print the client side view, it includes the time spent in OscManager
+        mOscManager.getMetrics().dump(new PrintWriter(System.out));
+        mOscManager.getMetrics().reset();
+        mSimulator.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MINUTES)
+    public Object takePicture(Counters counters) throws Exception {
+        long polls = mSimulator.getRequestCount("/osc/commands/status");
+        Object result = await(counters, callback -> mOscManager.takePicture(null, callback));
+        counters.statusPolls += mSimulator.getRequestCount("/osc/commands/status") - polls;
+        return result;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object startStopRecord(Counters counters) throws Exception {
+        await(counters, callback -> mOscManager.startRecord(null, callback));
+        return await(counters, callback -> mOscManager.stopRecord(callback));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object customRequestState(Counters counters) throws Exception {
+        return await(counters, callback -> mOscManager.customRequest("/osc/state", "", callback));
+    }
+
+    // Wait for the callback on the main thread
+    private static Object await(Counters counters, Function<IOscCallback, ?> request) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        Object[] result = new Object[1];
+        request.apply(new IOscCallback() {
+            @Override
+            public void onSuccessful(Object object) {
+                result[0] = object;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                counters.errors++;
+                result[0] = message;
+                latch.countDown();
+            }
+        });
+        if (!latch.await(CALLBACK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No callback in " + CALLBACK_TIMEOUT + "ms");
+        }
+        return result[0];
+    }
+}
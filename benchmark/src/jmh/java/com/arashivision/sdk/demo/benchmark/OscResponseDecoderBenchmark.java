@@ -0,0 +1,146 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.osc.decoder.OscListFilesDecoder;
+import com.arashivision.sdk.demo.osc.decoder.OscResponse;
+import com.arashivision.sdk.demo.osc.decoder.OscResponseDecoder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare OscResponseDecoder with the JSONObject + replaceAll() path used by OscManager before.
+ * Run with: ./gradlew :benchmark:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OscResponseDecoderBenchmark {
+
+    private String mInProgress;
+    private String mTakePictureDone;
+    private String mStopCaptureDone;
+    private String mListFilesDone;
+
+    @Setup
+    public void setup() {
+        mInProgress = "{\"name\":\"camera.takePicture\",\"state\":\"inProgress\",\"id\":\"42\",\"progress\":{\"completion\":0.5}}";
+        mTakePictureDone = "{\"name\":\"camera.takePicture\",\"state\":\"done\",\"id\":\"42\",\"results\":{"
+                + "\"fileUrl\":\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/IMG_20240101_120000_00_001.insp\","
+                + "\"_fileGroup\":[\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/IMG_20240101_120000_00_001.insp\","
+                + "\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/IMG_20240101_120000_00_002.insp\","
+                + "\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/IMG_20240101_120000_00_003.insp\"]}}";
+        mStopCaptureDone = "{\"name\":\"camera.stopCapture\",\"state\":\"done\",\"results\":{\"fileUrls\":["
+                + "\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/VID_20240101_120000_10_001.insv\","
+                + "\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/VID_20240101_120000_00_001.insv\"]}}";
+        StringBuilder builder = new StringBuilder("{\"name\":\"camera.listFiles\",\"state\":\"done\",\"results\":{\"entries\":[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"name\":\"VID_20240101_1200").append(i).append("_00_001.insv\",")
+                    .append("\"fileUrl\":\"http:\\/\\/192.168.42.1:80\\/DCIM\\/Camera01\\/VID_20240101_1200").append(i).append("_00_001.insv\",")
+                    .append("\"size\":").append(1024L * 1024 * 1024 + i).append(",")
+                    .append("\"dateTimeZone\":\"2024:01:01 12:00:00+08:00\",\"width\":5760,\"height\":2880}");
+        }
+        builder.append("],\"totalEntries\":2000}}");
+        mListFilesDone = builder.toString();
+    }
+
+    @Benchmark
+    public void legacyState(Blackhole blackhole) throws Exception {
+        JSONObject jsonObject = new JSONObject(mInProgress);
+        blackhole.consume(jsonObject.getString("state"));
+        blackhole.consume(jsonObject.getString("id"));
+    }
+
+    @Benchmark
+    public void decoderState(Blackhole blackhole) {
+        OscResponse response = OscResponseDecoder.decode(mInProgress);
+        blackhole.consume(response.isInProgress());
+        blackhole.consume(response.getId());
+    }
+
+    @Benchmark
+    public void legacyTakePicture(Blackhole blackhole) throws Exception {
+        JSONObject jsonObject = new JSONObject(mTakePictureDone);
+        blackhole.consume(jsonObject.getString("state"));
+        JSONObject results = jsonObject.getJSONObject("results");
+        String path = null;
+        if (results.has("_fileGroup")) {
+            path = results.get("_fileGroup").toString();
+        }
+        if (path == null || path.isEmpty() || path.equals("[]")) {
+            path = results.getString("fileUrl");
+        }
+        path = path.replaceAll("\\[", "").replaceAll("]", "").replaceAll("\\\\/", "/");
+        String[] paths = path.split(",");
+        for (int j = 0; j < paths.length; j++) {
+            paths[j] = paths[j].replaceAll("\"", "");
+        }
+        blackhole.consume(paths);
+    }
+
+    @Benchmark
+    public void decoderTakePicture(Blackhole blackhole) {
+        OscResponse response = OscResponseDecoder.decode(mTakePictureDone);
+        blackhole.consume(response.isDone());
+        blackhole.consume(response.getPictureUrls());
+    }
+
+    @Benchmark
+    public void legacyStopCapture(Blackhole blackhole) throws Exception {
+        JSONObject jsonObject = new JSONObject(mStopCaptureDone);
+        blackhole.consume(jsonObject.getString("state"));
+        String path = jsonObject.getJSONObject("results").get("fileUrls").toString();
+        path = path.replaceAll("\\[", "").replaceAll("]", "").replaceAll("\\\\/", "/");
+        String[] paths = path.split(",");
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = paths[i].replaceAll("\"", "");
+        }
+        blackhole.consume(paths);
+    }
+
+    @Benchmark
+    public void decoderStopCapture(Blackhole blackhole) {
+        OscResponse response = OscResponseDecoder.decode(mStopCaptureDone);
+        blackhole.consume(response.isDone());
+        blackhole.consume(response.getRecordUrls());
+    }
+
+    // Both read the state, the total and the url and size of every entry
+    @Benchmark
+    public void legacyListFiles(Blackhole blackhole) throws Exception {
+        JSONObject jsonObject = new JSONObject(mListFilesDone);
+        blackhole.consume(jsonObject.getString("state"));
+        JSONObject results = jsonObject.getJSONObject("results");
+        blackhole.consume(results.getInt("totalEntries"));
+        JSONArray entries = results.getJSONArray("entries");
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            blackhole.consume(entry.getString("fileUrl"));
+            blackhole.consume(entry.getLong("size"));
+        }
+    }
+
+    @Benchmark
+    public void decoderListFiles(Blackhole blackhole) throws Exception {
+        OscResponse response = OscListFilesDecoder.decode(new StringReader(mListFilesDone), entry -> {
+            blackhole.consume(entry.getFileUrl());
+            blackhole.consume(entry.getSize());
+        });
+        blackhole.consume(response.isDone());
+        blackhole.consume(response.getTotalEntries());
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.arashivision.sdk.demo.benchmark;
+
+import com.arashivision.sdk.demo.benchmark.simulator.OscCameraSimulator;
+import com.arashivision.sdk.demo.download.ChunkedDownloader;
+import com.arashivision.sdk.demo.download.RangeCacheProxy;
+import com.arashivision.sdkcamera.camera.InstaCameraManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until the player gets its first bytes of a media file that is not downloaded yet.
+ * <ul>
+ * <li>firstBytes: the first firstBytes of the file read through RangeCacheProxy, as a player does
+ * to open it</li>
+ * <li>seek: firstBytes read through RangeCacheProxy from the middle of the file</li>
+ * <li>download: the whole file downloaded by ChunkedDownloader, as before the player could open it</li>
+ * </ul>
+ * Each iteration starts without any cached block. The content read through the proxy is verified.
+ * <p>
+ * Run with: ./gradlew :benchmark:jmh -Pjmh.includes=RangeCacheProxyBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RangeCacheProxyBenchmark {
+
+    private static final String FILE_NAME = "VID_20240101_120000_00_001.insv";
+
+    @Param({"1073741824"})
+    public long fileSize;
+
+    // Bytes per second of each connection
+    @Param({"20971520"})
+    public long streamBandwidth;
+
+    // Moov box and first GOP, enough to show the first frame
+    @Param({"4194304"})
+    public long firstBytes;
+
+    private OscCameraSimulator mSimulator;
+    private File mFolder;
+    private File mFile;
+    private String mUrl;
+    private String mProxyUrl;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mSimulator = new OscCameraSimulator()
+                .setMediaFileSize(fileSize)
+                .setStreamBandwidth(streamBandwidth);
+        mSimulator.start(0);
+        InstaCameraManager.getInstance().setCameraHttpPrefix(mSimulator.getHttpPrefix());
+        mFolder = Files.createTempDirectory("proxy").toFile();
+        mFile = new File(mFolder, FILE_NAME);
+        mUrl = mSimulator.getHttpPrefix() + "/DCIM/Camera01/" + FILE_NAME;
+    }
+
+    @Setup(Level.Iteration)
+    public void clearCache() {
+        if (mProxyUrl != null) {
+            RangeCacheProxy.getInstance().close(mProxyUrl);
+            mProxyUrl = null;
+        }
+        ChunkedDownloader.getInstance().discard(mFile);
+        mFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clearCache();
+        mFolder.delete();
+        mSimulator.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long firstBytes() throws Exception {
+        mProxyUrl = RangeCacheProxy.getInstance().open(mUrl, mFile, null);
+        return read(mProxyUrl, 0, firstBytes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long seek() throws Exception {
+        mProxyUrl = RangeCacheProxy.getInstance().open(mUrl, mFile, null);
+        return read(mProxyUrl, fileSize / 2, firstBytes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object download() throws Exception {
+        return ChunkedDownloader.getInstance().execute(mUrl, mFile);
+    }
+
+    private static long read(String url, long start, long count) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + count - 1));
+        if (connection.getResponseCode() != 206) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        long offset = start;
+        try (InputStream input = connection.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != OscCameraSimulator.getMediaByte(FILE_NAME, offset + i)) {
+                        throw new IOException("Unexpected content at " + (offset + i));
+                    }
+                }
+                offset += read;
+            }
+        }
+        if (offset != start + count) {
+            throw new IOException("Read " + (offset - start) + " != " + count);
+        }
+        return offset;
+    }
+}
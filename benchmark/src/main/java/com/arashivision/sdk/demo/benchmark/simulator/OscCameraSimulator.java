@@ -0,0 +1,458 @@
+package com.arashivision.sdk.demo.benchmark.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in of the camera OSC server, to run OscManager without a camera.
+ * <p>
+ * It implements "/osc/info", "/osc/state", "/osc/checkForUpdates", "/osc/commands/execute"
+ * (camera.takePicture, camera.startCapture, camera.stopCapture, camera.setOptions,
+ * camera.getOptions, camera.listFiles, camera.delete) and "/osc/commands/status".
+ * Every response is delayed by the latency plus a random jitter, camera.takePicture stays in
+ * progress for the capture duration, and a share of the requests could fail with HTTP 503.
+ * <p>
+ * Media files under "/DCIM/" are generated content of the media file size, served with HTTP Range
+ * support, and each connection could be limited to a bandwidth like a TCP stream over Wi-Fi.
+ * <p>
+ * Run standalone with: ./gradlew :benchmark:runSimulator
+ */
+public class OscCameraSimulator {
+
+    private static final String ERROR_BODY = "{\"state\":\"error\",\"error\":{\"code\":\"%s\",\"message\":\"%s\"}}";
+
+    private final Map<String, AtomicLong> mRequestCounts = new ConcurrentHashMap<>();
+    private final Map<String, Long> mCommandDoneTimes = new ConcurrentHashMap<>();
+    private final Map<String, JSONObject> mCommandResults = new ConcurrentHashMap<>();
+    private final Map<String, Object> mOptions = new ConcurrentHashMap<>();
+    private final List<String> mFiles = new ArrayList<>();
+    private final AtomicInteger mCommandId = new AtomicInteger();
+    private final AtomicInteger mFileIndex = new AtomicInteger();
+    private final AtomicInteger mFingerprint = new AtomicInteger();
+
+    {
+        // Exposure options read by OscManager.getCaptureExposureParamsForX2()
+        mOptions.put("exposureProgram", 2);
+        mOptions.put("iso", 100);
+        mOptions.put("shutterSpeed", 0.01);
+        mOptions.put("whiteBalance", "auto");
+        mOptions.put("_WbRGain", 1024);
+        mOptions.put("_WbBGain", 1024);
+    }
+
+    private volatile long mLatency = 5;
+    private volatile long mJitter = 0;
+    private volatile long mCaptureDuration = 500;
+    private volatile double mErrorRate = 0;
+    private volatile long mMediaFileSize = 1024 * 1024;
+    private volatile long mStreamBandwidth = 0;
+    private volatile boolean mRecording;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param latency Delay in ms of every response, default 5ms
+     * @param jitter  Random delay in ms added to or removed from the latency, default 0
+     */
+    public OscCameraSimulator setLatency(long latency, long jitter) {
+        mLatency = Math.max(0, latency);
+        mJitter = Math.max(0, jitter);
+        return this;
+    }
+
+    /**
+     * @param captureDuration Time in ms camera.takePicture stays in progress, default 500ms
+     */
+    public OscCameraSimulator setCaptureDuration(long captureDuration) {
+        mCaptureDuration = Math.max(0, captureDuration);
+        return this;
+    }
+
+    /**
+     * @param errorRate 0 ~ 1, share of the requests which fail with HTTP 503 "serviceUnavailable", default 0
+     */
+    public OscCameraSimulator setErrorRate(double errorRate) {
+        mErrorRate = Math.max(0, Math.min(1, errorRate));
+        return this;
+    }
+
+    /**
+     * @param mediaFileSize Bytes of every media file, default 1MB
+     */
+    public OscCameraSimulator setMediaFileSize(long mediaFileSize) {
+        mMediaFileSize = Math.max(0, mediaFileSize);
+        return this;
+    }
+
+    /**
+     * @param streamBandwidth Max bytes per second of a media response, 0 for unlimited. Default 0
+     */
+    public OscCameraSimulator setStreamBandwidth(long streamBandwidth) {
+        mStreamBandwidth = Math.max(0, streamBandwidth);
+        return this;
+    }
+
+    /**
+     * @return content of the media file at the offset, to verify the downloads
+     */
+    public static byte getMediaByte(String name, long offset) {
+        return (byte) (offset * 31 + name.hashCode() + (offset >> 8));
+    }
+
+    /**
+     * @param port 0 to use any free port
+     * @return the port listened on
+     */
+    public synchronized int start(int port) throws IOException {
+        if (mServer != null) {
+            throw new IllegalStateException("Simulator is already started");
+        }
+        // Like the camera, don't delay small responses (Nagle), it would add up to 40ms per request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "OscCameraSimulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+        return mServer.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+            mServer = null;
+        }
+    }
+
+    /**
+     * @return such as "http://127.0.0.1:8080", use it as the camera http prefix
+     */
+    public synchronized String getHttpPrefix() {
+        if (mServer == null) {
+            throw new IllegalStateException("Simulator is not started");
+        }
+        return "http://" + mServer.getAddress().getAddress().getHostAddress() + ":" + mServer.getAddress().getPort();
+    }
+
+    /**
+     * @param name Api path such as "/osc/commands/status", or command name such as "camera.takePicture"
+     * @return number of requests received
+     */
+    public long getRequestCount(String name) {
+        AtomicLong count = mRequestCounts.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String body = readBody(exchange.getRequestBody());
+            count(path);
+            delay();
+            if (mErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < mErrorRate) {
+                send(exchange, 503, String.format(ERROR_BODY, "serviceUnavailable", "Simulated error"));
+                return;
+            }
+            switch (path) {
+                case "/osc/info":
+                    send(exchange, 200, info().toString());
+                    break;
+                case "/osc/state":
+                    send(exchange, 200, state().toString());
+                    break;
+                case "/osc/checkForUpdates":
+                    send(exchange, 200, new JSONObject()
+                            .put("stateFingerprint", getFingerprint())
+                            .put("throttleTimeout", 1)
+                            .toString());
+                    break;
+                case "/osc/commands/execute":
+                    execute(exchange, new JSONObject(body));
+                    break;
+                case "/osc/commands/status":
+                    status(exchange, new JSONObject(body).optString("id"));
+                    break;
+                default:
+                    if (path.startsWith("/DCIM/")) {
+                        media(exchange, path.substring(path.lastIndexOf('/') + 1));
+                        break;
+                    }
+                    send(exchange, 404, String.format(ERROR_BODY, "unknownCommand", "Unknown api " + path));
+                    break;
+            }
+        } catch (Exception e) {
+            send(exchange, 400, String.format(ERROR_BODY, "invalidParameterValue", String.valueOf(e.getMessage()).replace('"', '\'')));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void execute(HttpExchange exchange, JSONObject request) throws IOException {
+        String name = request.optString("name");
+        JSONObject parameters = request.optJSONObject("parameters");
+        if (parameters == null) {
+            parameters = new JSONObject();
+        }
+        count(name);
+        JSONObject response = new JSONObject().put("name", name).put("state", "done");
+        switch (name) {
+            case "camera.takePicture": {
+                String id = String.valueOf(mCommandId.incrementAndGet());
+                mCommandDoneTimes.put(id, System.currentTimeMillis() + mCaptureDuration);
+                response.put("state", "inProgress")
+                        .put("id", id)
+                        .put("progress", new JSONObject().put("completion", 0));
+                break;
+            }
+            case "camera.startCapture":
+                if (mRecording) {
+                    send(exchange, 400, String.format(ERROR_BODY, "disabledCommand", "Already recording"));
+                    return;
+                }
+                mRecording = true;
+                mFingerprint.incrementAndGet();
+                break;
+            case "camera.stopCapture": {
+                if (!mRecording) {
+                    send(exchange, 400, String.format(ERROR_BODY, "disabledCommand", "Not recording"));
+                    return;
+                }
+                mRecording = false;
+                int index = mFileIndex.incrementAndGet();
+                String rear = addFile(String.format(Locale.US, "VID_20240101_120000_10_%03d.insv", index));
+                String front = addFile(String.format(Locale.US, "VID_20240101_120000_00_%03d.insv", index));
+                mFingerprint.incrementAndGet();
+                response.put("results", new JSONObject().put("fileUrls", new JSONArray().put(rear).put(front)));
+                break;
+            }
+            case "camera.setOptions": {
+                JSONObject options = parameters.optJSONObject("options");
+                if (options != null) {
+                    for (String key : options.keySet()) {
+                        mOptions.put(key, options.get(key));
+                    }
+                }
+                mFingerprint.incrementAndGet();
+                break;
+            }
+            case "camera.getOptions": {
+                JSONArray names = parameters.optJSONArray("optionNames");
+                JSONObject options = new JSONObject();
+                for (int i = 0; names != null && i < names.length(); i++) {
+                    String option = names.getString(i);
+                    options.put(option, mOptions.containsKey(option) ? mOptions.get(option) : JSONObject.NULL);
+                }
+                response.put("results", new JSONObject().put("options", options));
+                break;
+            }
+            case "camera.listFiles":
+                response.put("results", listFiles(parameters.optInt("startPosition", 0), parameters.optInt("entryCount", 10)));
+                break;
+            case "camera.delete":
+                synchronized (mFiles) {
+                    mFiles.clear();
+                }
+                mFingerprint.incrementAndGet();
+                break;
+            default:
+                send(exchange, 400, String.format(ERROR_BODY, "unknownCommand", "Unknown command " + name));
+                return;
+        }
+        send(exchange, 200, response.toString());
+    }
+
+    private void status(HttpExchange exchange, String id) throws IOException {
+        Long doneTime = mCommandDoneTimes.get(id);
+        if (doneTime == null) {
+            send(exchange, 400, String.format(ERROR_BODY, "invalidParameterValue", "Unknown id " + id));
+            return;
+        }
+        JSONObject response = new JSONObject().put("name", "camera.takePicture").put("id", id);
+        long now = System.currentTimeMillis();
+        if (now < doneTime) {
+            double completion = mCaptureDuration == 0 ? 1 : 1 - (doneTime - now) / (double) mCaptureDuration;
+            response.put("state", "inProgress").put("progress", new JSONObject().put("completion", completion));
+        } else {
+            // The file is created by the first poll after done, later polls get the same result
+            JSONObject results = mCommandResults.computeIfAbsent(id, key -> {
+                int index = mFileIndex.incrementAndGet();
+                String file = addFile(String.format(Locale.US, "IMG_20240101_120000_00_%03d.insp", index));
+                mFingerprint.incrementAndGet();
+                return new JSONObject().put("fileUrl", file).put("_fileGroup", new JSONArray().put(file));
+            });
+            response.put("results", results);
+            response.put("state", "done");
+        }
+        send(exchange, 200, response.toString());
+    }
+
+    // Support "Range: bytes=start-end" and "bytes=start-"
+    private void media(HttpExchange exchange, String name) throws IOException, InterruptedException {
+        long size = mMediaFileSize;
+        long start = 0;
+        long end = size - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int code = 200;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Long.parseLong(bounds[0].trim());
+            if (!bounds[1].trim().isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1].trim()));
+            }
+            if (start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            code = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        long length = end - start + 1;
+        exchange.sendResponseHeaders(code, length == 0 ? -1 : length);
+        byte[] buffer = new byte[16 * 1024];
+        long startTime = System.nanoTime();
+        long sent = 0;
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            while (sent < length) {
+                int count = (int) Math.min(buffer.length, length - sent);
+                for (int i = 0; i < count; i++) {
+                    buffer[i] = getMediaByte(name, start + sent + i);
+                }
+                outputStream.write(buffer, 0, count);
+                sent += count;
+                long bandwidth = mStreamBandwidth;
+                if (bandwidth > 0) {
+                    long ahead = sent * 1000 / bandwidth - (System.nanoTime() - startTime) / 1_000_000;
+                    if (ahead > 0) {
+                        Thread.sleep(ahead);
+                    }
+                }
+            }
+        }
+    }
+
+    private JSONObject info() {
+        return new JSONObject()
+                .put("manufacturer", "Arashi Vision")
+                .put("model", "OSC Simulator")
+                .put("serialNumber", "SIMULATOR")
+                .put("firmwareVersion", "1.0.0")
+                .put("apiLevel", new JSONArray().put(2))
+                .put("api", new JSONArray()
+                        .put("/osc/info")
+                        .put("/osc/state")
+                        .put("/osc/checkForUpdates")
+                        .put("/osc/commands/execute")
+                        .put("/osc/commands/status"));
+    }
+
+    private JSONObject state() {
+        return new JSONObject()
+                .put("fingerprint", getFingerprint())
+                .put("state", new JSONObject()
+                        .put("batteryLevel", 1.0)
+                        .put("_recording", mRecording)
+                        .put("storageUri", "SIMULATOR"));
+    }
+
+    private JSONObject listFiles(int startPosition, int entryCount) {
+        JSONArray entries = new JSONArray();
+        int total;
+        synchronized (mFiles) {
+            total = mFiles.size();
+            for (int i = startPosition; i < total && i < startPosition + entryCount; i++) {
+                String url = mFiles.get(i);
+                entries.put(new JSONObject()
+                        .put("name", url.substring(url.lastIndexOf('/') + 1))
+                        .put("fileUrl", url)
+                        .put("size", mMediaFileSize)
+                        .put("dateTimeZone", "2024:01:01 12:00:00+08:00")
+                        .put("width", 6080)
+                        .put("height", 3040));
+            }
+        }
+        return new JSONObject().put("entries", entries).put("totalEntries", total);
+    }
+
+    private String addFile(String name) {
+        String url = getHttpPrefix() + "/DCIM/Camera01/" + name;
+        synchronized (mFiles) {
+            mFiles.add(url);
+        }
+        return url;
+    }
+
+    private String getFingerprint() {
+        return "FIG_" + mFingerprint.get();
+    }
+
+    private void count(String name) {
+        mRequestCounts.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void delay() throws InterruptedException {
+        long delay = mLatency;
+        if (mJitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-mJitter, mJitter + 1);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private static String readBody(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        OscCameraSimulator simulator = new OscCameraSimulator();
+        simulator.start(port);
+        System.out.println("OSC simulator listening on " + simulator.getHttpPrefix());
+        Thread.currentThread().join();
+    }
+}
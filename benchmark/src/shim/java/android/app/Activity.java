@@ -0,0 +1,15 @@
+package android.app;
+
+/**
+ * JVM stand-in of the Android Activity, only for running the OSC layer in benchmarks
+ */
+public class Activity {
+
+    public boolean isFinishing() {
+        return false;
+    }
+
+    public boolean isDestroyed() {
+        return false;
+    }
+}
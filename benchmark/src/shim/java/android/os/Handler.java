@@ -0,0 +1,67 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM stand-in of the Android Handler, only for running the OSC layer in benchmarks.
+ * All messages run in order on one "main" thread, like callbacks on the Android main thread.
+ */
+public class Handler {
+
+    private static final ScheduledExecutorService sMainThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Pending messages of this Handler, guarded by itself
+    private final Map<Runnable, List<Future<?>>> mPending = new IdentityHashMap<>();
+
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        synchronized (mPending) {
+            Future<?>[] future = new Future<?>[1];
+            future[0] = sMainThread.schedule(() -> {
+                synchronized (mPending) {
+                    List<Future<?>> futures = mPending.get(r);
+                    if (futures == null || !futures.remove(future[0])) {
+                        return;
+                    }
+                    if (futures.isEmpty()) {
+                        mPending.remove(r);
+                    }
+                }
+                r.run();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            mPending.computeIfAbsent(r, key -> new ArrayList<>()).add(future[0]);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (mPending) {
+            List<Future<?>> futures = mPending.remove(r);
+            if (futures != null) {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+}
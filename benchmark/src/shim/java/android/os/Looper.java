@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * JVM stand-in of the Android Looper, only for running the OSC layer in benchmarks
+ */
+public final class Looper {
+
+    private static final Looper sMainLooper = new Looper();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    // Only the "main" thread of the Handler has a Looper
+    public static Looper myLooper() {
+        return "main".equals(Thread.currentThread().getName()) ? sMainLooper : null;
+    }
+}
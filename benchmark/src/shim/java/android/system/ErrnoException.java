@@ -0,0 +1,14 @@
+package android.system;
+
+/**
+ * JVM stand-in of the Android ErrnoException, only for running the download layer in benchmarks
+ */
+public final class ErrnoException extends Exception {
+
+    public final int errno;
+
+    public ErrnoException(String functionName, int errno) {
+        super(functionName + " failed: errno " + errno);
+        this.errno = errno;
+    }
+}
@@ -0,0 +1,20 @@
+package android.system;
+
+import java.io.FileDescriptor;
+
+/**
+ * JVM stand-in of the Android Os, only for running the download layer in benchmarks.
+ * The JDK has no fallocate, the callers fall back to extending the file.
+ */
+public final class Os {
+
+    // Operation not supported
+    private static final int EOPNOTSUPP = 95;
+
+    private Os() {
+    }
+
+    public static void posix_fallocate(FileDescriptor fd, long offset, long length) throws ErrnoException {
+        throw new ErrnoException("posix_fallocate", EOPNOTSUPP);
+    }
+}
@@ -0,0 +1,11 @@
+package android.text;
+
+/**
+ * JVM stand-in of the Android TextUtils, only for running the OSC layer in benchmarks
+ */
+public class TextUtils {
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
@@ -0,0 +1,55 @@
+package android.view;
+
+import android.os.Handler;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in of the Android Choreographer, only for running the OSC layer in benchmarks.
+ * Frame callbacks run on the "main" thread of the Handler at the next 16ms boundary, like a 60Hz display.
+ */
+public final class Choreographer {
+
+    private static final long FRAME_INTERVAL = 16;
+    private static final Choreographer sInstance = new Choreographer();
+
+    public interface FrameCallback {
+        void doFrame(long frameTimeNanos);
+    }
+
+    private final Handler mHandler = new Handler();
+    // Posted frame of each callback, guarded by itself
+    private final Map<FrameCallback, Runnable> mFrames = new IdentityHashMap<>();
+
+    private Choreographer() {
+    }
+
+    public static Choreographer getInstance() {
+        return sInstance;
+    }
+
+    public void postFrameCallback(FrameCallback callback) {
+        long delay = FRAME_INTERVAL - System.currentTimeMillis() % FRAME_INTERVAL;
+        Runnable frame;
+        synchronized (mFrames) {
+            frame = mFrames.computeIfAbsent(callback, key -> () -> {
+                synchronized (mFrames) {
+                    mFrames.remove(key);
+                }
+                key.doFrame(System.nanoTime());
+            });
+        }
+        mHandler.postDelayed(frame, delay);
+    }
+
+    public void removeFrameCallback(FrameCallback callback) {
+        Runnable frame;
+        synchronized (mFrames) {
+            frame = mFrames.remove(callback);
+        }
+        if (frame != null) {
+            mHandler.removeCallbacks(frame);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.arashivision.sdkcamera.camera;
+
+/**
+ * JVM stand-in of the camera SDK, only for running the OSC layer in benchmarks.
+ * The camera is "connected" by Wi-Fi at the address set by setCameraHttpPrefix(), such as the OscCameraSimulator.
+ */
+public class InstaCameraManager {
+
+    public static final int CONNECT_TYPE_NONE = -1;
+    public static final int CONNECT_TYPE_USB = 1;
+    public static final int CONNECT_TYPE_WIFI = 2;
+    public static final int CONNECT_TYPE_BLE = 3;
+
+    private static final InstaCameraManager sInstance = new InstaCameraManager();
+
+    private volatile String mCameraHttpPrefix;
+
+    public static InstaCameraManager getInstance() {
+        return sInstance;
+    }
+
+    public void setCameraHttpPrefix(String cameraHttpPrefix) {
+        mCameraHttpPrefix = cameraHttpPrefix;
+    }
+
+    public String getCameraHttpPrefix() {
+        return mCameraHttpPrefix;
+    }
+
+    public int getCameraConnectedType() {
+        return mCameraHttpPrefix == null ? CONNECT_TYPE_NONE : CONNECT_TYPE_WIFI;
+    }
+}